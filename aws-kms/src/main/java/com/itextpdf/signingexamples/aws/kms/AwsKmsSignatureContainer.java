@@ -1,30 +1,20 @@
 package com.itextpdf.signingexamples.aws.kms;
 
-import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.security.GeneralSecurityException;
+import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
-import java.util.Collections;
 import java.util.List;
 import java.util.function.Function;
 
-import org.bouncycastle.asn1.ASN1ObjectIdentifier;
-import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
-import org.bouncycastle.cert.X509CertificateHolder;
-import org.bouncycastle.cert.jcajce.JcaCertStore;
-import org.bouncycastle.cms.CMSException;
-import org.bouncycastle.cms.CMSSignedData;
-import org.bouncycastle.cms.CMSSignedDataGenerator;
-import org.bouncycastle.cms.CMSTypedData;
-import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
 import org.bouncycastle.operator.ContentSigner;
-import org.bouncycastle.operator.OperatorCreationException;
-import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
 
 import com.itextpdf.kernel.pdf.PdfDictionary;
 import com.itextpdf.kernel.pdf.PdfName;
-import com.itextpdf.signatures.IExternalSignatureContainer;
+import com.itextpdf.signingexamples.common.CMSSignedDataTemplate;
+import com.itextpdf.signingexamples.common.CMSTypedDataInputStream;
+import com.itextpdf.signingexamples.common.SignatureContainerSizeEstimator;
+import com.itextpdf.signingexamples.common.SizeEstimatingSignatureContainer;
 
 import software.amazon.awssdk.services.kms.KmsClient;
 import software.amazon.awssdk.services.kms.model.GetPublicKeyRequest;
@@ -34,7 +24,7 @@ import software.amazon.awssdk.services.kms.model.SigningAlgorithmSpec;
 /**
  * @author mkl
  */
-public class AwsKmsSignatureContainer implements IExternalSignatureContainer {
+public class AwsKmsSignatureContainer implements SizeEstimatingSignatureContainer {
     public AwsKmsSignatureContainer(X509Certificate x509Certificate, String keyId) {
         this(x509Certificate, keyId, a -> a != null && a.size() > 0 ? a.get(0) : null);
     }
@@ -53,28 +43,22 @@ public class AwsKmsSignatureContainer implements IExternalSignatureContainer {
                 throw new IllegalArgumentException("KMS key has no signing algorithms");
             contentSigner = new AwsKmsContentSigner(keyId, signingAlgorithmSpec);
         }
+
+        try {
+            template = new CMSSignedDataTemplate(new Certificate[] { x509Certificate }, contentSigner.getAlgorithmIdentifier());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Cannot create CMS template for KMS key signing algorithm " + signingAlgorithmSpec, e);
+        }
     }
 
     @Override
     public byte[] sign(InputStream data) throws GeneralSecurityException {
-        try {
-            CMSTypedData msg = new CMSTypedDataInputStream(data);
-
-            X509CertificateHolder signCert = new X509CertificateHolder(x509Certificate.getEncoded());
-
-            CMSSignedDataGenerator gen = new CMSSignedDataGenerator();
-
-            gen.addSignerInfoGenerator(
-                    new JcaSignerInfoGeneratorBuilder(new JcaDigestCalculatorProviderBuilder().setProvider("BC").build())
-                            .build(contentSigner, signCert));
-
-            gen.addCertificates(new JcaCertStore(Collections.singleton(signCert)));
+        return template.sign(new CMSTypedDataInputStream(data), contentSigner);
+    }
 
-            CMSSignedData sigData = gen.generate(msg, false);
-            return sigData.getEncoded();
-        } catch (IOException | OperatorCreationException | CMSException e) {
-            throw new GeneralSecurityException(e);
-        }
+    @Override
+    public int estimateSize() throws GeneralSecurityException {
+        return new SignatureContainerSizeEstimator(template).estimate();
     }
 
     @Override
@@ -87,33 +71,5 @@ public class AwsKmsSignatureContainer implements IExternalSignatureContainer {
     final String keyId;
     final SigningAlgorithmSpec signingAlgorithmSpec;
     final ContentSigner contentSigner;
-
-    class CMSTypedDataInputStream implements CMSTypedData {
-        InputStream in;
-
-        public CMSTypedDataInputStream(InputStream is) {
-            in = is;
-        }
-
-        @Override
-        public ASN1ObjectIdentifier getContentType() {
-            return PKCSObjectIdentifiers.data;
-        }
-
-        @Override
-        public Object getContent() {
-            return in;
-        }
-
-        @Override
-        public void write(OutputStream out) throws IOException,
-                CMSException {
-            byte[] buffer = new byte[8 * 1024];
-            int read;
-            while ((read = in.read(buffer)) != -1) {
-                out.write(buffer, 0, read);
-            }
-            in.close();
-        }
-    }
+    final CMSSignedDataTemplate template;
 }
@@ -103,7 +103,7 @@ class TestSignSimple {
                 OutputStream result = new FileOutputStream(new File(RESULT_FOLDER, "circles-aws-kms-signed-simple-RSASSA_PSS-External.pdf"))) {
             PdfSigner pdfSigner = new PdfSigner(pdfReader, result, new StampingProperties().useAppendMode());
 
-            pdfSigner.signExternalContainer(signatureContainer, 8192);
+            pdfSigner.signExternalContainer(signatureContainer, signatureContainer.estimateSize());
         }
     }
 
@@ -118,7 +118,7 @@ class TestSignSimple {
                 OutputStream result = new FileOutputStream(new File(RESULT_FOLDER, "circles-aws-kms-signed-simple-ECDSA-External.pdf"))) {
             PdfSigner pdfSigner = new PdfSigner(pdfReader, result, new StampingProperties().useAppendMode());
 
-            pdfSigner.signExternalContainer(signatureContainer, 8192);
+            pdfSigner.signExternalContainer(signatureContainer, signatureContainer.estimateSize());
         }
     }
 }
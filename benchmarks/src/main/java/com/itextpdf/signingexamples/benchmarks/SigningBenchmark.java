@@ -0,0 +1,195 @@
+package com.itextpdf.signingexamples.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.itextpdf.forms.fields.properties.SignedAppearanceText;
+import com.itextpdf.forms.form.element.SignatureFieldAppearance;
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.kernel.geom.PageSize;
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.CompressionConstants;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.StampingProperties;
+import com.itextpdf.kernel.pdf.WriterProperties;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import com.itextpdf.signatures.BouncyCastleDigest;
+import com.itextpdf.signatures.IExternalDigest;
+import com.itextpdf.signatures.IExternalSignature;
+import com.itextpdf.signatures.PdfSigner;
+import com.itextpdf.signatures.PdfSigner.CryptoStandard;
+import com.itextpdf.signatures.PrivateKeySignature;
+import com.itextpdf.signatures.RSASSAPSSMechanismParams;
+import com.itextpdf.signatures.SignerProperties;
+import com.itextpdf.signingexamples.jcajce.PrivateKeySignatureContainerBC;
+
+/**
+ * <p>
+ * This benchmark measures signing a PDF in memory, either by iText's own
+ * {@link PdfSigner#signDetached(IExternalDigest, IExternalSignature, Certificate[], java.util.Collection, com.itextpdf.signatures.IOcspClient, com.itextpdf.signatures.ITSAClient, int, CryptoStandard)}
+ * with a {@link PrivateKeySignature} or by
+ * {@link PdfSigner#signExternalContainer(com.itextpdf.signatures.IExternalSignatureContainer, int)}
+ * with a {@link PrivateKeySignatureContainerBC}.
+ * </p>
+ * <p>
+ * The keys are taken from the <code>test1234.p12</code> keystore of the
+ * simple module; the keystore directory can be set by the system property
+ * <code>signingexamples.keystore.dir</code>, by default it is
+ * <code>../simple/keystore</code>. The documents to sign are generated
+ * with the given number of pages of uncompressed content of the given
+ * size each.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SigningBenchmark {
+    final static String STORE_NAME = "test1234.p12";
+    final static char[] STORE_PASS = "test1234".toCharArray();
+
+    @Param({"RSA", "RSASSA-PSS", "ECDSA"})
+    public String algorithm;
+
+    @Param({"1", "100"})
+    public int pages;
+
+    @Param({"1", "64"})
+    public int kilobytesPerPage;
+
+    @Param({"CONTAINER", "DETACHED"})
+    public String api;
+
+    @Param({"true", "false"})
+    public boolean appendMode;
+
+    @Param({"false", "true"})
+    public boolean visible;
+
+    byte[] document;
+    Certificate[] chain;
+    PrivateKeySignatureContainerBC signatureContainer;
+    int estimatedSize;
+    IExternalSignature externalSignature;
+    IExternalDigest externalDigest;
+
+    @Setup
+    public void setUp() throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+
+        KeyStore ks = KeyStore.getInstance("pkcs12", "SunJSSE");
+        try (   InputStream keystore = new FileInputStream(System.getProperty("signingexamples.keystore.dir", "../simple/keystore") + '/' + STORE_NAME)   ) {
+            ks.load(keystore, STORE_PASS);
+        }
+        String alias = "ECDSA".equals(algorithm) ? "ECDSAkey" : "RSAkey";
+        PrivateKey pk = (PrivateKey) ks.getKey(alias, STORE_PASS);
+        chain = ks.getCertificateChain(alias);
+
+        switch (algorithm) {
+        case "RSA":
+            signatureContainer = new PrivateKeySignatureContainerBC("SHA256withRSA", pk, (X509Certificate) chain[0], PdfName.Adbe_pkcs7_detached);
+            externalSignature = new PrivateKeySignature(pk, "SHA256", BouncyCastleProvider.PROVIDER_NAME);
+            break;
+        case "RSASSA-PSS":
+            signatureContainer = new PrivateKeySignatureContainerBC("SHA256withRSAandMGF1", pk, (X509Certificate) chain[0], PdfName.Adbe_pkcs7_detached);
+            externalSignature = new PrivateKeySignature(pk, "SHA256", "RSASSA-PSS", BouncyCastleProvider.PROVIDER_NAME,
+                    RSASSAPSSMechanismParams.createForDigestAlgorithm("SHA256"));
+            break;
+        case "ECDSA":
+            signatureContainer = new PrivateKeySignatureContainerBC("SHA256withECDSA", pk, (X509Certificate) chain[0], PdfName.Adbe_pkcs7_detached);
+            externalSignature = new PrivateKeySignature(pk, "SHA256", BouncyCastleProvider.PROVIDER_NAME);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown algorithm " + algorithm);
+        }
+        estimatedSize = signatureContainer.estimateSize();
+        externalDigest = new BouncyCastleDigest();
+
+        document = createDocument(pages, kilobytesPerPage);
+    }
+
+    @Benchmark
+    public byte[] sign() throws IOException, GeneralSecurityException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(document.length + 32 * 1024);
+        try (   PdfReader pdfReader = new PdfReader(new ByteArrayInputStream(document))   ) {
+            StampingProperties stampingProperties = new StampingProperties();
+            if (appendMode)
+                stampingProperties.useAppendMode();
+            PdfSigner pdfSigner = new PdfSigner(pdfReader, result, stampingProperties);
+
+            SignerProperties signerProperties = new SignerProperties()
+                    .setFieldName("Signature")
+                    .setReason("Benchmark")
+                    .setLocation("Cologne");
+            if (visible) {
+                SignatureFieldAppearance appearance = new SignatureFieldAppearance(SignerProperties.IGNORED_ID);
+                appearance.setContent(new SignedAppearanceText()); // SignedAppearanceText will be filled in automatically
+                signerProperties.setPageNumber(1)
+                        .setPageRect(new Rectangle(100, 500, 300, 100))
+                        .setSignatureAppearance(appearance);
+            }
+            pdfSigner.setSignerProperties(signerProperties);
+
+            if ("DETACHED".equals(api))
+                pdfSigner.signDetached(externalDigest, externalSignature, chain, null, null, null, 0, CryptoStandard.CMS);
+            else
+                pdfSigner.signExternalContainer(signatureContainer, estimatedSize);
+        }
+        return result.toByteArray();
+    }
+
+    /**
+     * Creates a document with the given number of pages, each with about
+     * the given number of kilobytes of uncompressed text content.
+     */
+    static byte[] createDocument(int pages, int kilobytesPerPage) throws IOException {
+        Random random = new Random(42);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (   PdfDocument pdfDocument = new PdfDocument(new PdfWriter(baos, new WriterProperties().setCompressionLevel(CompressionConstants.NO_COMPRESSION)))   ) {
+            PdfFont font = PdfFontFactory.createFont(StandardFonts.COURIER);
+            char[] line = new char[100];
+            for (int page = 0; page < pages; page++) {
+                PdfCanvas canvas = new PdfCanvas(pdfDocument.addNewPage(PageSize.A4));
+                canvas.beginText().setFontAndSize(font, 4).moveText(20, 820);
+                for (int size = 0; size < kilobytesPerPage * 1024; size += line.length + 8) {
+                    for (int i = 0; i < line.length; i++)
+                        line[i] = (char) ('a' + random.nextInt(26));
+                    canvas.newlineShowText(new String(line));
+                }
+                canvas.endText();
+            }
+        }
+        return baos.toByteArray();
+    }
+}
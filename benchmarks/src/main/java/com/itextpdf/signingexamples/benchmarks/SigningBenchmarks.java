@@ -0,0 +1,32 @@
+package com.itextpdf.signingexamples.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>
+ * This class runs the signing benchmarks with the JMH GC profiler enabled,
+ * so the allocation rate per signature is reported alongside the
+ * throughput. All the usual JMH command line options are accepted, e.g.
+ * </p>
+ * <pre>
+ * java -jar target/benchmarks.jar SigningBenchmark -p algorithm=ECDSA -p visible=true
+ * </pre>
+ * <p>
+ * As the shaded jar does not keep the BouncyCastle jar signature, cf. the
+ * package documentation, services requiring a signed JCE provider cannot
+ * be used from it.
+ * </p>
+ */
+public class SigningBenchmarks {
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
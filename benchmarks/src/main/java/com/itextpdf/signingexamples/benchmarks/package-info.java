@@ -0,0 +1,18 @@
+/**
+ * <p>
+ * This package contains JMH benchmarks of the signing code paths of the
+ * simple module, cf. {@link com.itextpdf.signingexamples.benchmarks.SigningBenchmarks}
+ * for running them from the shaded <code>target/benchmarks.jar</code>.
+ * </p>
+ * <p>
+ * Shading strips the jar signatures of all dependencies, among them the
+ * one of the BouncyCastle provider. Thus, on JREs which only accept
+ * signed JCE providers, e.g. Oracle JDKs for ciphers, key agreements, and
+ * MACs, BouncyCastle cannot provide such services from the shaded jar.
+ * The benchmarks only use BouncyCastle signature and digest services
+ * which are not subject to that check; to benchmark other services, run
+ * the benchmark classes with the original BouncyCastle jars on the class
+ * path instead.
+ * </p>
+ */
+package com.itextpdf.signingexamples.benchmarks;
@@ -0,0 +1,303 @@
+package com.itextpdf.signingexamples.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.cms.Attribute;
+import org.bouncycastle.asn1.cms.CMSAlgorithmProtection;
+import org.bouncycastle.asn1.cms.CMSAttributes;
+import org.bouncycastle.asn1.cms.CMSObjectIdentifiers;
+import org.bouncycastle.asn1.cms.IssuerAndSerialNumber;
+import org.bouncycastle.asn1.cms.SignerIdentifier;
+import org.bouncycastle.asn1.cms.Time;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSTypedData;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.DefaultDigestAlgorithmIdentifierFinder;
+import org.bouncycastle.operator.DigestCalculator;
+import org.bouncycastle.operator.DigestCalculatorProvider;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+
+/**
+ * <p>
+ * This class creates detached CMS signature containers for a fixed signer
+ * certificate chain and signature algorithm, producing the same structure
+ * as a BouncyCastle {@link org.bouncycastle.cms.CMSSignedDataGenerator}
+ * with a default signer info generator: the signed attributes content
+ * type, signing time, message digest, and CMS algorithm protection.
+ * </p>
+ * <p>
+ * All invariant parts, i.e. the certificate set, the signer identifier,
+ * and the algorithm identifiers, are encoded once on construction. Per
+ * document only the signed attributes and the signature value are encoded
+ * and the final DER is assembled into a single, exactly sized array.
+ * Thus, it is meant to be created once per signer and used for many
+ * documents, also concurrently.
+ * </p>
+ */
+public class CMSSignedDataTemplate {
+    /** 2050-01-01T00:00:00Z, from when on signing times are encoded as generalized time. */
+    final static long GENERALIZED_TIME_FROM = 2524608000000L;
+
+    final Certificate[] chain;
+    final AlgorithmIdentifier signatureAlgorithm;
+    final AlgorithmIdentifier digestAlgorithm;
+    final DigestCalculatorProvider digestCalculatorProvider;
+
+    /** The pre-encoded content type attribute. */
+    final Attribute contentTypeAttribute;
+    /** The pre-encoded CMS algorithm protection attribute. */
+    final Attribute algorithmProtectionAttribute;
+
+    /** The encoded OID of signed data. */
+    final byte[] signedDataType;
+    /** The encoded version, digest algorithms, encapsulated content info, and certificates of the signed data. */
+    final byte[] signedDataPrefix;
+    /** The encoded version, signer identifier, and digest algorithm of the signer info. */
+    final byte[] signerInfoPrefix;
+    /** The encoded signature algorithm of the signer info. */
+    final byte[] signerInfoSignatureAlgorithm;
+
+    public CMSSignedDataTemplate(Certificate[] chain, AlgorithmIdentifier signatureAlgorithm) throws GeneralSecurityException {
+        if (chain == null || chain.length == 0)
+            throw new IllegalArgumentException("A signer certificate is required");
+        this.chain = chain;
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.digestAlgorithm = new DefaultDigestAlgorithmIdentifierFinder().find(signatureAlgorithm);
+        if (digestAlgorithm == null)
+            throw new GeneralSecurityException("No digest algorithm known for " + signatureAlgorithm.getAlgorithm());
+
+        try {
+            this.digestCalculatorProvider = new JcaDigestCalculatorProviderBuilder().setProvider("BC").build();
+
+            contentTypeAttribute = new Attribute(CMSAttributes.contentType, new DERSet(CMSObjectIdentifiers.data));
+            algorithmProtectionAttribute = new Attribute(CMSAttributes.cmsAlgorithmProtect,
+                    new DERSet(new CMSAlgorithmProtection(digestAlgorithm, CMSAlgorithmProtection.SIGNATURE, signatureAlgorithm)));
+
+            ASN1EncodableVector certificates = new ASN1EncodableVector();
+            for (Certificate certificate : chain)
+                certificates.add(org.bouncycastle.asn1.x509.Certificate.getInstance(certificate.getEncoded()));
+
+            signedDataType = CMSObjectIdentifiers.signedData.getEncoded(ASN1Encoding.DER);
+            signedDataPrefix = concat(
+                    new ASN1Integer(1).getEncoded(ASN1Encoding.DER),
+                    new DERSet(digestAlgorithm).getEncoded(ASN1Encoding.DER),
+                    new DERSequence(CMSObjectIdentifiers.data).getEncoded(ASN1Encoding.DER),
+                    new DERTaggedObject(false, 0, new DERSet(certificates)).getEncoded(ASN1Encoding.DER));
+
+            X509Certificate signerCertificate = (X509Certificate) chain[0];
+            SignerIdentifier signerIdentifier = new SignerIdentifier(new IssuerAndSerialNumber(
+                    X500Name.getInstance(signerCertificate.getIssuerX500Principal().getEncoded()), signerCertificate.getSerialNumber()));
+            signerInfoPrefix = concat(
+                    new ASN1Integer(1).getEncoded(ASN1Encoding.DER),
+                    signerIdentifier.getEncoded(ASN1Encoding.DER),
+                    digestAlgorithm.getEncoded(ASN1Encoding.DER));
+            signerInfoSignatureAlgorithm = signatureAlgorithm.getEncoded(ASN1Encoding.DER);
+        } catch (IOException | OperatorCreationException e) {
+            throw new GeneralSecurityException(e);
+        }
+    }
+
+    public Certificate[] getChain() {
+        return chain;
+    }
+
+    public AlgorithmIdentifier getSignatureAlgorithm() {
+        return signatureAlgorithm;
+    }
+
+    public AlgorithmIdentifier getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    /**
+     * Checks whether this template has been created for the given chain
+     * instance and signature algorithm.
+     */
+    public boolean matches(Certificate[] chain, AlgorithmIdentifier signatureAlgorithm) {
+        return this.chain == chain && this.signatureAlgorithm.equals(signatureAlgorithm);
+    }
+
+    /**
+     * Creates the encoded detached CMS signature container for the given
+     * content, signing the signed attributes with the given content signer
+     * which must use the signature algorithm of this template.
+     */
+    public byte[] sign(CMSTypedData content, ContentSigner contentSigner) throws GeneralSecurityException {
+        byte[] signedAttributes = createSignedAttributes(content);
+        try {
+            try (   OutputStream signerStream = contentSigner.getOutputStream()   ) {
+                signerStream.write(signedAttributes);
+            }
+            byte[] signature = contentSigner.getSignature();
+
+            return assemble(signedAttributes, signature);
+        } catch (IOException | RuntimeException e) {
+            if (e.getCause() instanceof GeneralSecurityException)
+                throw (GeneralSecurityException) e.getCause();
+            throw new GeneralSecurityException(e);
+        }
+    }
+
+    /**
+     * Creates the DER encoded signed attributes for the given content. These
+     * are the bytes to sign, e.g. by a remote signing service, before
+     * {@link #assemble(byte[], byte[])} can create the signature container.
+     */
+    public byte[] createSignedAttributes(CMSTypedData content) throws GeneralSecurityException {
+        try {
+            DigestCalculator digestCalculator = digestCalculatorProvider.get(digestAlgorithm);
+            try (   OutputStream digestStream = digestCalculator.getOutputStream()   ) {
+                content.write(digestStream);
+            }
+
+            ASN1Encodable[] attributes = new ASN1Encodable[] {
+                    contentTypeAttribute,
+                    new Attribute(CMSAttributes.signingTime, new DERSet(new Time(new Date()))),
+                    new Attribute(CMSAttributes.messageDigest, new DERSet(new DEROctetString(digestCalculator.getDigest()))),
+                    algorithmProtectionAttribute
+            };
+            return new DERSet(attributes).getEncoded(ASN1Encoding.DER);
+        } catch (IOException | CMSException | OperatorCreationException e) {
+            throw new GeneralSecurityException(e);
+        }
+    }
+
+    /**
+     * Returns the digest of the given data using the digest algorithm of
+     * this template, e.g. of the signed attributes for signing services
+     * which expect a hash to sign.
+     */
+    public byte[] digest(byte[] data) throws GeneralSecurityException {
+        try {
+            DigestCalculator digestCalculator = digestCalculatorProvider.get(digestAlgorithm);
+            try (   OutputStream digestStream = digestCalculator.getOutputStream()   ) {
+                digestStream.write(data);
+            }
+            return digestCalculator.getDigest();
+        } catch (IOException | OperatorCreationException e) {
+            throw new GeneralSecurityException(e);
+        }
+    }
+
+    /**
+     * Returns the maximum encoded size of the signed attributes created by
+     * {@link #sign(CMSTypedData, ContentSigner)}, i.e. without outer header.
+     */
+    int maxSignedAttributesContentSize() throws GeneralSecurityException {
+        try {
+            int digestLength = digestCalculatorProvider.get(digestAlgorithm).getDigest().length;
+            // a generalized time is used from 2050 on and is longer than the UTC time used before
+            Attribute signingTimeAttribute = new Attribute(CMSAttributes.signingTime,
+                    new DERSet(new Time(new Date(GENERALIZED_TIME_FROM))));
+            Attribute messageDigestAttribute = new Attribute(CMSAttributes.messageDigest,
+                    new DERSet(new DEROctetString(new byte[digestLength])));
+            return contentTypeAttribute.getEncoded(ASN1Encoding.DER).length
+                    + signingTimeAttribute.getEncoded(ASN1Encoding.DER).length
+                    + messageDigestAttribute.getEncoded(ASN1Encoding.DER).length
+                    + algorithmProtectionAttribute.getEncoded(ASN1Encoding.DER).length;
+        } catch (IOException | OperatorCreationException e) {
+            throw new GeneralSecurityException(e);
+        }
+    }
+
+    /**
+     * Returns the size of the encoded content info for signed attributes
+     * and signature value of the given sizes.
+     */
+    int encodedSize(int signedAttributesContentSize, int signatureSize) {
+        int signerInfoLength = signerInfoPrefix.length + tlvLength(signedAttributesContentSize) + signerInfoSignatureAlgorithm.length
+                + tlvLength(signatureSize);
+        int signedDataLength = signedDataPrefix.length + tlvLength(tlvLength(signerInfoLength));
+        int contentInfoLength = signedDataType.length + tlvLength(tlvLength(signedDataLength));
+        return tlvLength(contentInfoLength);
+    }
+
+    /**
+     * Assembles the DER encoded content info from the pre-encoded parts,
+     * the signed attributes, and the signature value.
+     */
+    public byte[] assemble(byte[] signedAttributes, byte[] signature) {
+        int signerInfoLength = signerInfoPrefix.length + signedAttributes.length + signerInfoSignatureAlgorithm.length
+                + headerLength(signature.length) + signature.length;
+        int signerInfoSetLength = headerLength(signerInfoLength) + signerInfoLength;
+        int signedDataLength = signedDataPrefix.length + headerLength(signerInfoSetLength) + signerInfoSetLength;
+        int explicitLength = headerLength(signedDataLength) + signedDataLength;
+        int contentInfoLength = signedDataType.length + headerLength(explicitLength) + explicitLength;
+
+        byte[] result = new byte[headerLength(contentInfoLength) + contentInfoLength];
+        int position = writeHeader(result, 0, 0x30, contentInfoLength);
+        position = write(result, position, signedDataType);
+        position = writeHeader(result, position, 0xa0, explicitLength);
+        position = writeHeader(result, position, 0x30, signedDataLength);
+        position = write(result, position, signedDataPrefix);
+        position = writeHeader(result, position, 0x31, signerInfoSetLength);
+        position = writeHeader(result, position, 0x30, signerInfoLength);
+        position = write(result, position, signerInfoPrefix);
+        int signedAttributesPosition = position;
+        position = write(result, position, signedAttributes);
+        // signed attributes are [0] IMPLICIT in the signer info
+        result[signedAttributesPosition] = (byte) 0xa0;
+        position = write(result, position, signerInfoSignatureAlgorithm);
+        position = writeHeader(result, position, 0x04, signature.length);
+        write(result, position, signature);
+        return result;
+    }
+
+    static int headerLength(int length) {
+        if (length < 0x80)
+            return 2;
+        int lengthBytes = 1;
+        while ((length >>>= 8) != 0)
+            lengthBytes++;
+        return 2 + lengthBytes;
+    }
+
+    static int tlvLength(int length) {
+        return headerLength(length) + length;
+    }
+
+    static int writeHeader(byte[] buffer, int position, int tag, int length) {
+        buffer[position++] = (byte) tag;
+        if (length < 0x80) {
+            buffer[position++] = (byte) length;
+            return position;
+        }
+        int lengthBytes = headerLength(length) - 2;
+        buffer[position++] = (byte) (0x80 | lengthBytes);
+        for (int i = lengthBytes - 1; i >= 0; i--)
+            buffer[position++] = (byte) (length >>> (8 * i));
+        return position;
+    }
+
+    static int write(byte[] buffer, int position, byte[] bytes) {
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        return position + bytes.length;
+    }
+
+    static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts)
+            length += part.length;
+        byte[] result = new byte[length];
+        int position = 0;
+        for (byte[] part : parts)
+            position = write(result, position, part);
+        return result;
+    }
+}
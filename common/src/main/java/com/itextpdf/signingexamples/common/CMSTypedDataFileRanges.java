@@ -0,0 +1,87 @@
+package com.itextpdf.signingexamples.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSTypedData;
+
+import com.itextpdf.io.source.IRandomAccessSource;
+import com.itextpdf.io.source.RASInputStream;
+import com.itextpdf.io.source.RandomAccessSourceFactory;
+
+/**
+ * <p>
+ * This {@link CMSTypedData} implementation feeds the signed byte ranges
+ * of a PDF file, given as a PDF <b>ByteRange</b> array of offset and length
+ * pairs, into the digest streams of BouncyCastle CMS generators.
+ * </p>
+ * <p>
+ * The file is memory-mapped by iText, completely or page-wise for large
+ * files, and the ranges are copied through a pooled buffer, cf.
+ * {@link CMSTypedDataInputStream}, so neither the file is read into the
+ * heap nor any per call buffer is allocated. The mapping is released when
+ * the data are written or the stream from {@link #openStream()} is closed.
+ * This is meant for signing PDFs on disk, cf. {@link PdfFileSigner}.
+ * </p>
+ */
+public class CMSTypedDataFileRanges implements CMSTypedData {
+    final File file;
+    final long[] byteRange;
+
+    public CMSTypedDataFileRanges(File file, long[] byteRange) {
+        if (byteRange.length % 2 != 0)
+            throw new IllegalArgumentException("The byte range must consist of offset and length pairs");
+        this.file = file;
+        this.byteRange = byteRange.clone();
+    }
+
+    @Override
+    public ASN1ObjectIdentifier getContentType() {
+        return PKCSObjectIdentifiers.data;
+    }
+
+    @Override
+    public Object getContent() {
+        return file;
+    }
+
+    @Override
+    public void write(OutputStream out) throws IOException, CMSException {
+        try (   InputStream in = openStream()   ) {
+            CMSTypedDataInputStream.copy(in, out);
+        }
+    }
+
+    /**
+     * Opens a stream of the signed byte ranges read from the memory-mapped
+     * file. Closing the stream unmaps and closes the file.
+     */
+    public InputStream openStream() throws IOException {
+        RandomAccessSourceFactory factory = new RandomAccessSourceFactory();
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        IRandomAccessSource source = null;
+        try {
+            source = factory.createBestSource(channel);
+            IRandomAccessSource mapped = source;
+            return new RASInputStream(factory.createRanged(source, byteRange)) {
+                @Override
+                public void close() throws IOException {
+                    mapped.close();
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            if (source != null)
+                source.close();
+            else
+                channel.close();
+            throw e;
+        }
+    }
+}
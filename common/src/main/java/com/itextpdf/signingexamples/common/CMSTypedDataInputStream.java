@@ -0,0 +1,71 @@
+package com.itextpdf.signingexamples.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSTypedData;
+
+/**
+ * <p>
+ * This {@link CMSTypedData} implementation feeds the data of an
+ * {@link InputStream}, usually the range stream iText provides to an
+ * external signature container, into the digest streams of BouncyCastle
+ * CMS generators.
+ * </p>
+ * <p>
+ * The data are copied through a large buffer taken from a small pool
+ * shared by all threads, so hashing even large documents usually does not
+ * allocate and requires few, large reads from the range stream, while the
+ * memory retained between calls is bounded independently of the number
+ * of hashing threads.
+ * </p>
+ */
+public class CMSTypedDataInputStream implements CMSTypedData {
+    /** The size of the reusable copy buffer. */
+    public static final int BUFFER_SIZE = CopyBufferPool.BUFFER_SIZE;
+
+    final InputStream in;
+
+    public CMSTypedDataInputStream(InputStream is) {
+        in = is;
+    }
+
+    @Override
+    public ASN1ObjectIdentifier getContentType() {
+        return PKCSObjectIdentifiers.data;
+    }
+
+    @Override
+    public Object getContent() {
+        return in;
+    }
+
+    @Override
+    public void write(OutputStream out) throws IOException, CMSException {
+        try {
+            copy(in, out);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Copies the given stream into the given output stream through a
+     * pooled buffer.
+     */
+    static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = CopyBufferPool.acquire();
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            CopyBufferPool.release(buffer);
+        }
+    }
+}
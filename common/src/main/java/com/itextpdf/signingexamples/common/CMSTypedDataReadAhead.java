@@ -0,0 +1,195 @@
+package com.itextpdf.signingexamples.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSTypedData;
+
+/**
+ * <p>
+ * This {@link CMSTypedData} implementation feeds the data of an
+ * {@link InputStream}, usually the range stream iText provides to an
+ * external signature container, into the digest streams of BouncyCastle
+ * CMS generators like {@link CMSTypedDataInputStream} does, but reads
+ * ahead on a separate thread, so reading and hashing large documents
+ * overlap. This pays off when reading is slow, e.g. on network file
+ * systems.
+ * </p>
+ * <p>
+ * The data are read in large blocks into a small ring of buffers which
+ * are taken from the pool shared with {@link CMSTypedDataInputStream} and
+ * returned to it afterwards, so no memory is retained per thread. The
+ * first block is read on the hashing thread itself; only if the data
+ * exceed it, a reader thread takes over, so small documents are hashed
+ * without any thread hand-over and with a single buffer.
+ * </p>
+ */
+public class CMSTypedDataReadAhead implements CMSTypedData {
+    /** The size of a single read-ahead block. */
+    public static final int BLOCK_SIZE = CopyBufferPool.BUFFER_SIZE;
+    /** The number of blocks in the ring. */
+    public static final int BLOCK_COUNT = 4;
+
+    static final ExecutorService READERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "CMSTypedDataReadAhead");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    final InputStream in;
+
+    public CMSTypedDataReadAhead(InputStream is) {
+        in = is;
+    }
+
+    @Override
+    public ASN1ObjectIdentifier getContentType() {
+        return PKCSObjectIdentifiers.data;
+    }
+
+    @Override
+    public Object getContent() {
+        return in;
+    }
+
+    @Override
+    public void write(OutputStream out) throws IOException, CMSException {
+        byte[][] ring = new byte[BLOCK_COUNT][];
+        try {
+            ring[0] = CopyBufferPool.acquire();
+            int length = readFully(in, ring[0]);
+            if (length < BLOCK_SIZE) {
+                out.write(ring[0], 0, length);
+                return;
+            }
+
+            for (int i = 1; i < BLOCK_COUNT; i++)
+                ring[i] = CopyBufferPool.acquire();
+            Reader reader = new Reader(in, ring);
+            READERS.execute(reader);
+            try {
+                out.write(ring[0], 0, length);
+                reader.free.add(ring[0]);
+                Block block;
+                do {
+                    block = reader.filled.take();
+                    if (block.failure != null)
+                        throw new IOException("Failure reading ahead", block.failure);
+                    out.write(block.buffer, 0, block.length);
+                    reader.free.add(block.buffer);
+                } while (block.length == BLOCK_SIZE);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for read-ahead data");
+            } finally {
+                reader.cancel();
+            }
+        } finally {
+            // the reader has stopped using the buffers
+            for (byte[] buffer : ring) {
+                if (buffer != null)
+                    CopyBufferPool.release(buffer);
+            }
+            in.close();
+        }
+    }
+
+    static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int length = 0;
+        int read;
+        while (length < buffer.length && (read = in.read(buffer, length, buffer.length - length)) != -1)
+            length += read;
+        return length;
+    }
+
+    /**
+     * The read-ahead task, filling free ring buffers from the stream.
+     * Cancelling does not interrupt the reader thread, as that would close
+     * interruptible channels underlying the stream; it sets a flag checked
+     * between blocks, wakes up a reader waiting for a free buffer, and
+     * waits until the reader has stopped using the buffers and the stream,
+     * so both can be reused or closed afterwards.
+     */
+    static class Reader implements Runnable {
+        static final byte[] STOP = new byte[0];
+
+        final InputStream in;
+        final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(BLOCK_COUNT + 1);
+        final BlockingQueue<Block> filled = new ArrayBlockingQueue<>(BLOCK_COUNT + 1);
+        volatile boolean cancelled = false;
+        boolean running = false;
+
+        Reader(InputStream in, byte[][] ring) {
+            this.in = in;
+            for (int i = 1; i < ring.length; i++)
+                free.add(ring[i]);
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (cancelled)
+                    return;
+                running = true;
+            }
+            try {
+                int read;
+                do {
+                    byte[] buffer = free.take();
+                    if (buffer == STOP || cancelled)
+                        return;
+                    read = readFully(in, buffer);
+                    filled.add(new Block(buffer, read, null));
+                } while (read == BLOCK_SIZE && !cancelled);
+            } catch (InterruptedException e) {
+                // only the pool interrupts its threads, e.g. when shut down
+                filled.add(new Block(null, 0, e));
+            } catch (IOException | RuntimeException e) {
+                filled.add(new Block(null, 0, e));
+            } finally {
+                synchronized (this) {
+                    running = false;
+                    notifyAll();
+                }
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            free.offer(STOP);
+            boolean interrupted = false;
+            synchronized (this) {
+                while (running) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    static class Block {
+        final byte[] buffer;
+        final int length;
+        final Exception failure;
+
+        Block(byte[] buffer, int length, Exception failure) {
+            this.buffer = buffer;
+            this.length = length;
+            this.failure = failure;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.itextpdf.signingexamples.common;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+
+import org.bouncycastle.cms.CMSTypedData;
+
+/**
+ * <p>
+ * This class pools the large copy buffers of the {@link CMSTypedData}
+ * implementations in this package across threads.
+ * </p>
+ * <p>
+ * At most {@link #MAX_IDLE} idle buffers are kept, so the memory retained
+ * between signing calls does not grow with the number of hashing threads;
+ * buffers released beyond that are left to the garbage collector. Each
+ * call in progress holds its buffers until it returns them.
+ * </p>
+ */
+final class CopyBufferPool {
+    /** The size of a pooled buffer. */
+    static final int BUFFER_SIZE = 1024 * 1024;
+    /** The maximum number of idle buffers kept. */
+    static final int MAX_IDLE = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    static final BlockingDeque<byte[]> IDLE = new LinkedBlockingDeque<>(MAX_IDLE);
+
+    private CopyBufferPool() {
+    }
+
+    /**
+     * Returns an idle buffer or, if there is none, a new one.
+     */
+    static byte[] acquire() {
+        byte[] buffer = IDLE.pollFirst();
+        return buffer != null ? buffer : new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Returns a buffer acquired before to the pool; it must not be used
+     * by the caller anymore.
+     */
+    static void release(byte[] buffer) {
+        IDLE.offerFirst(buffer);
+    }
+}
@@ -0,0 +1,266 @@
+package com.itextpdf.signingexamples.common;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.cert.Certificate;
+import java.util.Collection;
+
+import com.itextpdf.commons.bouncycastle.asn1.esf.ISignaturePolicyIdentifier;
+import com.itextpdf.kernel.exceptions.PdfException;
+import com.itextpdf.kernel.pdf.PdfDictionary;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.StampingProperties;
+import com.itextpdf.signatures.ICrlClient;
+import com.itextpdf.signatures.IExternalDigest;
+import com.itextpdf.signatures.IExternalSignature;
+import com.itextpdf.signatures.IExternalSignatureContainer;
+import com.itextpdf.signatures.IOcspClient;
+import com.itextpdf.signatures.ITSAClient;
+import com.itextpdf.signatures.PdfSigner;
+
+/**
+ * <p>
+ * This {@link PdfSigner} signs a PDF file into another file in append mode
+ * with near-constant heap usage:
+ * </p>
+ * <ul>
+ * <li>The source file is read by a {@link PdfReader} on a memory-mapped
+ * file source.
+ * <li>The unchanged original bytes are copied to the target file by
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * allowing the operating system to copy without user space buffers.
+ * <li>iText only writes the incremental revision to the target file; it
+ * still pushes the original bytes through its writer, but they are
+ * discarded instead of being written again.
+ * <li>A file next to the target file, named like it with the suffix
+ * {@value #PART_SUFFIX}, serves as temporary file of the signer, so the
+ * byte ranges are hashed from and the signature container is written into
+ * that file directly.
+ * <li>The byte ranges are read from the memory-mapped temporary file, cf.
+ * {@link CMSTypedDataFileRanges}; the mapping is released before the file
+ * is moved or deleted.
+ * </ul>
+ * <p>
+ * After signing, the temporary file is moved to the target file, atomically
+ * if the file system supports it. If signing fails, the temporary file is
+ * deleted, so the target file either is the complete signed document or is
+ * left as it was. The target must not be the source file. To leave the
+ * document unsigned after inspecting it, e.g. for existing signatures,
+ * {@link #cancel()} the signer.
+ * </p>
+ */
+public class PdfFileSigner extends PdfSigner {
+    /** The suffix of the temporary file next to the target file. */
+    public static final String PART_SUFFIX = ".part";
+
+    final File target;
+    InputStream rangeStream = null;
+
+    public PdfFileSigner(File source, File target) throws IOException {
+        this(source, target, new StampingProperties());
+    }
+
+    public PdfFileSigner(File source, File target, StampingProperties stampingProperties) throws IOException {
+        super(new SourceFileReader(source), null, partFile(checkTarget(source, target)).getAbsolutePath(),
+                new StampingProperties(stampingProperties).useAppendMode());
+        this.target = target;
+    }
+
+    @Override
+    public void signDetached(IExternalDigest externalDigest, IExternalSignature externalSignature, Certificate[] chain,
+            Collection<ICrlClient> crlList, IOcspClient ocspClient, ITSAClient tsaClient, int estimatedSize,
+            CryptoStandard sigtype, ISignaturePolicyIdentifier signaturePolicy) throws IOException, GeneralSecurityException {
+        try {
+            super.signDetached(externalDigest, externalSignature, chain, crlList, ocspClient, tsaClient, estimatedSize, sigtype, signaturePolicy);
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            discard(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void signExternalContainer(IExternalSignatureContainer externalSignatureContainer, int estimatedSize) throws GeneralSecurityException, IOException {
+        try {
+            super.signExternalContainer(externalSignatureContainer, estimatedSize);
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            discard(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void timestamp(ITSAClient tsa, String signatureName) throws IOException, GeneralSecurityException {
+        try {
+            super.timestamp(tsa, signatureName);
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            discard(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the signed byte ranges read from the memory-mapped temporary
+     * file instead of through the random access file iText writes with.
+     */
+    @Override
+    protected InputStream getRangeStream() throws IOException {
+        closeRangeStream();
+        rangeStream = new CMSTypedDataFileRanges(tempFile, range).openStream();
+        return rangeStream;
+    }
+
+    void closeRangeStream() throws IOException {
+        if (rangeStream != null) {
+            InputStream stream = rangeStream;
+            rangeStream = null;
+            stream.close();
+        }
+    }
+
+    /**
+     * Finishes the temporary file and moves it to the target file.
+     */
+    @Override
+    protected void close(PdfDictionary update) throws IOException {
+        closeRangeStream();
+        super.close(update);
+        try {
+            Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Abandons signing before it has started, closing the source file and
+     * deleting the temporary file; the target file is left as it was.
+     */
+    public void cancel() throws IOException {
+        if (closed)
+            throw new IllegalStateException("The document has already been signed");
+        closed = true;
+        try {
+            document.getWriter().close();
+        } finally {
+            document.getReader().close();
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    /**
+     * Deletes the temporary file after a failure.
+     */
+    void discard(Exception failure) {
+        try {
+            closeRangeStream();
+            if (raf != null)
+                raf.close();
+            Files.deleteIfExists(tempFile.toPath());
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Replaces the writer to the target file by one appending to the
+     * original bytes copied from the source file before.
+     */
+    @Override
+    protected PdfDocument initDocument(PdfReader reader, PdfWriter writer, StampingProperties properties) {
+        FileChannel targetChannel = null;
+        try {
+            writer.close();
+            targetChannel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            long length;
+            try (   FileChannel sourceChannel = FileChannel.open(((SourceFileReader) reader).file.toPath(), StandardOpenOption.READ)   ) {
+                length = sourceChannel.size();
+                long position = 0;
+                while (position < length)
+                    position += sourceChannel.transferTo(position, length - position, targetChannel);
+            }
+            targetChannel.position(length);
+            writer = new PdfWriter(new SkippingOutputStream(Channels.newOutputStream(targetChannel), length));
+            return super.initDocument(reader, writer, properties);
+        } catch (IOException | RuntimeException e) {
+            // the constructor fails, so clean up the temporary file right away
+            try {
+                if (targetChannel != null)
+                    targetChannel.close();
+                Files.deleteIfExists(tempFile.toPath());
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            if (e instanceof RuntimeException)
+                throw (RuntimeException) e;
+            throw new PdfException("Failure copying the original revision", e);
+        }
+    }
+
+    static File checkTarget(File source, File target) throws IOException {
+        if (target.isDirectory())
+            throw new IllegalArgumentException("The target must be a file, not a directory");
+        if (target.exists() && Files.isSameFile(source.toPath(), target.toPath()))
+            throw new IllegalArgumentException("The target must not be the source file");
+        return target;
+    }
+
+    static File partFile(File target) {
+        return new File(target.getAbsoluteFile().getParentFile(), target.getName() + PART_SUFFIX);
+    }
+
+    /**
+     * A {@link PdfReader} reading a file, remembering that file.
+     */
+    static class SourceFileReader extends PdfReader {
+        final File file;
+
+        SourceFileReader(File file) throws IOException {
+            super(file);
+            this.file = file;
+        }
+    }
+
+    /**
+     * An output stream discarding the given number of bytes written first.
+     */
+    static class SkippingOutputStream extends FilterOutputStream {
+        long toSkip;
+
+        SkippingOutputStream(OutputStream out, long toSkip) {
+            super(out);
+            this.toSkip = toSkip;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (toSkip > 0)
+                toSkip--;
+            else
+                out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (toSkip > 0) {
+                int skipped = (int) Math.min(toSkip, len);
+                toSkip -= skipped;
+                off += skipped;
+                len -= skipped;
+            }
+            if (len > 0)
+                out.write(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package com.itextpdf.signingexamples.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.operator.ContentVerifier;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+
+import com.itextpdf.kernel.pdf.PdfDictionary;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.StampingProperties;
+import com.itextpdf.signatures.IExternalSignatureContainer;
+import com.itextpdf.signatures.PdfSigner;
+import com.itextpdf.signatures.SignerProperties;
+
+/**
+ * <p>
+ * This class implements two-phase deferred signing with the pending
+ * signatures persisted in a local directory.
+ * </p>
+ * <p>
+ * {@link #prepare(PdfReader, CMSSignedDataTemplate, SignerProperties)}
+ * prepares a PDF with an empty signature placeholder, creates the signed
+ * attributes for it, and stores both along with the signer certificate
+ * chain and the signature algorithm. The signed attributes, or their
+ * digest, then can be signed by a remote signing service at any later
+ * time, and {@link #complete(String, byte[], OutputStream)} or
+ * {@link #completeAll(Map, File)} inject the resulting signature values,
+ * possibly in another process sharing the store directory.
+ * </p>
+ * <p>
+ * An entry is written completely before its properties file appears, and
+ * it is claimed by atomically renaming that file before completion, so
+ * multiple processes may prepare and complete entries in the same store.
+ * </p>
+ */
+public class PendingSignatureStore {
+    final static String PDF_SUFFIX = ".pdf";
+    final static String PENDING_SUFFIX = ".properties";
+    final static String CLAIMED_SUFFIX = ".claimed";
+
+    final Path directory;
+    final Map<String, CMSSignedDataTemplate> templates = new ConcurrentHashMap<>();
+
+    public PendingSignatureStore(File directory) throws IOException {
+        this.directory = directory.toPath();
+        Files.createDirectories(this.directory);
+    }
+
+    /**
+     * Prepares the PDF from the given reader for signing by the signer of
+     * the given template and stores it as pending signature. The returned
+     * entry contains the data to sign.
+     */
+    public PendingSignature prepare(PdfReader reader, CMSSignedDataTemplate template, SignerProperties signerProperties) throws IOException, GeneralSecurityException {
+        String id = UUID.randomUUID().toString();
+        Path pdf = directory.resolve(id + PDF_SUFFIX);
+        Path pdfTemp = directory.resolve(id + PDF_SUFFIX + ".tmp");
+
+        PreparingContainer container = new PreparingContainer(template);
+        String fieldName;
+        try {
+            try (   OutputStream result = new FileOutputStream(pdfTemp.toFile())   ) {
+                PdfSigner pdfSigner = new PdfSigner(reader, result, new StampingProperties().useAppendMode());
+                if (signerProperties != null)
+                    pdfSigner.setSignerProperties(signerProperties);
+                fieldName = pdfSigner.getSignerProperties().getFieldName();
+                if (fieldName == null) {
+                    fieldName = pdfSigner.getNewSigFieldName();
+                    pdfSigner.getSignerProperties().setFieldName(fieldName);
+                }
+                pdfSigner.signExternalContainer(container, new SignatureContainerSizeEstimator(template).estimate());
+            }
+            move(pdfTemp, pdf);
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            delete(e, pdfTemp);
+            throw e;
+        }
+
+        Path properties = directory.resolve(id + PENDING_SUFFIX);
+        Path propertiesTemp = directory.resolve(id + PENDING_SUFFIX + ".tmp");
+        try {
+            PendingSignature pending = new PendingSignature(id, fieldName, template.getChain(), template.getSignatureAlgorithm(),
+                    template.getDigestAlgorithm(), container.signedAttributes, template.digest(container.signedAttributes));
+            try (   OutputStream out = new FileOutputStream(propertiesTemp.toFile())   ) {
+                pending.toProperties().store(out, "Pending signature " + id);
+            }
+            move(propertiesTemp, properties);
+            return pending;
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            // without its properties file the prepared PDF would be orphaned
+            delete(e, propertiesTemp, pdf);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the IDs of all pending signatures.
+     */
+    public List<String> list() throws IOException {
+        List<String> ids = new ArrayList<>();
+        try (   DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + PENDING_SUFFIX)   ) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                ids.add(name.substring(0, name.length() - PENDING_SUFFIX.length()));
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Loads the pending signature with the given ID.
+     */
+    public PendingSignature load(String id) throws IOException, GeneralSecurityException {
+        return read(id, directory.resolve(id + PENDING_SUFFIX));
+    }
+
+    /**
+     * Injects the given signature value of the signed attributes of the
+     * pending signature with the given ID into its prepared PDF, writes
+     * the result to the given stream, and removes the entry from the store.
+     * The signature value is verified before.
+     */
+    public void complete(String id, byte[] signature, OutputStream result) throws IOException, GeneralSecurityException {
+        Path pending = directory.resolve(id + PENDING_SUFFIX);
+        Path claimed = directory.resolve(id + CLAIMED_SUFFIX);
+        try {
+            move(pending, claimed);
+        } catch (NoSuchFileException e) {
+            throw new GeneralSecurityException(String.format("No pending signature '%s'", id), e);
+        }
+
+        try {
+            PendingSignature pendingSignature = read(id, claimed);
+            CMSSignedDataTemplate template = template(pendingSignature);
+            verify(pendingSignature, signature);
+            byte[] container = template.assemble(pendingSignature.getSignedAttributes(), signature);
+
+            try (   PdfReader pdfReader = new PdfReader(directory.resolve(id + PDF_SUFFIX).toFile());
+                    PdfDocument pdfDocument = new PdfDocument(pdfReader)   ) {
+                PdfSigner.signDeferred(pdfDocument, pendingSignature.getFieldName(), result, new InjectingContainer(container));
+            }
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            try {
+                move(claimed, pending);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        Files.deleteIfExists(directory.resolve(id + PDF_SUFFIX));
+        Files.deleteIfExists(claimed);
+    }
+
+    /**
+     * Completes the pending signatures with the given IDs with the mapped
+     * signature values, writing the results as <code>ID.pdf</code> into the
+     * given directory. Failures do not stop the batch; they are returned
+     * by ID.
+     */
+    public Map<String, Exception> completeAll(Map<String, byte[]> signatures, File targetDirectory) throws IOException {
+        Files.createDirectories(targetDirectory.toPath());
+        Map<String, Exception> failures = new LinkedHashMap<>();
+        for (Map.Entry<String, byte[]> entry : signatures.entrySet()) {
+            File target = new File(targetDirectory, entry.getKey() + PDF_SUFFIX);
+            try (   OutputStream result = new FileOutputStream(target)   ) {
+                complete(entry.getKey(), entry.getValue(), result);
+            } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                target.delete();
+                failures.put(entry.getKey(), e);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Removes the pending signature with the given ID from the store.
+     */
+    public void remove(String id) throws IOException {
+        Files.deleteIfExists(directory.resolve(id + PENDING_SUFFIX));
+        Files.deleteIfExists(directory.resolve(id + PDF_SUFFIX));
+    }
+
+    PendingSignature read(String id, Path path) throws IOException, GeneralSecurityException {
+        Properties properties = new Properties();
+        try (   InputStream in = Files.newInputStream(path)   ) {
+            properties.load(in);
+        } catch (NoSuchFileException e) {
+            throw new GeneralSecurityException(String.format("No pending signature '%s'", id), e);
+        }
+        return PendingSignature.fromProperties(id, properties);
+    }
+
+    /**
+     * Returns a template for the chain and signature algorithm of the given
+     * pending signature, shared by entries of the same signer.
+     */
+    CMSSignedDataTemplate template(PendingSignature pendingSignature) throws GeneralSecurityException {
+        try {
+            return templates.computeIfAbsent(pendingSignature.signerKey(), key -> {
+                try {
+                    return new CMSSignedDataTemplate(pendingSignature.getChain(), pendingSignature.getSignatureAlgorithm());
+                } catch (GeneralSecurityException e) {
+                    throw new TemplateCreationException(e);
+                }
+            });
+        } catch (TemplateCreationException e) {
+            throw e.getCause();
+        }
+    }
+
+    static void verify(PendingSignature pendingSignature, byte[] signature) throws GeneralSecurityException {
+        try {
+            ContentVerifier verifier = new JcaContentVerifierProviderBuilder().setProvider("BC")
+                    .build(new X509CertificateHolder(pendingSignature.getChain()[0].getEncoded()))
+                    .get(pendingSignature.getSignatureAlgorithm());
+            try (   OutputStream out = verifier.getOutputStream()   ) {
+                out.write(pendingSignature.getSignedAttributes());
+            }
+            if (!verifier.verify(signature))
+                throw new GeneralSecurityException(String.format("Signature value for '%s' does not verify", pendingSignature.getId()));
+        } catch (IOException | OperatorCreationException e) {
+            throw new GeneralSecurityException(e);
+        }
+    }
+
+    /**
+     * Deletes the given files after the given failure, adding failures to
+     * delete as suppressed exceptions.
+     */
+    static void delete(Exception failure, Path... paths) {
+        for (Path path : paths) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                failure.addSuppressed(e);
+            }
+        }
+    }
+
+    static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Carries a failure to create a template out of a mapping function.
+     */
+    static class TemplateCreationException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TemplateCreationException(GeneralSecurityException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized GeneralSecurityException getCause() {
+            return (GeneralSecurityException) super.getCause();
+        }
+    }
+
+    /**
+     * A pending signature: the signed attributes to sign, their digest for
+     * services signing hashes, and the signer information required to
+     * build the signature container.
+     */
+    public static class PendingSignature {
+        final String id;
+        final String fieldName;
+        final Certificate[] chain;
+        final AlgorithmIdentifier signatureAlgorithm;
+        final AlgorithmIdentifier digestAlgorithm;
+        final byte[] signedAttributes;
+        final byte[] digest;
+
+        PendingSignature(String id, String fieldName, Certificate[] chain, AlgorithmIdentifier signatureAlgorithm,
+                AlgorithmIdentifier digestAlgorithm, byte[] signedAttributes, byte[] digest) {
+            this.id = id;
+            this.fieldName = fieldName;
+            this.chain = chain;
+            this.signatureAlgorithm = signatureAlgorithm;
+            this.digestAlgorithm = digestAlgorithm;
+            this.signedAttributes = signedAttributes;
+            this.digest = digest;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        public Certificate[] getChain() {
+            return chain;
+        }
+
+        public AlgorithmIdentifier getSignatureAlgorithm() {
+            return signatureAlgorithm;
+        }
+
+        public AlgorithmIdentifier getDigestAlgorithm() {
+            return digestAlgorithm;
+        }
+
+        /** The DER encoded signed attributes, the data to sign. */
+        public byte[] getSignedAttributes() {
+            return signedAttributes;
+        }
+
+        /** The digest of the signed attributes, for services signing hashes. */
+        public byte[] getDigest() {
+            return digest;
+        }
+
+        String signerKey() {
+            Base64.Encoder encoder = Base64.getEncoder();
+            try {
+                StringBuilder builder = new StringBuilder(encoder.encodeToString(signatureAlgorithm.getEncoded(ASN1Encoding.DER)));
+                for (Certificate certificate : chain)
+                    builder.append(':').append(encoder.encodeToString(certificate.getEncoded()));
+                return builder.toString();
+            } catch (IOException | GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        Properties toProperties() throws IOException, GeneralSecurityException {
+            Base64.Encoder encoder = Base64.getEncoder();
+            Properties properties = new Properties();
+            properties.setProperty("fieldName", fieldName);
+            properties.setProperty("signatureAlgorithm", encoder.encodeToString(signatureAlgorithm.getEncoded(ASN1Encoding.DER)));
+            properties.setProperty("digestAlgorithm", encoder.encodeToString(digestAlgorithm.getEncoded(ASN1Encoding.DER)));
+            properties.setProperty("signedAttributes", encoder.encodeToString(signedAttributes));
+            properties.setProperty("digest", encoder.encodeToString(digest));
+            for (int i = 0; i < chain.length; i++)
+                properties.setProperty("chain." + i, encoder.encodeToString(chain[i].getEncoded()));
+            return properties;
+        }
+
+        static PendingSignature fromProperties(String id, Properties properties) throws GeneralSecurityException {
+            Base64.Decoder decoder = Base64.getDecoder();
+            CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+            List<Certificate> chain = new ArrayList<>();
+            for (int i = 0; properties.getProperty("chain." + i) != null; i++) {
+                byte[] encoded = decoder.decode(properties.getProperty("chain." + i));
+                chain.add(certificateFactory.generateCertificate(new ByteArrayInputStream(encoded)));
+            }
+            if (chain.isEmpty())
+                throw new GeneralSecurityException(String.format("Pending signature '%s' has no certificates", id));
+            return new PendingSignature(id, properties.getProperty("fieldName"), chain.toArray(new X509Certificate[chain.size()]),
+                    AlgorithmIdentifier.getInstance(decoder.decode(properties.getProperty("signatureAlgorithm"))),
+                    AlgorithmIdentifier.getInstance(decoder.decode(properties.getProperty("digestAlgorithm"))),
+                    decoder.decode(properties.getProperty("signedAttributes")),
+                    decoder.decode(properties.getProperty("digest")));
+        }
+    }
+
+    /**
+     * Creates the signed attributes for the prepared document and returns
+     * no signature container, leaving the placeholder empty.
+     */
+    static class PreparingContainer implements IExternalSignatureContainer {
+        final CMSSignedDataTemplate template;
+        byte[] signedAttributes;
+
+        PreparingContainer(CMSSignedDataTemplate template) {
+            this.template = template;
+        }
+
+        @Override
+        public byte[] sign(InputStream data) throws GeneralSecurityException {
+            signedAttributes = template.createSignedAttributes(new CMSTypedDataInputStream(data));
+            return new byte[0];
+        }
+
+        @Override
+        public void modifySigningDictionary(PdfDictionary signDic) {
+            signDic.put(PdfName.Filter, new PdfName("MKLx_GENERIC_SIGNER"));
+            signDic.put(PdfName.SubFilter, PdfName.Adbe_pkcs7_detached);
+        }
+    }
+
+    /**
+     * Returns the given, already completed signature container.
+     */
+    static class InjectingContainer implements IExternalSignatureContainer {
+        final byte[] container;
+
+        InjectingContainer(byte[] container) {
+            this.container = container;
+        }
+
+        @Override
+        public byte[] sign(InputStream data) {
+            return container;
+        }
+
+        @Override
+        public void modifySigningDictionary(PdfDictionary signDic) {
+        }
+    }
+}
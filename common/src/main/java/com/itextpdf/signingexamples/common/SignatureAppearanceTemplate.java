@@ -0,0 +1,308 @@
+package com.itextpdf.signingexamples.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+
+import com.itextpdf.forms.fields.properties.SignedAppearanceText;
+import com.itextpdf.forms.form.element.SignatureFieldAppearance;
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.io.image.ImageData;
+import com.itextpdf.io.image.ImageDataFactory;
+import com.itextpdf.kernel.colors.Color;
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfStream;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.WriterProperties;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import com.itextpdf.kernel.pdf.extgstate.PdfExtGState;
+import com.itextpdf.kernel.pdf.xobject.PdfFormXObject;
+import com.itextpdf.layout.properties.BackgroundImage;
+import com.itextpdf.layout.properties.BackgroundSize;
+import com.itextpdf.layout.properties.Property;
+import com.itextpdf.layout.properties.UnitValue;
+import com.itextpdf.signatures.CertificateInfo;
+import com.itextpdf.signatures.PdfSigner;
+import com.itextpdf.signatures.SignerProperties;
+
+/**
+ * <p>
+ * This class is a reusable template for visible signature appearances
+ * with static layers, e.g. a logo and a background, and a per-signature
+ * description text.
+ * </p>
+ * <p>
+ * Images are decoded once when added, and the static layers are drawn
+ * once into a form XObject. When the first appearance is created, that
+ * XObject is encoded into a small template PDF which is read back, so
+ * that each signed document merely receives a copy of the already
+ * encoded streams. Only the description text, i.e. signer, date, reason,
+ * and location, is laid out per signature. If that text is known in
+ * advance, cf. {@link #apply(PdfSigner, X509Certificate)}, a font size to
+ * fit it is calculated from cached text widths instead of iText trying
+ * sizes by layout, and embedded fonts use a subset shared across
+ * documents, cf. {@link SignatureFontCache}.
+ * </p>
+ * <p>
+ * Instances can be shared by multiple threads once built; appearances
+ * for the same document share a single copy of the static layers. The
+ * template PDF stays open to allow that; {@link #close()} the template
+ * when no more appearances are to be created from it.
+ * </p>
+ */
+public class SignatureAppearanceTemplate implements AutoCloseable {
+    final static PdfName STATIC_LAYERS = new PdfName("MKLSignatureAppearanceLayers");
+    final static float LEADING = 1.5f;
+
+    final float width;
+    final float height;
+    float[] textPadding = {0, 0, 0, 0};
+    SignatureFontCache fontCache = SignatureFontCache.getDefault();
+    String font = null;
+    float fontSize = 0;
+
+    ByteArrayOutputStream buildBytes = new ByteArrayOutputStream();
+    PdfDocument buildDocument;
+    PdfFormXObject buildLayers;
+    PdfCanvas buildCanvas;
+    PdfDocument templateDocument;
+    boolean closed = false;
+
+    public SignatureAppearanceTemplate(float width, float height) {
+        this.width = width;
+        this.height = height;
+        buildDocument = new PdfDocument(new PdfWriter(buildBytes, new WriterProperties().setFullCompressionMode(true)));
+        buildLayers = new PdfFormXObject(new Rectangle(width, height));
+        buildLayers.makeIndirect(buildDocument);
+        buildCanvas = new PdfCanvas(buildLayers, buildDocument);
+    }
+
+    public float getWidth() {
+        return width;
+    }
+
+    public float getHeight() {
+        return height;
+    }
+
+    /**
+     * Fills the given area of the static layers with the given color.
+     */
+    public synchronized SignatureAppearanceTemplate fill(Rectangle area, Color color) {
+        checkBuilding();
+        buildCanvas.saveState().setFillColor(color).rectangle(area).fill().restoreState();
+        return this;
+    }
+
+    /**
+     * Adds the given image, fitted into the given area, to the static layers.
+     */
+    public SignatureAppearanceTemplate addImage(byte[] image, Rectangle area) {
+        return addImage(image, area, 1);
+    }
+
+    /**
+     * Adds the given image, fitted into the given area and with the given
+     * opacity, to the static layers.
+     */
+    public synchronized SignatureAppearanceTemplate addImage(byte[] image, Rectangle area, float opacity) {
+        checkBuilding();
+        ImageData data = ImageDataFactory.create(image);
+        buildCanvas.saveState();
+        if (opacity < 1)
+            buildCanvas.setExtGState(new PdfExtGState().setFillOpacity(opacity));
+        buildCanvas.addImageFittedIntoRectangle(data, area, false);
+        buildCanvas.restoreState();
+        return this;
+    }
+
+    /**
+     * Restricts the per-signature description text to the given area.
+     */
+    public SignatureAppearanceTemplate setTextArea(Rectangle area) {
+        textPadding = new float[] {height - area.getTop(), width - area.getRight(), area.getBottom(), area.getLeft()};
+        return this;
+    }
+
+    /**
+     * Sets the font of the per-signature description text, a standard
+     * font name or a font file path, and the font size; a font size of 0
+     * lets iText choose the size to fit the text.
+     */
+    public SignatureAppearanceTemplate setFont(String font, float fontSize) {
+        this.font = font;
+        this.fontSize = fontSize;
+        return this;
+    }
+
+    /**
+     * Sets the cache the description text font is retrieved from; by
+     * default the process-wide {@link SignatureFontCache} is used.
+     */
+    public SignatureAppearanceTemplate setFontCache(SignatureFontCache fontCache) {
+        this.fontCache = fontCache;
+        return this;
+    }
+
+    /**
+     * Sets an appearance from this template in the signer properties of
+     * the given signer. The signature field should have the size of this
+     * template; otherwise the static layers are scaled to the field.
+     */
+    public void apply(PdfSigner pdfSigner) throws IOException {
+        SignerProperties signerProperties = pdfSigner.getSignerProperties();
+        signerProperties.setSignatureAppearance(createAppearance(pdfSigner.getDocument()));
+    }
+
+    /**
+     * Sets an appearance from this template with the description text
+     * filled in in the signer properties of the given signer. The given
+     * certificate is the one iText takes the signer name from, i.e. the
+     * signing certificate when signing with a <code>signDetached</code>
+     * method; it is <code>null</code> when signing with an external
+     * signature container, iText showing no signer name then.
+     */
+    public void apply(PdfSigner pdfSigner, X509Certificate certificate) throws IOException {
+        SignerProperties signerProperties = pdfSigner.getSignerProperties();
+        SignedAppearanceText text = new SignedAppearanceText()
+                .setSignedBy(getSignerName(certificate))
+                .setSignDate(signerProperties.getClaimedSignDate());
+        if (signerProperties.getReason() != null && !signerProperties.getReason().isEmpty())
+            text.setReasonLine("Reason: " + signerProperties.getReason());
+        if (signerProperties.getLocation() != null && !signerProperties.getLocation().isEmpty())
+            text.setLocationLine("Location: " + signerProperties.getLocation());
+        signerProperties.setSignatureAppearance(createAppearance(pdfSigner.getDocument(), text));
+    }
+
+    /**
+     * Creates an appearance from this template for the given document.
+     */
+    public SignatureFieldAppearance createAppearance(PdfDocument pdfDocument) throws IOException {
+        SignatureFieldAppearance appearance = createBackground(pdfDocument);
+        if (font != null)
+            appearance.setFont(fontCache.getFont(pdfDocument, font));
+        if (fontSize > 0)
+            appearance.setFontSize(fontSize);
+        appearance.setContent(new SignedAppearanceText()); // SignedAppearanceText will be filled in automatically
+        return appearance;
+    }
+
+    /**
+     * Creates an appearance from this template with the given description
+     * text for the given document. Without an explicit font size, the size
+     * is calculated to fit the text into the text area.
+     */
+    public SignatureFieldAppearance createAppearance(PdfDocument pdfDocument, SignedAppearanceText text) throws IOException {
+        String description = text.generateDescriptionText();
+        SignatureFieldAppearance appearance = createBackground(pdfDocument);
+        if (font != null)
+            appearance.setFont(fontCache.getFont(pdfDocument, font, description));
+        appearance.setFontSize(fontSize > 0 ? fontSize : fitFontSize(description));
+        appearance.setContent(text);
+        return appearance;
+    }
+
+    /**
+     * Returns the largest font size at which the lines of the given text
+     * fit into the text area without wrapping, calculated from the cached
+     * text widths; iText's default font is Helvetica.
+     */
+    float fitFontSize(String description) throws IOException {
+        String measuringFont = font != null ? font : StandardFonts.HELVETICA;
+        String[] lines = description.split("\n");
+        float maxWidth = 0;
+        for (String line : lines)
+            maxWidth = Math.max(maxWidth, fontCache.getWidth(measuringFont, line, 1));
+        float areaWidth = width - textPadding[1] - textPadding[3];
+        float areaHeight = height - textPadding[0] - textPadding[2];
+        float size = areaHeight / (lines.length * LEADING);
+        if (maxWidth > 0)
+            size = Math.min(size, areaWidth / maxWidth);
+        return Math.max(size * .98f, .1f); // some room for rounding in the layout
+    }
+
+    static String getSignerName(X509Certificate certificate) {
+        if (certificate == null)
+            return "";
+        CertificateInfo.X500Name subjectFields = CertificateInfo.getSubjectFields(certificate);
+        String name = subjectFields.getField("CN");
+        if (name == null)
+            name = subjectFields.getField("E");
+        return name != null ? name : "";
+    }
+
+    SignatureFieldAppearance createBackground(PdfDocument pdfDocument) throws IOException {
+        PdfFormXObject layers = createLayers(pdfDocument);
+
+        BackgroundSize size = new BackgroundSize();
+        size.setBackgroundSizeToValues(UnitValue.createPercentValue(100), UnitValue.createPercentValue(100));
+        SignatureFieldAppearance appearance = new SignatureFieldAppearance(SignerProperties.IGNORED_ID);
+        appearance.setBackgroundImage(new BackgroundImage.Builder()
+                .setImage(layers)
+                .setBackgroundSize(size)
+                .build());
+        appearance.setProperty(Property.PADDING_TOP, UnitValue.createPointValue(textPadding[0]));
+        appearance.setProperty(Property.PADDING_RIGHT, UnitValue.createPointValue(textPadding[1]));
+        appearance.setProperty(Property.PADDING_BOTTOM, UnitValue.createPointValue(textPadding[2]));
+        appearance.setProperty(Property.PADDING_LEFT, UnitValue.createPointValue(textPadding[3]));
+        return appearance;
+    }
+
+    /**
+     * Copies the encoded static layers into the given document. Repeated
+     * calls for the same document return the same copy.
+     */
+    synchronized PdfFormXObject createLayers(PdfDocument pdfDocument) throws IOException {
+        if (closed)
+            throw new IllegalStateException("The template has been closed");
+        if (templateDocument == null)
+            build();
+        PdfStream layers = templateDocument.getCatalog().getPdfObject().getAsStream(STATIC_LAYERS);
+        return new PdfFormXObject((PdfStream) layers.copyTo(pdfDocument, false));
+    }
+
+    void build() throws IOException {
+        buildDocument.getCatalog().put(STATIC_LAYERS, buildLayers.getPdfObject());
+        buildDocument.addNewPage();
+        buildDocument.close();
+        templateDocument = new PdfDocument(new PdfReader(new ByteArrayInputStream(buildBytes.toByteArray())));
+        buildDocument = null;
+        buildLayers = null;
+        buildCanvas = null;
+        buildBytes = null;
+    }
+
+    /**
+     * Closes the template PDF, or discards the static layers if no
+     * appearance has been created yet; the template cannot be used anymore.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        if (templateDocument != null) {
+            templateDocument.close();
+        } else {
+            // a document without pages cannot be closed
+            buildDocument.addNewPage();
+            buildDocument.close();
+        }
+        templateDocument = null;
+        buildDocument = null;
+        buildLayers = null;
+        buildCanvas = null;
+        buildBytes = null;
+    }
+
+    void checkBuilding() {
+        if (closed)
+            throw new IllegalStateException("The template has been closed");
+        if (templateDocument != null)
+            throw new IllegalStateException("Appearances already have been created from this template");
+    }
+}
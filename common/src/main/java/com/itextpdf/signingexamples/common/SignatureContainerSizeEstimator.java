@@ -0,0 +1,99 @@
+package com.itextpdf.signingexamples.common;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.interfaces.DSAPublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+
+import com.itextpdf.signatures.IExternalSignatureContainer;
+
+/**
+ * <p>
+ * This class computes a tight upper bound of the size of the signature
+ * containers created by a {@link CMSSignedDataTemplate}. As the template
+ * neither embeds signature time stamps nor revocation data, neither does
+ * the estimate; containers with such additions have to be calibrated.
+ * </p>
+ * <p>
+ * For containers of unknown structure it can calibrate the size from a
+ * dry run instead. Beware, that dry run is a real signing operation.
+ * </p>
+ */
+public class SignatureContainerSizeEstimator {
+    /** The margin added to the size of a dry run container, e.g. for variable size ECDSA signatures. */
+    public static final int CALIBRATION_MARGIN = 32;
+
+    final CMSSignedDataTemplate template;
+    int signatureSize;
+
+    public SignatureContainerSizeEstimator(CMSSignedDataTemplate template) {
+        this.template = template;
+        this.signatureSize = maxSignatureSize(template.getChain()[0].getPublicKey());
+    }
+
+    /**
+     * Sets the maximum size of the signature value; by default it is
+     * derived from the public key of the signer certificate.
+     */
+    public SignatureContainerSizeEstimator setSignatureSize(int signatureSize) {
+        this.signatureSize = signatureSize;
+        return this;
+    }
+
+    /**
+     * Returns an upper bound of the size of the encoded signature container.
+     */
+    public int estimate() throws GeneralSecurityException {
+        return template.encodedSize(template.maxSignedAttributesContentSize(), signatureSize);
+    }
+
+    /**
+     * Returns the maximum size of an encoded signature value created by the
+     * private key matching the given public key.
+     */
+    public static int maxSignatureSize(PublicKey publicKey) {
+        if (publicKey instanceof RSAPublicKey)
+            return bytes(((RSAPublicKey) publicKey).getModulus());
+        if (publicKey instanceof ECPublicKey)
+            return maxDsaSignatureSize(((ECPublicKey) publicKey).getParams().getOrder());
+        if (publicKey instanceof DSAPublicKey)
+            return maxDsaSignatureSize(((DSAPublicKey) publicKey).getParams().getQ());
+        // e.g. EdDSA: the signature values are less than twice the size of the encoded public keys
+        return 2 * publicKey.getEncoded().length;
+    }
+
+    /**
+     * Returns the size of a signature container created by the given
+     * container for empty data plus {@link #CALIBRATION_MARGIN}.
+     */
+    public static int calibrate(IExternalSignatureContainer container) throws GeneralSecurityException {
+        return container.sign(new ByteArrayInputStream(new byte[0])).length + CALIBRATION_MARGIN;
+    }
+
+    /**
+     * Returns the size estimated by the given container if it is a
+     * {@link SizeEstimatingSignatureContainer}, otherwise calibrates the
+     * size from a dry run.
+     */
+    public static int estimateSize(IExternalSignatureContainer container) throws GeneralSecurityException {
+        if (container instanceof SizeEstimatingSignatureContainer)
+            return ((SizeEstimatingSignatureContainer) container).estimateSize();
+        return calibrate(container);
+    }
+
+    /** DSA and ECDSA signature values are sequences of two integers less than the group order. */
+    static int maxDsaSignatureSize(BigInteger order) {
+        return tlv(2 * tlv(bytes(order) + 1));
+    }
+
+    static int bytes(BigInteger value) {
+        return (value.bitLength() + 7) / 8;
+    }
+
+    static int tlv(int length) {
+        return CMSSignedDataTemplate.tlvLength(length);
+    }
+}
@@ -0,0 +1,294 @@
+package com.itextpdf.signingexamples.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.itextpdf.io.font.FontProgram;
+import com.itextpdf.io.font.FontProgramFactory;
+import com.itextpdf.io.font.PdfEncodings;
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.io.font.otf.Glyph;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.kernel.font.PdfFontFactory.EmbeddingStrategy;
+import com.itextpdf.kernel.pdf.PdfDictionary;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.WriterProperties;
+
+/**
+ * <p>
+ * This class caches fonts for signature appearances across documents.
+ * </p>
+ * <p>
+ * Font files are parsed once into {@link FontProgram} instances which
+ * are kept in a least recently used cache bounded by the total size of
+ * the font files; standard fonts count with a nominal size only. For each
+ * font program the widths of recently measured texts are cached, too.
+ * As a {@link PdfFont} is bound to a single document, the fonts created
+ * from the cached programs are remembered per document, so all
+ * appearances in a document share a font and, therefore, its subset.
+ * Only the document itself holds its fonts strongly, cf.
+ * {@link PdfDocument#addFont(PdfFont)}, while this cache merely holds weak
+ * references to documents and fonts, so it does not keep documents alive.
+ * </p>
+ * <p>
+ * Usually iText determines and embeds the subset of the glyphs actually
+ * used when a document is closed. For texts consisting of
+ * {@link #SUBSET_CHARACTERS} only, though, {@link #getFont(PdfDocument, String, String)}
+ * returns a subset of an embedded font which is encoded once per font
+ * program and merely copied into each document.
+ * </p>
+ */
+public class SignatureFontCache {
+    final static long STANDARD_FONT_SIZE = 16 * 1024;
+    final static int MAX_CACHED_WIDTHS = 1024;
+    final static PdfName SUBSET_FONT = new PdfName("MKLSignatureFontSubset");
+    final static String SUBSET_KEY_SUFFIX = "\u0000subset";
+
+    /**
+     * The characters of the reusable font subsets, the printable characters
+     * of ISO 8859-1.
+     */
+    public final static String SUBSET_CHARACTERS;
+
+    static {
+        StringBuilder characters = new StringBuilder();
+        for (char c = 0x20; c < 0x7f; c++)
+            characters.append(c);
+        for (char c = 0xa0; c <= 0xff; c++)
+            characters.append(c);
+        SUBSET_CHARACTERS = characters.toString();
+    }
+
+    static final SignatureFontCache DEFAULT = new SignatureFontCache(32 * 1024 * 1024);
+
+    /**
+     * The process-wide cache, bounded to 32 MB of font files.
+     */
+    public static SignatureFontCache getDefault() {
+        return DEFAULT;
+    }
+
+    final long maxSize;
+    long size = 0;
+    long hits = 0;
+    long misses = 0;
+    final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, .75f, true);
+    final Map<PdfDocument, Map<String, WeakReference<PdfFont>>> documentFonts = new WeakHashMap<>();
+
+    public SignatureFontCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the font program for the given standard font name or font
+     * file path, parsing it if it is not cached.
+     */
+    public FontProgram getFontProgram(String font) throws IOException {
+        return getEntry(font).fontProgram;
+    }
+
+    /**
+     * Returns a font for the given standard font name or font file path
+     * in the given document. Repeated calls for the same document return
+     * the same font.
+     */
+    public PdfFont getFont(PdfDocument pdfDocument, String font) throws IOException {
+        synchronized (documentFonts) {
+            PdfFont pdfFont = getDocumentFont(pdfDocument, font);
+            if (pdfFont != null)
+                return pdfFont;
+        }
+        Entry entry = getEntry(font);
+        PdfFont pdfFont = entry.standard ?
+                PdfFontFactory.createFont(entry.fontProgram, PdfEncodings.WINANSI, EmbeddingStrategy.PREFER_NOT_EMBEDDED) :
+                PdfFontFactory.createFont(entry.fontProgram, PdfEncodings.IDENTITY_H, EmbeddingStrategy.PREFER_EMBEDDED);
+        synchronized (documentFonts) {
+            PdfFont existing = getDocumentFont(pdfDocument, font);
+            if (existing != null)
+                return existing;
+            pdfDocument.addFont(pdfFont);
+            documentFonts.computeIfAbsent(pdfDocument, document -> new HashMap<>()).put(font, new WeakReference<>(pdfFont));
+            return pdfFont;
+        }
+    }
+
+    /**
+     * Returns a font for the given standard font name or font file path
+     * in the given document for showing the given text. For an embedded
+     * font and a text consisting of {@link #SUBSET_CHARACTERS} only, this
+     * is a copy of the reusable subset of the font; otherwise it is the
+     * font {@link #getFont(PdfDocument, String)} returns. Repeated calls for
+     * the same document return the same font.
+     */
+    public PdfFont getFont(PdfDocument pdfDocument, String font, String text) throws IOException {
+        Entry entry = getEntry(font);
+        if (entry.standard || !isSubsetText(text))
+            return getFont(pdfDocument, font);
+
+        String key = font + SUBSET_KEY_SUFFIX;
+        synchronized (pdfDocument) {
+            synchronized (documentFonts) {
+                PdfFont pdfFont = getDocumentFont(pdfDocument, key);
+                if (pdfFont != null)
+                    return pdfFont;
+            }
+            PdfDictionary fontDictionary;
+            try (   PdfDocument subsetDocument = new PdfDocument(new PdfReader(new ByteArrayInputStream(entry.getSubset())))   ) {
+                PdfDictionary subset = subsetDocument.getCatalog().getPdfObject().getAsDictionary(SUBSET_FONT);
+                fontDictionary = (PdfDictionary) subset.copyTo(pdfDocument, false);
+            }
+            PdfFont pdfFont = PdfFontFactory.createFont(fontDictionary);
+            synchronized (documentFonts) {
+                pdfDocument.addFont(pdfFont);
+                documentFonts.computeIfAbsent(pdfDocument, document -> new HashMap<>()).put(key, new WeakReference<>(pdfFont));
+            }
+            return pdfFont;
+        }
+    }
+
+    static boolean isSubsetText(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (SUBSET_CHARACTERS.indexOf(text.charAt(i)) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the width of the given text in the given font at the given
+     * font size, ignoring kerning and ligatures.
+     */
+    public float getWidth(String font, String text, float fontSize) throws IOException {
+        Entry entry = getEntry(font);
+        Integer width = entry.widths.get(text);
+        if (width == null) {
+            int total = 0;
+            for (int i = 0; i < text.length(); i = text.offsetByCodePoints(i, 1)) {
+                Glyph glyph = entry.fontProgram.getGlyph(text.codePointAt(i));
+                if (glyph != null)
+                    total += glyph.getWidth();
+            }
+            width = total;
+            entry.widths.put(text, width);
+        }
+        return width * fontSize / 1000f;
+    }
+
+    PdfFont getDocumentFont(PdfDocument pdfDocument, String font) {
+        Map<String, WeakReference<PdfFont>> fonts = documentFonts.get(pdfDocument);
+        WeakReference<PdfFont> reference = fonts != null ? fonts.get(font) : null;
+        return reference != null ? reference.get() : null;
+    }
+
+    /**
+     * Returns the total size of the cached font programs.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Removes all font programs from this cache. Fonts already created for
+     * open documents remain usable.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    Entry getEntry(String font) throws IOException {
+        synchronized (this) {
+            Entry entry = entries.get(font);
+            if (entry != null) {
+                hits++;
+                return entry;
+            }
+            misses++;
+        }
+
+        Entry entry;
+        if (StandardFonts.isStandardFont(font)) {
+            entry = new Entry(FontProgramFactory.createFont(font), STANDARD_FONT_SIZE, true);
+        } else {
+            byte[] bytes = Files.readAllBytes(Paths.get(font));
+            entry = new Entry(FontProgramFactory.createFont(bytes, false), bytes.length, false);
+        }
+
+        synchronized (this) {
+            Entry existing = entries.get(font);
+            if (existing != null)
+                return existing;
+            entries.put(font, entry);
+            size += entry.size;
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (size > maxSize && entries.size() > 1) {
+                Entry eldest = iterator.next();
+                iterator.remove();
+                size -= eldest.size;
+            }
+            return entry;
+        }
+    }
+
+    static class Entry {
+        final FontProgram fontProgram;
+        final long size;
+        final boolean standard;
+        final Map<String, Integer> widths = Collections.synchronizedMap(new LinkedHashMap<String, Integer>(16, .75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > MAX_CACHED_WIDTHS;
+            }
+        });
+        byte[] subset;
+
+        Entry(FontProgram fontProgram, long size, boolean standard) {
+            this.fontProgram = fontProgram;
+            this.size = size;
+            this.standard = standard;
+        }
+
+        /**
+         * Returns a small PDF whose catalog references the subset of the
+         * {@link #SUBSET_CHARACTERS}, encoding it on the first call.
+         */
+        synchronized byte[] getSubset() {
+            if (subset == null) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (   PdfDocument subsetDocument = new PdfDocument(new PdfWriter(bytes, new WriterProperties().setFullCompressionMode(true)))   ) {
+                    PdfFont pdfFont = PdfFontFactory.createFont(fontProgram, PdfEncodings.IDENTITY_H, EmbeddingStrategy.FORCE_EMBEDDED);
+                    pdfFont.convertToBytes(SUBSET_CHARACTERS);
+                    subsetDocument.getCatalog().put(SUBSET_FONT, pdfFont.getPdfObject());
+                    subsetDocument.addFont(pdfFont);
+                    subsetDocument.addNewPage();
+                }
+                subset = bytes.toByteArray();
+            }
+            return subset;
+        }
+    }
+}
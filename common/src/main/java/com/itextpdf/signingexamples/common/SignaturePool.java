@@ -0,0 +1,128 @@
+package com.itextpdf.signingexamples.common;
+
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.Signature;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * <p>
+ * This class pools initialized {@link Signature} instances for reuse
+ * across signing calls. Retrieving an instance from a provider is
+ * synchronized and initializing it may require a round trip to the
+ * device, so reuse can considerably improve throughput when signing in
+ * parallel.
+ * </p>
+ * <p>
+ * At most {@link #getCapacity()} idle instances are kept per {@link Key},
+ * by default as many as there are processors; instances returned beyond
+ * that are dropped. Users should {@link #clear()} the pool if the key
+ * changes or the provider or device may be in trouble.
+ * </p>
+ */
+public class SignaturePool {
+    final Map<Key, BlockingDeque<Signature>> pool = new ConcurrentHashMap<>();
+    volatile int capacity = Runtime.getRuntime().availableProcessors();
+    volatile boolean enabled = true;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets whether instances shall be reused; if not, {@link #acquire(Key, Provider)}
+     * always creates a new instance and {@link #release(Key, Signature)}
+     * drops it.
+     */
+    public SignaturePool setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled)
+            clear();
+        return this;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the maximum number of idle instances kept per key.
+     */
+    public SignaturePool setCapacity(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Capacity must not be negative");
+        this.capacity = capacity;
+        clear();
+        return this;
+    }
+
+    /**
+     * Returns an initialized {@link Signature} instance for the given key,
+     * either from the pool or newly created by the given provider.
+     */
+    public Signature acquire(Key key, Provider provider) throws GeneralSecurityException {
+        if (enabled) {
+            BlockingDeque<Signature> pooled = pool.get(key);
+            Signature sig = pooled != null ? pooled.pollFirst() : null;
+            if (sig != null)
+                return sig;
+        }
+        Signature sig = Signature.getInstance(key.algorithm, provider);
+        sig.initSign(key.privateKey);
+        if (key.paramSpec != null)
+            sig.setParameter(key.paramSpec);
+        return sig;
+    }
+
+    /**
+     * Returns a {@link Signature} instance to the pool after a successful
+     * {@link Signature#sign()} call which resets it to the state right
+     * after initialization.
+     */
+    public void release(Key key, Signature sig) {
+        if (enabled && capacity > 0)
+            pool.computeIfAbsent(key, k -> new LinkedBlockingDeque<>(capacity)).offerFirst(sig);
+    }
+
+    /**
+     * Drops all pooled instances.
+     */
+    public void clear() {
+        pool.clear();
+    }
+
+    /**
+     * The key of the pool: private key, algorithm name, and parameter
+     * specification.
+     */
+    public static class Key {
+        final PrivateKey privateKey;
+        final String algorithm;
+        final AlgorithmParameterSpec paramSpec;
+
+        public Key(PrivateKey privateKey, String algorithm, AlgorithmParameterSpec paramSpec) {
+            this.privateKey = privateKey;
+            this.algorithm = algorithm;
+            this.paramSpec = paramSpec;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return privateKey == other.privateKey && algorithm.equals(other.algorithm) && paramSpec == other.paramSpec;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(privateKey), algorithm, System.identityHashCode(paramSpec));
+        }
+    }
+}
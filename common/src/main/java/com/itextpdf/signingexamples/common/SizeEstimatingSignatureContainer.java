@@ -0,0 +1,18 @@
+package com.itextpdf.signingexamples.common;
+
+import java.security.GeneralSecurityException;
+
+import com.itextpdf.signatures.IExternalSignatureContainer;
+
+/**
+ * An {@link IExternalSignatureContainer} which can tell the maximum size
+ * of the signature containers it creates, to be used as estimated size in
+ * {@link com.itextpdf.signatures.PdfSigner#signExternalContainer(IExternalSignatureContainer, int)}.
+ */
+public interface SizeEstimatingSignatureContainer extends IExternalSignatureContainer {
+    /**
+     * Returns an upper bound of the size of the signature containers
+     * created with the current key and algorithm selection.
+     */
+    int estimateSize() throws GeneralSecurityException;
+}
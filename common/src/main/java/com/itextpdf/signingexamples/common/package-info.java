@@ -0,0 +1,5 @@
+/**
+ * This package contains helpers shared by the signature container
+ * implementations of the other signing example modules.
+ */
+package com.itextpdf.signingexamples.common;
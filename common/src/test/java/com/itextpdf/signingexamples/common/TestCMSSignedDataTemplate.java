@@ -0,0 +1,136 @@
+package com.itextpdf.signingexamples.common;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.bouncycastle.cms.SignerInformation;
+import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This test class checks that {@link CMSSignedDataTemplate} creates
+ * valid signature containers which have the same structure as those
+ * created by a {@link CMSSignedDataGenerator}, and compares the time
+ * both need.
+ */
+class TestCMSSignedDataTemplate {
+    final static int RUNS = 500;
+
+    static byte[] data;
+
+    @BeforeAll
+    public static void setUpBeforeClass() throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        data = new byte[100000];
+        new Random(42).nextBytes(data);
+    }
+
+    @Test
+    void testRsa() throws Exception {
+        test("RSA", 2048, "SHA256withRSA");
+    }
+
+    @Test
+    void testRsaSsaPss() throws Exception {
+        test("RSA", 2048, "SHA256withRSAandMGF1");
+    }
+
+    @Test
+    void testEcdsa() throws Exception {
+        test("EC", 256, "SHA384withECDSA");
+    }
+
+    void test(String keyAlgorithm, int keySize, String signatureAlgorithm) throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(keyAlgorithm);
+        keyPairGenerator.initialize(keySize);
+        KeyPair rootKeyPair = keyPairGenerator.generateKeyPair();
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        X509Certificate root = createCertificate("CN=Template Test Root", rootKeyPair, "CN=Template Test Root", rootKeyPair, signatureAlgorithm);
+        X509Certificate signer = createCertificate("CN=Template Test Signer", keyPair, "CN=Template Test Root", rootKeyPair, signatureAlgorithm);
+        Certificate[] chain = new Certificate[] { signer, root };
+
+        JcaContentSignerBuilder contentSignerBuilder = new JcaContentSignerBuilder(signatureAlgorithm);
+        CMSSignedDataTemplate template = new CMSSignedDataTemplate(chain, contentSignerBuilder.build(keyPair.getPrivate()).getAlgorithmIdentifier());
+
+        byte[] fromTemplate = template.sign(new CMSTypedDataInputStream(new ByteArrayInputStream(data)), contentSignerBuilder.build(keyPair.getPrivate()));
+        byte[] fromGenerator = generate(chain, contentSignerBuilder.build(keyPair.getPrivate()));
+
+        CMSSignedData templateData = new CMSSignedData(new CMSProcessableByteArray(data), fromTemplate);
+        CMSSignedData generatorData = new CMSSignedData(new CMSProcessableByteArray(data), fromGenerator);
+        assertArrayEquals(templateData.getEncoded("DER"), fromTemplate, "Template result is not DER encoded");
+
+        SignerInformation templateSigner = templateData.getSignerInfos().iterator().next();
+        SignerInformation generatorSigner = generatorData.getSignerInfos().iterator().next();
+        assertTrue(templateSigner.verify(new JcaSimpleSignerInfoVerifierBuilder().setProvider("BC").build(signer)), "Signature does not verify");
+
+        assertEquals(generatorSigner.getSID(), templateSigner.getSID());
+        assertEquals(generatorSigner.getDigestAlgorithmID(), templateSigner.getDigestAlgorithmID());
+        assertEquals(generatorSigner.toASN1Structure().getDigestEncryptionAlgorithm(), templateSigner.toASN1Structure().getDigestEncryptionAlgorithm());
+        assertEquals(Arrays.asList(attributeTypes(generatorSigner)), Arrays.asList(attributeTypes(templateSigner)));
+        assertEquals(new HashSet<>(generatorData.getCertificates().getMatches(null)), new HashSet<>(templateData.getCertificates().getMatches(null)));
+        if ("RSA".equals(keyAlgorithm)) // ECDSA signature values vary in size
+            assertEquals(fromGenerator.length, fromTemplate.length, "Sizes differ");
+
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++)
+            generate(chain, contentSignerBuilder.build(keyPair.getPrivate()));
+        long generatorTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++)
+            template.sign(new CMSTypedDataInputStream(new ByteArrayInputStream(data)), contentSignerBuilder.build(keyPair.getPrivate()));
+        long templateTime = System.nanoTime() - start;
+        System.out.printf("%s: generator %.3f ms, template %.3f ms per container\n", signatureAlgorithm,
+                generatorTime / 1e6 / RUNS, templateTime / 1e6 / RUNS);
+    }
+
+    static byte[] generate(Certificate[] chain, ContentSigner contentSigner) throws Exception {
+        X509CertificateHolder signCert = new X509CertificateHolder(chain[0].getEncoded());
+        CMSSignedDataGenerator gen = new CMSSignedDataGenerator();
+        gen.addSignerInfoGenerator(
+                new JcaSignerInfoGeneratorBuilder(new JcaDigestCalculatorProviderBuilder().setProvider("BC").build())
+                        .build(contentSigner, signCert));
+        gen.addCertificates(new JcaCertStore(Arrays.asList(chain)));
+        return gen.generate(new CMSTypedDataInputStream(new ByteArrayInputStream(data)), false).getEncoded();
+    }
+
+    static ASN1ObjectIdentifier[] attributeTypes(SignerInformation signerInformation) {
+        return Arrays.stream(signerInformation.getSignedAttributes().toASN1Structure().getAttributes())
+                .map(attribute -> attribute.getAttrType()).toArray(ASN1ObjectIdentifier[]::new);
+    }
+
+    static X509Certificate createCertificate(String subject, KeyPair subjectKeyPair, String issuer, KeyPair issuerKeyPair, String signatureAlgorithm) throws Exception {
+        long now = System.currentTimeMillis();
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(new X500Name(issuer), BigInteger.valueOf(now),
+                new Date(now - 60000), new Date(now + 3600000), new X500Name(subject), subjectKeyPair.getPublic());
+        return new JcaX509CertificateConverter().setProvider("BC")
+                .getCertificate(builder.build(new JcaContentSignerBuilder(signatureAlgorithm).build(issuerKeyPair.getPrivate())));
+    }
+}
@@ -0,0 +1,208 @@
+package com.itextpdf.signingexamples.common;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSTypedData;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This test class checks that {@link CMSTypedDataInputStream},
+ * {@link CMSTypedDataReadAhead}, and {@link CMSTypedDataFileRanges} feed
+ * exactly the signed bytes into the digest, and reports their throughput.
+ */
+class TestCMSTypedData {
+    final static File RESULT_FOLDER = new File("target/test-outputs", "common");
+    final static int SIZE = 64 * 1024 * 1024 + 12345;
+    final static int GAP = 16384;
+
+    static byte[] data;
+    static File file;
+
+    @BeforeAll
+    public static void setUpBeforeClass() throws Exception {
+        RESULT_FOLDER.mkdirs();
+        data = new byte[SIZE];
+        new Random(42).nextBytes(data);
+        file = new File(RESULT_FOLDER, "typed-data.bin");
+        Files.write(file.toPath(), data);
+    }
+
+    @Test
+    void testInputStream() throws Exception {
+        byte[] expected = digest(data, 0, data.length);
+        byte[] actual = digest(new CMSTypedDataInputStream(new ByteArrayInputStream(data)));
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    void testBufferPool() throws Exception {
+        byte[] expected = digest(data, 0, 1024 * 1024);
+        int threads = CopyBufferPool.MAX_IDLE * 2;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<byte[]>> digests = new ArrayList<>();
+            for (int i = 0; i < threads; i++)
+                digests.add(executor.submit(() -> digest(new CMSTypedDataInputStream(new ByteArrayInputStream(data, 0, 1024 * 1024)))));
+            for (Future<byte[]> actual : digests)
+                assertArrayEquals(expected, actual.get());
+        } finally {
+            executor.shutdown();
+        }
+        int idle = CopyBufferPool.IDLE.size();
+        assertTrue(idle > 0 && idle <= CopyBufferPool.MAX_IDLE, "Unexpected number of idle buffers: " + idle);
+    }
+
+    @Test
+    void testFileRanges() throws Exception {
+        int gapStart = SIZE / 2;
+        long[] byteRange = { 0, gapStart, gapStart + GAP, SIZE - gapStart - GAP };
+
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        md.update(data, 0, gapStart);
+        md.update(data, gapStart + GAP, SIZE - gapStart - GAP);
+        byte[] expected = md.digest();
+
+        byte[] actual = digest(new CMSTypedDataFileRanges(file, byteRange));
+        assertArrayEquals(expected, actual);
+        // the mapping and the file must have been released
+        Files.delete(file.toPath());
+        Files.write(file.toPath(), data);
+    }
+
+    @Test
+    void testReadAhead() throws Exception {
+        int[] sizes = { 0, 100, CMSTypedDataReadAhead.BLOCK_SIZE, CMSTypedDataReadAhead.BLOCK_SIZE + 1,
+                CMSTypedDataReadAhead.BLOCK_SIZE * CMSTypedDataReadAhead.BLOCK_COUNT * 3, SIZE };
+        for (int size : sizes) {
+            byte[] expected = digest(data, 0, size);
+            byte[] actual = digest(new CMSTypedDataReadAhead(new ByteArrayInputStream(data, 0, size)));
+            assertArrayEquals(expected, actual, "Digest mismatch for size " + size);
+        }
+    }
+
+    @Test
+    void testReadAheadSlowStream() throws Exception {
+        byte[] expected = digest(data, 0, data.length);
+        // simulates a network file system delivering about 250 MB/s
+        assertArrayEquals(expected, digest(new CMSTypedDataInputStream(new SlowInputStream(new ByteArrayInputStream(data), 0))));
+        assertArrayEquals(expected, digest(new CMSTypedDataReadAhead(new SlowInputStream(new ByteArrayInputStream(data), 0))));
+    }
+
+    @Test
+    void testReadAheadFailure() throws Exception {
+        InputStream failing = new SlowInputStream(new ByteArrayInputStream(data), 3 * CMSTypedDataReadAhead.BLOCK_SIZE);
+        assertThrows(IOException.class, () -> digest(new CMSTypedDataReadAhead(failing)));
+        // the ring buffers must be usable again afterwards
+        testReadAhead();
+    }
+
+    @Test
+    void testReadAheadCancelKeepsChannelOpen() throws Exception {
+        try (   FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)   ) {
+            InputStream in = new FilterInputStream(Channels.newInputStream(channel)) {
+                @Override
+                public void close() {
+                    // the channel is closed by the test
+                }
+            };
+            OutputStream failing = new OutputStream() {
+                int written = 0;
+
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] { (byte) b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    written += len;
+                    if (written > CMSTypedDataReadAhead.BLOCK_SIZE)
+                        throw new IOException("Simulated hashing failure");
+                }
+            };
+            assertThrows(IOException.class, () -> new CMSTypedDataReadAhead(in).write(failing));
+            assertTrue(channel.isOpen(), "Cancelling the read-ahead closed the channel");
+        }
+    }
+
+    static byte[] digest(byte[] bytes, int offset, int length) throws NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        md.update(bytes, offset, length);
+        return md.digest();
+    }
+
+    static byte[] digest(CMSTypedData typedData) throws NoSuchAlgorithmException, IOException, CMSException {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        long start = System.nanoTime();
+        try (   OutputStream out = new DigestOutputStream(new NullOutputStream(), md)   ) {
+            typedData.write(out);
+        }
+        long time = System.nanoTime() - start;
+        System.out.printf("%s: %d bytes in %.2f ms\n", typedData.getClass().getSimpleName(), SIZE, time / 1e6);
+        return md.digest();
+    }
+
+    /**
+     * Delays each read by about 4 ms per MB, optionally failing after the
+     * given number of bytes.
+     */
+    static class SlowInputStream extends FilterInputStream {
+        final int failAfter;
+        int position = 0;
+
+        SlowInputStream(InputStream in, int failAfter) {
+            super(in);
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (failAfter > 0 && position >= failAfter)
+                throw new IOException("Simulated read failure");
+            try {
+                Thread.sleep(Math.max(1, 4 * len / (1024 * 1024)));
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            int read = super.read(b, off, len);
+            if (read > 0)
+                position += read;
+            return read;
+        }
+    }
+
+    static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
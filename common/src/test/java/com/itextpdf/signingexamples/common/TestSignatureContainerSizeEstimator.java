@@ -0,0 +1,118 @@
+package com.itextpdf.signingexamples.common;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.itextpdf.kernel.pdf.PdfDictionary;
+import com.itextpdf.signatures.IExternalSignatureContainer;
+
+/**
+ * This test class checks that {@link SignatureContainerSizeEstimator}
+ * estimates are upper bounds of the actual container sizes and tight.
+ */
+class TestSignatureContainerSizeEstimator {
+    @BeforeAll
+    public static void setUpBeforeClass() throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Test
+    void testRsa() throws Exception {
+        test("RSA", 2048, "SHA256withRSA", 0);
+    }
+
+    @Test
+    void testRsaOddSize() throws Exception {
+        test("RSA", 3071, "SHA512withRSAandMGF1", 0);
+    }
+
+    @Test
+    void testEcdsa() throws Exception {
+        // the actual signature value may be up to 2 bytes shorter per integer
+        test("EC", 256, "SHA256withECDSA", 4);
+    }
+
+    @Test
+    void testEcdsaP521() throws Exception {
+        // the top byte of a 521 bit integer often is zero, so occasionally it is 3 bytes shorter
+        test("EC", 521, "SHA512withECDSA", 6);
+    }
+
+    @Test
+    void testCalibrate() throws Exception {
+        CMSSignedDataTemplate template = createTemplate("EC", 384, "SHA384withECDSA");
+        int estimated = new SignatureContainerSizeEstimator(template).estimate();
+        int calibrated = SignatureContainerSizeEstimator.calibrate(new TemplateContainer(template, keyPair, "SHA384withECDSA"));
+        System.out.printf("SHA384withECDSA: estimated %d, calibrated %d\n", estimated, calibrated);
+        assertTrue(calibrated >= estimated, "Calibrated size below estimate");
+    }
+
+    void test(String keyAlgorithm, int keySize, String signatureAlgorithm, int tolerance) throws Exception {
+        CMSSignedDataTemplate template = createTemplate(keyAlgorithm, keySize, signatureAlgorithm);
+        int estimated = new SignatureContainerSizeEstimator(template).estimate();
+
+        int minimum = Integer.MAX_VALUE;
+        int maximum = 0;
+        for (int i = 0; i < 20; i++) {
+            int size = template.sign(new CMSTypedDataInputStream(new ByteArrayInputStream(new byte[i])),
+                    new JcaContentSignerBuilder(signatureAlgorithm).build(keyPair.getPrivate())).length;
+            minimum = Math.min(minimum, size);
+            maximum = Math.max(maximum, size);
+        }
+
+        System.out.printf("%s (%d bits): estimated %d, actual %d to %d\n", signatureAlgorithm, keySize, estimated, minimum, maximum);
+        assertTrue(maximum <= estimated, "Estimate too small");
+        // before 2050 the signing time is encoded 2 bytes shorter than assumed
+        assertTrue(estimated - minimum <= 2 + tolerance, "Estimate not tight");
+    }
+
+    CMSSignedDataTemplate createTemplate(String keyAlgorithm, int keySize, String signatureAlgorithm) throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(keyAlgorithm);
+        keyPairGenerator.initialize(keySize);
+        keyPair = keyPairGenerator.generateKeyPair();
+        X509Certificate certificate = TestCMSSignedDataTemplate.createCertificate("CN=Size Test", keyPair, "CN=Size Test", keyPair, signatureAlgorithm);
+        return new CMSSignedDataTemplate(new Certificate[] { certificate },
+                new JcaContentSignerBuilder(signatureAlgorithm).build(keyPair.getPrivate()).getAlgorithmIdentifier());
+    }
+
+    KeyPair keyPair;
+
+    static class TemplateContainer implements IExternalSignatureContainer {
+        final CMSSignedDataTemplate template;
+        final KeyPair keyPair;
+        final String signatureAlgorithm;
+
+        TemplateContainer(CMSSignedDataTemplate template, KeyPair keyPair, String signatureAlgorithm) {
+            this.template = template;
+            this.keyPair = keyPair;
+            this.signatureAlgorithm = signatureAlgorithm;
+        }
+
+        @Override
+        public byte[] sign(InputStream data) throws GeneralSecurityException {
+            try {
+                return template.sign(new CMSTypedDataInputStream(data), new JcaContentSignerBuilder(signatureAlgorithm).build(keyPair.getPrivate()));
+            } catch (OperatorCreationException e) {
+                throw new GeneralSecurityException(e);
+            }
+        }
+
+        @Override
+        public void modifySigningDictionary(PdfDictionary signDic) {
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.itextpdf.signingexamples.common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import org.junit.jupiter.api.Test;
+
+import com.itextpdf.io.font.FontProgram;
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import com.itextpdf.kernel.pdf.canvas.parser.PdfTextExtractor;
+
+/**
+ * This test class checks the reuse, the eviction, and the release of fonts,
+ * the cached text widths, and the reusable subsets of a {@link SignatureFontCache}.
+ */
+class TestSignatureFontCache {
+    final static File FONT_FOLDER = new File("/usr/share/fonts/truetype/dejavu");
+
+    @Test
+    void testStandardFontPerDocument() throws Exception {
+        SignatureFontCache cache = new SignatureFontCache(1024 * 1024);
+        try (   PdfDocument first = new PdfDocument(new PdfWriter(new ByteArrayOutputStream()));
+                PdfDocument second = new PdfDocument(new PdfWriter(new ByteArrayOutputStream()))   ) {
+            first.addNewPage();
+            second.addNewPage();
+            PdfFont font = cache.getFont(first, StandardFonts.COURIER);
+            assertSame(font, cache.getFont(first, StandardFonts.COURIER));
+            PdfFont otherFont = cache.getFont(second, StandardFonts.COURIER);
+            assertNotSame(font, otherFont);
+            assertSame(font.getFontProgram(), otherFont.getFontProgram());
+            assertEquals(1, cache.getMisses());
+            assertEquals(font.getWidth("Signed by John Doe", 10), cache.getWidth(StandardFonts.COURIER, "Signed by John Doe", 10), .001);
+            assertSame(font, cache.getFont(first, StandardFonts.COURIER, "Signed by John Doe"));
+        }
+    }
+
+    @Test
+    void testDocumentsNotRetained() throws Exception {
+        SignatureFontCache cache = new SignatureFontCache(1024 * 1024);
+        try (   PdfDocument pdfDocument = new PdfDocument(new PdfWriter(new ByteArrayOutputStream()))   ) {
+            pdfDocument.addNewPage();
+            cache.getFont(pdfDocument, StandardFonts.HELVETICA);
+        }
+        for (int i = 0; i < 50 && documentCount(cache) > 0; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertEquals(0, documentCount(cache), "Closed document retained by the font cache");
+    }
+
+    static int documentCount(SignatureFontCache cache) {
+        synchronized (cache.documentFonts) {
+            return cache.documentFonts.size();
+        }
+    }
+
+    @Test
+    void testTrueTypeEviction() throws Exception {
+        File sans = new File(FONT_FOLDER, "DejaVuSans.ttf");
+        File serif = new File(FONT_FOLDER, "DejaVuSerif.ttf");
+        assumeTrue(sans.exists() && serif.exists(), "DejaVu fonts not installed");
+
+        SignatureFontCache cache = new SignatureFontCache(sans.length() + serif.length() - 1);
+        long start = System.nanoTime();
+        FontProgram sansProgram = cache.getFontProgram(sans.getPath());
+        long parsing = System.nanoTime() - start;
+        start = System.nanoTime();
+        assertSame(sansProgram, cache.getFontProgram(sans.getPath()));
+        long cached = System.nanoTime() - start;
+        System.out.printf("DejaVuSans: parsed in %.2f ms, cached in %.3f ms\n", parsing / 1e6, cached / 1e6);
+        assertEquals(sans.length(), cache.getSize());
+
+        cache.getFontProgram(serif.getPath());
+        assertEquals(serif.length(), cache.getSize());
+        assertNotSame(sansProgram, cache.getFontProgram(sans.getPath()));
+        assertEquals(3, cache.getMisses());
+        assertEquals(1, cache.getHits());
+
+        try (   PdfDocument pdfDocument = new PdfDocument(new PdfWriter(new ByteArrayOutputStream()))   ) {
+            pdfDocument.addNewPage();
+            PdfFont font = cache.getFont(pdfDocument, sans.getPath());
+            assertSame(font, cache.getFont(pdfDocument, sans.getPath()));
+            assertEquals(font.getWidth("Signed by Jöhn Doe", 12), cache.getWidth(sans.getPath(), "Signed by Jöhn Doe", 12), .001);
+            cache.getWidth(sans.getPath(), "Signed by Jöhn Doe", 10);
+            assertEquals(1, cache.getEntry(sans.getPath()).widths.size());
+        }
+    }
+
+    @Test
+    void testReusableSubset() throws Exception {
+        File sans = new File(FONT_FOLDER, "DejaVuSans.ttf");
+        assumeTrue(sans.exists(), "DejaVu fonts not installed");
+
+        SignatureFontCache cache = new SignatureFontCache(sans.length());
+        String latin = "Signed by Jöhn Doe, Zürich";
+        String other = "Signed by Jōhn Doe";
+        byte[] subset = null;
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (   PdfDocument pdfDocument = new PdfDocument(new PdfWriter(bytes))   ) {
+                PdfCanvas canvas = new PdfCanvas(pdfDocument.addNewPage());
+                PdfFont font = cache.getFont(pdfDocument, sans.getPath(), latin);
+                assertSame(font, cache.getFont(pdfDocument, sans.getPath(), latin));
+                assertSame(cache.getFont(pdfDocument, sans.getPath()), cache.getFont(pdfDocument, sans.getPath(), other));
+                assertNotSame(font, cache.getFont(pdfDocument, sans.getPath()));
+                canvas.beginText().setFontAndSize(font, 12).moveText(36, 700).showText(latin).endText();
+            }
+            if (subset == null)
+                subset = cache.getEntry(sans.getPath()).subset;
+            assertSame(subset, cache.getEntry(sans.getPath()).subset, "Subset encoded anew");
+            assertTrue(bytes.size() < sans.length(), "Complete font embedded");
+            try (   PdfDocument pdfDocument = new PdfDocument(new PdfReader(new ByteArrayInputStream(bytes.toByteArray())))   ) {
+                assertEquals(latin, PdfTextExtractor.getTextFromPage(pdfDocument.getPage(1)));
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.itextpdf.signingexamples.common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Provider;
+import java.security.Security;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This test class checks that a {@link SignaturePool} reuses released
+ * instances, keeps at most its capacity per key, and that pooled
+ * instances still create valid signatures.
+ */
+class TestSignaturePool {
+    static final byte[] MESSAGE = "Test message to sign".getBytes();
+
+    static KeyPair keyPair;
+    static Provider provider;
+
+    @BeforeAll
+    public static void setUpBeforeClass() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+        keyPairGenerator.initialize(256);
+        keyPair = keyPairGenerator.generateKeyPair();
+        provider = Security.getProvider("SunEC");
+    }
+
+    @Test
+    void testReuseAndCapacity() throws Exception {
+        SignaturePool pool = new SignaturePool().setCapacity(2);
+        SignaturePool.Key key = new SignaturePool.Key(keyPair.getPrivate(), "SHA256withECDSA", null);
+
+        List<Signature> signatures = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            signatures.add(pool.acquire(key, provider));
+        for (Signature signature : signatures)
+            pool.release(key, signature);
+
+        Signature first = pool.acquire(key, provider);
+        Signature second = pool.acquire(key, provider);
+        Signature third = pool.acquire(key, provider);
+        assertSame(signatures.get(1), first);
+        assertSame(signatures.get(0), second);
+        assertTrue(signatures.stream().noneMatch(signature -> signature == third), "Pool exceeds its capacity");
+
+        assertTrue(verify(sign(first)), "Pooled signature does not verify");
+        pool.release(key, first);
+        assertSame(first, pool.acquire(key, provider));
+    }
+
+    @Test
+    void testDisabledAndCleared() throws Exception {
+        SignaturePool pool = new SignaturePool();
+        SignaturePool.Key key = new SignaturePool.Key(keyPair.getPrivate(), "SHA256withECDSA", null);
+        Signature signature = pool.acquire(key, provider);
+
+        pool.release(key, signature);
+        pool.clear();
+        assertNotSame(signature, pool.acquire(key, provider));
+
+        pool.setEnabled(false).release(key, signature);
+        assertNotSame(signature, pool.acquire(key, provider));
+        assertEquals(0, pool.pool.size());
+    }
+
+    static byte[] sign(Signature signature) throws Exception {
+        signature.update(MESSAGE);
+        return signature.sign();
+    }
+
+    static boolean verify(byte[] result) throws Exception {
+        Signature signature = Signature.getInstance("SHA256withECDSA");
+        signature.initVerify(keyPair.getPublic());
+        signature.update(MESSAGE);
+        return signature.verify(result);
+    }
+}
@@ -4,9 +4,11 @@ import com.itextpdf.bouncycastleconnector.BouncyCastleFactoryCreator;
 import com.itextpdf.commons.bouncycastle.IBouncyCastleFactory;
 import com.itextpdf.commons.bouncycastle.asn1.IASN1ObjectIdentifier;
 import com.itextpdf.kernel.crypto.DigestAlgorithms;
+import com.itextpdf.signatures.BouncyCastleDigest;
 import com.itextpdf.signatures.IExternalSignature;
 import com.itextpdf.signatures.ISignatureMechanismParams;
 import com.itextpdf.signatures.RSASSAPSSMechanismParams;
+import com.itextpdf.signingexamples.common.SignaturePool;
 
 import CryptoServerAPI.CryptoServerException;
 import CryptoServerJCE.CryptoServerProvider;
@@ -14,14 +16,27 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.GeneralSecurityException;
-import java.security.KeyStore;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.Security;
+import java.security.SecureRandom;
 import java.security.Signature;
 import java.security.cert.Certificate;
+import java.security.interfaces.RSAPublicKey;
 import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.MGF1ParameterSpec;
 import java.security.spec.PSSParameterSpec;
-import java.util.Enumeration;
+
+import javax.crypto.Cipher;
+
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.DigestInfo;
 
 /**
  * @author mkl
@@ -48,6 +63,18 @@ public class UtimacoJceSignature implements IExternalSignature {
     /** The security provider */
     final CryptoServerProvider provider;
 
+    /** The digest provider for hashing on the host. */
+    static final BouncyCastleDigest BC_DIGEST = new BouncyCastleDigest();
+
+    /** Initialized {@link Signature} instances ready for reuse. */
+    final SignaturePool signaturePool = new SignaturePool();
+
+    /** Whether to hash on the host and send only the hash to the device. */
+    boolean hashOnHost = false;
+
+    /** The source of the RSASSA-PSS salt when hashing on the host. */
+    SecureRandom random;
+
     public UtimacoJceSignature(File utimacoConfigFile) throws IOException, CryptoServerException {
         provider = new CryptoServerProvider(utimacoConfigFile.getAbsolutePath());
         Security.addProvider(provider);
@@ -63,37 +90,30 @@ public class UtimacoJceSignature implements IExternalSignature {
         Security.addProvider(provider);
     }
 
+    /**
+     * Selects the key with the given alias, or the first key if the alias
+     * is <code>null</code>, from the {@link UtimacoKeyCache} of the provider.
+     */
     public UtimacoJceSignature select(String alias, char[] pin) throws GeneralSecurityException, IOException {
-        KeyStore ks = KeyStore.getInstance("CryptoServer", provider);
-        ks.load(null, pin);
-
-        boolean found = false;
-        Enumeration<String> aliases = ks.aliases();
-        while (aliases.hasMoreElements()) {
-            String thisAlias = aliases.nextElement();
-            if (alias == null || alias.equals(thisAlias)) {
-                PrivateKey thisPk = (PrivateKey) ks.getKey(thisAlias, pin);
-                if (thisPk == null)
-                    continue;
-                Certificate[] thisChain = ks.getCertificateChain(thisAlias);
-                if (thisChain == null)
-                    continue;
-
-                found = true;
-                pk = thisPk;
-                chain = thisChain;
-                this.alias = thisAlias;
-                break;
-            }
-        }
+        UtimacoKeyCache.Entry entry = UtimacoKeyCache.forProvider(provider, pin).get(alias);
+        if (entry != null)
+            return select(entry.getAlias(), entry.getPrivateKey(), entry.getChain());
+        return select(null, null, null);
+    }
 
-        if (found) {
+    /**
+     * Uses the given, already retrieved key and certificate chain, e.g.
+     * of a {@link UtimacoProviderPool} connection.
+     */
+    UtimacoJceSignature select(String alias, PrivateKey pk, Certificate[] chain) {
+        signaturePool.clear();
+        this.alias = alias;
+        this.pk = pk;
+        this.chain = chain;
+        if (pk != null) {
             String algorithm = pk.getAlgorithm();
             signatureAlgorithmName = "EC".equals(algorithm) ? "ECDSA" : algorithm;
         } else {
-            pk = null;
-            chain = null;
-            this.alias = null;
             signatureAlgorithmName = null;
         }
 
@@ -113,6 +133,44 @@ public class UtimacoJceSignature implements IExternalSignature {
         return chain;
     }
 
+    public boolean isReuseSignatures() {
+        return signaturePool.isEnabled();
+    }
+
+    /**
+     * Sets whether initialized {@link Signature} instances shall be reused
+     * across {@link #sign(byte[])} calls instead of retrieving and
+     * initializing a new instance each time, cf. {@link SignaturePool}.
+     */
+    public UtimacoJceSignature setReuseSignatures(boolean reuseSignatures) {
+        signaturePool.setEnabled(reuseSignatures);
+        return this;
+    }
+
+    public boolean isHashOnHost() {
+        return hashOnHost;
+    }
+
+    /**
+     * <p>
+     * Sets whether the message to sign shall be hashed on the host and only
+     * the hash be sent to the device instead of the whole message. Thus, the
+     * network traffic and device load per signature do not depend on the
+     * size of the signed attributes anymore.
+     * </p>
+     * <p>
+     * For RSA with PKCS#1 v1.5 padding the DigestInfo is signed using
+     * "NONEwithRSA", for ECDSA the raw hash using "NONEwithECDSA". For
+     * RSASSA-PSS the EMSA-PSS encoding is created on the host and the raw
+     * RSA operation ("RSA/ECB/NoPadding") is executed on the device, so the
+     * key must allow that.
+     * </p>
+     */
+    public UtimacoJceSignature setHashOnHost(boolean hashOnHost) {
+        this.hashOnHost = hashOnHost;
+        return this;
+    }
+
     @Override
     public String getSignatureAlgorithmName() {
         if ("RSA".equals(signatureAlgorithmName) && (fullSignatureAlgorithmParamSpec instanceof PSSParameterSpec))
@@ -132,13 +190,127 @@ public class UtimacoJceSignature implements IExternalSignature {
 
     @Override
     public byte[] sign(byte[] message) throws GeneralSecurityException {
+        if (hashOnHost)
+            return signHashOnHost(message);
+
         String algorithm = digestAlgorithmName + "with" + signatureAlgorithmName; // explicitly don't add "SSA-PSS" or "andMGF1"
-        Signature sig = Signature.getInstance(algorithm, provider);
-        sig.initSign(pk);
-        if (fullSignatureAlgorithmParamSpec != null)
-            sig.setParameter(fullSignatureAlgorithmParamSpec);
-        sig.update(message);
-        return sig.sign();
+        SignaturePool.Key key = new SignaturePool.Key(pk, algorithm, fullSignatureAlgorithmParamSpec);
+        Signature sig = signaturePool.acquire(key, provider);
+        try {
+            sig.update(message);
+            byte[] signature = sig.sign();
+            signaturePool.release(key, sig);
+            return signature;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            // the provider or the device may be in trouble, so don't trust any pooled instance anymore
+            signaturePool.clear();
+            throw e;
+        }
+    }
+
+    /**
+     * Hashes the message on the host and lets the device sign the hash.
+     */
+    byte[] signHashOnHost(byte[] message) throws GeneralSecurityException {
+        if ("RSA".equals(signatureAlgorithmName) && (fullSignatureAlgorithmParamSpec instanceof PSSParameterSpec)) {
+            PSSParameterSpec pssSpec = (PSSParameterSpec) fullSignatureAlgorithmParamSpec;
+            byte[] hash = BC_DIGEST.getMessageDigest(pssSpec.getDigestAlgorithm()).digest(message);
+            int modulusBits = ((RSAPublicKey) chain[0].getPublicKey()).getModulus().bitLength();
+            byte[] encoded = encodePss(hash, pssSpec, modulusBits, random());
+
+            Cipher cipher = Cipher.getInstance("RSA/ECB/NoPadding", provider);
+            cipher.init(Cipher.ENCRYPT_MODE, pk);
+            return cipher.doFinal(encoded);
+        }
+
+        byte[] hash = BC_DIGEST.getMessageDigest(digestAlgorithmName).digest(message);
+        byte[] data = "RSA".equals(signatureAlgorithmName) ? encodeDigestInfo(digestAlgorithmName, hash) : hash;
+        SignaturePool.Key key = new SignaturePool.Key(pk, "NONEwith" + signatureAlgorithmName, null);
+        Signature sig = signaturePool.acquire(key, provider);
+        try {
+            sig.update(data);
+            byte[] signature = sig.sign();
+            signaturePool.release(key, sig);
+            return signature;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            signaturePool.clear();
+            throw e;
+        }
+    }
+
+    synchronized SecureRandom random() {
+        if (random == null)
+            random = new SecureRandom();
+        return random;
+    }
+
+    /**
+     * Creates the DER encoded PKCS#1 DigestInfo structure for the given hash.
+     */
+    static byte[] encodeDigestInfo(String digestAlgorithmName, byte[] hash) throws GeneralSecurityException {
+        String oid = DigestAlgorithms.getAllowedDigest(digestAlgorithmName);
+        if (oid == null)
+            throw new NoSuchAlgorithmException(digestAlgorithmName);
+        AlgorithmIdentifier algorithmIdentifier = new AlgorithmIdentifier(new ASN1ObjectIdentifier(oid), DERNull.INSTANCE);
+        try {
+            return new DigestInfo(algorithmIdentifier, hash).getEncoded(ASN1Encoding.DER);
+        } catch (IOException e) {
+            throw new GeneralSecurityException(e);
+        }
+    }
+
+    /**
+     * Creates the EMSA-PSS encoding of the given hash for a RSA key with a
+     * modulus of the given size according to RFC 8017 section 9.1.1,
+     * padded with leading zeros to the size of the modulus.
+     */
+    static byte[] encodePss(byte[] hash, PSSParameterSpec pssSpec, int modulusBits, SecureRandom random) throws GeneralSecurityException {
+        if (pssSpec.getTrailerField() != 1)
+            throw new InvalidAlgorithmParameterException("Unsupported trailer field " + pssSpec.getTrailerField());
+        if (!(pssSpec.getMGFParameters() instanceof MGF1ParameterSpec))
+            throw new InvalidAlgorithmParameterException("Unsupported mask generation function " + pssSpec.getMGFAlgorithm());
+
+        MessageDigest digest = BC_DIGEST.getMessageDigest(pssSpec.getDigestAlgorithm());
+        MessageDigest mgfDigest = BC_DIGEST.getMessageDigest(((MGF1ParameterSpec) pssSpec.getMGFParameters()).getDigestAlgorithm());
+        int hashLength = hash.length;
+        int saltLength = pssSpec.getSaltLength();
+        int emBits = modulusBits - 1;
+        int emLength = (emBits + 7) / 8;
+        if (emLength < hashLength + saltLength + 2)
+            throw new InvalidKeyException("Key too small for the PSS parameters");
+
+        byte[] salt = new byte[saltLength];
+        random.nextBytes(salt);
+        digest.update(new byte[8]);
+        digest.update(hash);
+        digest.update(salt);
+        byte[] h = digest.digest();
+
+        byte[] db = new byte[emLength - hashLength - 1];
+        db[db.length - saltLength - 1] = 0x01;
+        System.arraycopy(salt, 0, db, db.length - saltLength, saltLength);
+
+        byte[] counter = new byte[4];
+        for (int offset = 0, i = 0; offset < db.length; i++) {
+            counter[0] = (byte) (i >>> 24);
+            counter[1] = (byte) (i >>> 16);
+            counter[2] = (byte) (i >>> 8);
+            counter[3] = (byte) i;
+            mgfDigest.update(h);
+            mgfDigest.update(counter);
+            byte[] mask = mgfDigest.digest();
+            for (int j = 0; j < mask.length && offset < db.length; j++, offset++)
+                db[offset] ^= mask[j];
+        }
+        db[0] &= (byte) (0xff >>> (8 * emLength - emBits));
+
+        int modulusLength = (modulusBits + 7) / 8;
+        byte[] encoded = new byte[modulusLength];
+        int start = modulusLength - emLength;
+        System.arraycopy(db, 0, encoded, start, db.length);
+        System.arraycopy(h, 0, encoded, start + db.length, hashLength);
+        encoded[modulusLength - 1] = (byte) 0xbc;
+        return encoded;
     }
 
     public ISignatureMechanismParams getSignatureMechanismParameters() {
@@ -4,47 +4,37 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.GeneralSecurityException;
-import java.security.KeyStore;
 import java.security.PrivateKey;
 import java.security.Signature;
 import java.security.cert.Certificate;
 import java.security.spec.AlgorithmParameterSpec;
 import java.security.spec.MGF1ParameterSpec;
 import java.security.spec.PSSParameterSpec;
-import java.util.Arrays;
-import java.util.Enumeration;
 
 import org.bouncycastle.asn1.ASN1Integer;
-import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.DERNull;
 import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
 import org.bouncycastle.asn1.pkcs.RSASSAPSSparams;
 import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
-import org.bouncycastle.cert.X509CertificateHolder;
-import org.bouncycastle.cert.jcajce.JcaCertStore;
-import org.bouncycastle.cms.CMSException;
-import org.bouncycastle.cms.CMSSignedData;
-import org.bouncycastle.cms.CMSSignedDataGenerator;
-import org.bouncycastle.cms.CMSTypedData;
-import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
 import org.bouncycastle.operator.ContentSigner;
 import org.bouncycastle.operator.DefaultDigestAlgorithmIdentifierFinder;
 import org.bouncycastle.operator.DefaultSignatureAlgorithmIdentifierFinder;
 import org.bouncycastle.operator.DigestAlgorithmIdentifierFinder;
-import org.bouncycastle.operator.OperatorCreationException;
-import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
 
 import com.itextpdf.io.source.ByteArrayOutputStream;
 import com.itextpdf.kernel.pdf.PdfDictionary;
 import com.itextpdf.kernel.pdf.PdfName;
-import com.itextpdf.signatures.IExternalSignatureContainer;
+import com.itextpdf.signingexamples.common.CMSSignedDataTemplate;
+import com.itextpdf.signingexamples.common.CMSTypedDataInputStream;
+import com.itextpdf.signingexamples.common.SignatureContainerSizeEstimator;
+import com.itextpdf.signingexamples.common.SizeEstimatingSignatureContainer;
 
 import CryptoServerJCE.CryptoServerProvider;
 
 /**
  * @author mkl
  */
-public class UtimacoJceSignatureContainer implements IExternalSignatureContainer {
+public class UtimacoJceSignatureContainer implements SizeEstimatingSignatureContainer {
     final PdfName subfilter;
 
     /** The alias. */
@@ -56,11 +46,17 @@ public class UtimacoJceSignatureContainer implements IExternalSignatureContainer
     /** The certificate chain. */
     Certificate[] chain;
 
+    /** The signature algorithm */
+    String algorithm;
+
+    /** The signature algorithm parameters */
+    AlgorithmParameterSpec paramSpec;
+
     /** The algorithm identifier */
     AlgorithmIdentifier algorithmIdentifier;
 
-    /** The BC content signer for the given key */
-    ContentSigner contentSigner;
+    /** The CMS template for the certificate chain and algorithm last used */
+    volatile CMSSignedDataTemplate template;
 
     /** The security provider */
     final CryptoServerProvider provider;
@@ -70,36 +66,25 @@ public class UtimacoJceSignatureContainer implements IExternalSignatureContainer
         this.provider = utimacoProvider;
     }
 
+    /**
+     * Selects the key with the given alias, or the first key if the alias
+     * is <code>null</code>, from the {@link UtimacoKeyCache} of the provider.
+     */
     public UtimacoJceSignatureContainer select(String alias, char[] pin) throws GeneralSecurityException, IOException {
-        KeyStore ks = KeyStore.getInstance("CryptoServer", provider);
-        ks.load(null, pin);
-
-        boolean found = false;
-        Enumeration<String> aliases = ks.aliases();
-        while (aliases.hasMoreElements()) {
-            String thisAlias = aliases.nextElement();
-            if (alias == null || alias.equals(thisAlias)) {
-                PrivateKey thisPk = (PrivateKey) ks.getKey(thisAlias, pin);
-                if (thisPk == null)
-                    continue;
-                Certificate[] thisChain = ks.getCertificateChain(thisAlias);
-                if (thisChain == null)
-                    continue;
-
-                found = true;
-                pk = thisPk;
-                chain = thisChain;
-                this.alias = thisAlias;
-                break;
-            }
-        }
-
-        if (!found) {
-            pk = null;
-            chain = null;
-            this.alias = null;
-        }
+        UtimacoKeyCache.Entry entry = UtimacoKeyCache.forProvider(provider, pin).get(alias);
+        if (entry != null)
+            return select(entry.getAlias(), entry.getPrivateKey(), entry.getChain());
+        return select(null, null, null);
+    }
 
+    /**
+     * Uses the given, already retrieved key and certificate chain, e.g.
+     * of a {@link UtimacoProviderPool} connection.
+     */
+    UtimacoJceSignatureContainer select(String alias, PrivateKey pk, Certificate[] chain) {
+        this.alias = alias;
+        this.pk = pk;
+        this.chain = chain;
         return this;
     }
 
@@ -112,8 +97,24 @@ public class UtimacoJceSignatureContainer implements IExternalSignatureContainer
             algorithmIdentifier = new DefaultSignatureAlgorithmIdentifierFinder().find(algorithm);
         }
 
-        contentSigner = new ContentSigner() {
-            private ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        this.algorithm = algorithm;
+        this.paramSpec = paramSpec;
+
+        return this;
+    }
+
+    /**
+     * Creates a BC content signer for the selected key. Each {@link #sign(InputStream)}
+     * call uses its own content signer as the signer buffers the to-be-signed
+     * data; thus, the container can be used by multiple threads concurrently.
+     */
+    ContentSigner createContentSigner() {
+        final String algorithm = this.algorithm;
+        final AlgorithmParameterSpec paramSpec = this.paramSpec;
+        final AlgorithmIdentifier algorithmIdentifier = this.algorithmIdentifier;
+
+        return new ContentSigner() {
+            private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
 
             @Override
             public byte[] getSignature() {
@@ -143,30 +144,29 @@ public class UtimacoJceSignatureContainer implements IExternalSignatureContainer
                 return algorithmIdentifier;
             }
         };
-
-        return this;
     }
 
     @Override
     public byte[] sign(InputStream data) throws GeneralSecurityException {
-        try {
-            CMSTypedData msg = new CMSTypedDataInputStream(data);
-
-            X509CertificateHolder signCert = new X509CertificateHolder(chain[0].getEncoded());
-
-            CMSSignedDataGenerator gen = new CMSSignedDataGenerator();
-
-            gen.addSignerInfoGenerator(
-                    new JcaSignerInfoGeneratorBuilder(new JcaDigestCalculatorProviderBuilder().setProvider("BC").build())
-                            .build(contentSigner, signCert));
+        ContentSigner contentSigner = createContentSigner();
+        return template(contentSigner).sign(new CMSTypedDataInputStream(data), contentSigner);
+    }
 
-            gen.addCertificates(new JcaCertStore(Arrays.asList(chain)));
+    /**
+     * Returns the CMS template for the selected certificate chain and the
+     * algorithm of the given content signer, creating it anew only after
+     * either of them has changed.
+     */
+    CMSSignedDataTemplate template(ContentSigner contentSigner) throws GeneralSecurityException {
+        CMSSignedDataTemplate template = this.template;
+        if (template == null || !template.matches(chain, contentSigner.getAlgorithmIdentifier()))
+            this.template = template = new CMSSignedDataTemplate(chain, contentSigner.getAlgorithmIdentifier());
+        return template;
+    }
 
-            CMSSignedData sigData = gen.generate(msg, false);
-            return sigData.getEncoded();
-        } catch (IOException | OperatorCreationException | CMSException e) {
-            throw new GeneralSecurityException(e);
-        }
+    @Override
+    public int estimateSize() throws GeneralSecurityException {
+        return new SignatureContainerSizeEstimator(template(createContentSigner())).estimate();
     }
 
     @Override
@@ -175,35 +175,6 @@ public class UtimacoJceSignatureContainer implements IExternalSignatureContainer
         signDic.put(PdfName.SubFilter, subfilter);
     }
 
-    class CMSTypedDataInputStream implements CMSTypedData {
-        InputStream in;
-
-        public CMSTypedDataInputStream(InputStream is) {
-            in = is;
-        }
-
-        @Override
-        public ASN1ObjectIdentifier getContentType() {
-            return PKCSObjectIdentifiers.data;
-        }
-
-        @Override
-        public Object getContent() {
-            return in;
-        }
-
-        @Override
-        public void write(OutputStream out) throws IOException,
-                CMSException {
-            byte[] buffer = new byte[8 * 1024];
-            int read;
-            while ((read = in.read(buffer)) != -1) {
-                out.write(buffer, 0, read);
-            }
-            in.close();
-        }
-    }
-
     private static RSASSAPSSparams createPSSParams(PSSParameterSpec pssSpec)
     {
         DigestAlgorithmIdentifierFinder digFinder = new DefaultDigestAlgorithmIdentifierFinder();
@@ -0,0 +1,137 @@
+package com.itextpdf.signingexamples.jce.utimaco;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import CryptoServerJCE.CryptoServerProvider;
+
+/**
+ * <p>
+ * This class caches the key handles and certificate chains of the
+ * CryptoServer key store of a provider by alias.
+ * </p>
+ * <p>
+ * The cache is filled once per provider, retrieving all keys and chains
+ * in a single pass, and shared by all {@link UtimacoJceSignature} and
+ * {@link UtimacoJceSignatureContainer} instances using that provider.
+ * Thus, signers for any key can be created without talking to the HSM
+ * again. After keys have been added, removed, or re-imported on the
+ * device, or after the device has been restarted, the cache has to be
+ * refreshed using {@link #refresh(CryptoServerProvider, char[])}.
+ * </p>
+ */
+public class UtimacoKeyCache {
+    static final Map<CryptoServerProvider, UtimacoKeyCache> CACHES = new IdentityHashMap<>();
+
+    /**
+     * Returns the key cache for the given provider, loading its key store
+     * using the given PIN on first request or if the PIN differs from the
+     * one the cache has been loaded with.
+     */
+    public static UtimacoKeyCache forProvider(CryptoServerProvider provider, char[] pin) throws GeneralSecurityException, IOException {
+        synchronized (CACHES) {
+            UtimacoKeyCache cache = CACHES.get(provider);
+            if (cache == null || !Arrays.equals(cache.pin, pin)) {
+                cache = new UtimacoKeyCache(provider, pin);
+                CACHES.put(provider, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Loads the key store of the given provider anew using the given PIN
+     * and replaces the cache for the provider. Signers already created
+     * keep using the key handles of the former cache.
+     */
+    public static UtimacoKeyCache refresh(CryptoServerProvider provider, char[] pin) throws GeneralSecurityException, IOException {
+        UtimacoKeyCache cache = new UtimacoKeyCache(provider, pin);
+        synchronized (CACHES) {
+            CACHES.put(provider, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Drops the key cache for the given provider.
+     */
+    public static void invalidate(CryptoServerProvider provider) {
+        synchronized (CACHES) {
+            CACHES.remove(provider);
+        }
+    }
+
+    final char[] pin;
+    final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    UtimacoKeyCache(CryptoServerProvider provider, char[] pin) throws GeneralSecurityException, IOException {
+        this.pin = pin != null ? pin.clone() : null;
+        KeyStore ks = KeyStore.getInstance("CryptoServer", provider);
+        ks.load(null, pin);
+
+        Enumeration<String> aliases = ks.aliases();
+        while (aliases.hasMoreElements()) {
+            String alias = aliases.nextElement();
+            PrivateKey pk = (PrivateKey) ks.getKey(alias, pin);
+            if (pk == null)
+                continue;
+            Certificate[] chain = ks.getCertificateChain(alias);
+            if (chain == null)
+                continue;
+            entries.put(alias, new Entry(alias, pk, chain));
+        }
+    }
+
+    /** The cached key entries in key store order. */
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * Returns the entry for the given alias, or the first entry if the
+     * alias is <code>null</code>. Returns <code>null</code> if there is
+     * no such entry.
+     */
+    public Entry get(String alias) {
+        if (alias == null)
+            return entries.isEmpty() ? null : entries.values().iterator().next();
+        return entries.get(alias);
+    }
+
+    /**
+     * A cached key entry.
+     */
+    public static class Entry {
+        final String alias;
+        final PrivateKey privateKey;
+        final Certificate[] chain;
+
+        Entry(String alias, PrivateKey privateKey, Certificate[] chain) {
+            this.alias = alias;
+            this.privateKey = privateKey;
+            this.chain = chain;
+        }
+
+        public String getAlias() {
+            return alias;
+        }
+
+        public PrivateKey getPrivateKey() {
+            return privateKey;
+        }
+
+        public Certificate[] getChain() {
+            return chain;
+        }
+    }
+}
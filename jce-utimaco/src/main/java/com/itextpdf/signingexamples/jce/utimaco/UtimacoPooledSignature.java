@@ -0,0 +1,152 @@
+package com.itextpdf.signingexamples.jce.utimaco;
+
+import java.security.GeneralSecurityException;
+import java.security.cert.Certificate;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.PSSParameterSpec;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.itextpdf.bouncycastleconnector.BouncyCastleFactoryCreator;
+import com.itextpdf.commons.bouncycastle.IBouncyCastleFactory;
+import com.itextpdf.commons.bouncycastle.asn1.IASN1ObjectIdentifier;
+import com.itextpdf.kernel.crypto.DigestAlgorithms;
+import com.itextpdf.signatures.IExternalSignature;
+import com.itextpdf.signatures.ISignatureMechanismParams;
+import com.itextpdf.signatures.RSASSAPSSMechanismParams;
+
+/**
+ * <p>
+ * This {@link IExternalSignature} implementation distributes the signing
+ * operations across the connections of a {@link UtimacoProviderPool}.
+ * For each connection it uses a {@link UtimacoJceSignature} for the key
+ * selected on that connection.
+ * </p>
+ * <p>
+ * As iText embeds the certificate chain before the signature is created,
+ * all devices of the pool must hold the same key with the same certificate,
+ * as usual in a CryptoServer cluster.
+ * </p>
+ */
+public class UtimacoPooledSignature implements IExternalSignature {
+    final UtimacoProviderPool pool;
+
+    /** The signer for the key of each connection. */
+    final Map<UtimacoProviderPool.Connection, UtimacoJceSignature> signatures = new ConcurrentHashMap<>();
+
+    /** The certificate chain. */
+    final Certificate[] chain;
+
+    /** The signature algorithm (obtained from the private key) */
+    final String signatureAlgorithmName;
+
+    /** The digest algorithm. */
+    String digestAlgorithmName;
+
+    /** The parameters of the fill, explicitly given signature algorithm. */
+    AlgorithmParameterSpec fullSignatureAlgorithmParamSpec;
+
+    /** Whether to hash on the host and send only the hash to the devices. */
+    boolean hashOnHost = false;
+
+    public UtimacoPooledSignature(UtimacoProviderPool pool) {
+        Certificate[] chain = null;
+        String algorithm = null;
+        for (UtimacoProviderPool.Connection connection : pool.getConnections()) {
+            UtimacoKeyCache.Entry key = connection.key;
+            if (key == null)
+                continue;
+            if (chain == null) {
+                chain = key.chain;
+                algorithm = key.privateKey.getAlgorithm();
+            } else if (!chain[0].equals(key.chain[0])) {
+                throw new IllegalArgumentException("The devices have different signer certificates");
+            }
+        }
+        if (chain == null)
+            throw new IllegalArgumentException("No key selected in the pool");
+
+        this.pool = pool;
+        this.chain = chain;
+        this.signatureAlgorithmName = "EC".equals(algorithm) ? "ECDSA" : algorithm;
+    }
+
+    public UtimacoPooledSignature with(AlgorithmParameterSpec paramSpec) {
+        this.fullSignatureAlgorithmParamSpec = paramSpec;
+        signatures.clear();
+        return this;
+    }
+
+    public Certificate[] getChain() {
+        return chain;
+    }
+
+    @Override
+    public String getDigestAlgorithmName() {
+        return digestAlgorithmName;
+    }
+
+    public UtimacoPooledSignature setDigestAlgorithmName(String digestAlgorithmName) {
+        this.digestAlgorithmName = DigestAlgorithms.getDigest(DigestAlgorithms.getAllowedDigest(digestAlgorithmName));
+        signatures.clear();
+        return this;
+    }
+
+    public boolean isHashOnHost() {
+        return hashOnHost;
+    }
+
+    /**
+     * Sets whether the message to sign shall be hashed on the host,
+     * cf. {@link UtimacoJceSignature#setHashOnHost(boolean)}.
+     */
+    public UtimacoPooledSignature setHashOnHost(boolean hashOnHost) {
+        this.hashOnHost = hashOnHost;
+        signatures.clear();
+        return this;
+    }
+
+    @Override
+    public String getSignatureAlgorithmName() {
+        if ("RSA".equals(signatureAlgorithmName) && (fullSignatureAlgorithmParamSpec instanceof PSSParameterSpec))
+            return "RSASSA-PSS";
+        return signatureAlgorithmName;
+    }
+
+    @Override
+    public ISignatureMechanismParams getSignatureMechanismParameters() {
+        if (fullSignatureAlgorithmParamSpec instanceof PSSParameterSpec) {
+            IBouncyCastleFactory factory = BouncyCastleFactoryCreator.getFactory();
+            PSSParameterSpec pssSpec = (PSSParameterSpec) fullSignatureAlgorithmParamSpec;
+
+            String oid = DigestAlgorithms.getAllowedDigest(digestAlgorithmName);
+            IASN1ObjectIdentifier oidWrapper = factory.createASN1ObjectIdentifier(oid);
+
+            return new RSASSAPSSMechanismParams(oidWrapper, pssSpec.getSaltLength(), pssSpec.getTrailerField());
+        }
+        return null;
+    }
+
+    @Override
+    public byte[] sign(byte[] message) throws GeneralSecurityException {
+        return pool.execute(connection -> signature(connection).sign(message));
+    }
+
+    /**
+     * Returns the signer for the key currently selected on the given
+     * connection, creating a new one if the key has been selected anew.
+     */
+    UtimacoJceSignature signature(UtimacoProviderPool.Connection connection) {
+        UtimacoKeyCache.Entry key = connection.key;
+        UtimacoJceSignature signature = signatures.get(connection);
+        if (signature == null || signature.pk != key.privateKey) {
+            signature = new UtimacoJceSignature(connection.provider)
+                    .select(key.alias, key.privateKey, key.chain)
+                    .setDigestAlgorithmName(digestAlgorithmName)
+                    .with(fullSignatureAlgorithmParamSpec)
+                    .setHashOnHost(hashOnHost);
+            signatures.put(connection, signature);
+        }
+        return signature;
+    }
+}
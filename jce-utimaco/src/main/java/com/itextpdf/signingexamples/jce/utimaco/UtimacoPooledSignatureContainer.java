@@ -0,0 +1,101 @@
+package com.itextpdf.signingexamples.jce.utimaco;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.itextpdf.io.util.StreamUtil;
+import com.itextpdf.kernel.pdf.PdfDictionary;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.signatures.IExternalSignatureContainer;
+import com.itextpdf.signingexamples.common.SizeEstimatingSignatureContainer;
+
+/**
+ * <p>
+ * This {@link IExternalSignatureContainer} implementation distributes the
+ * signing operations across the connections of a {@link UtimacoProviderPool}.
+ * For each connection it uses a {@link UtimacoJceSignatureContainer} for the
+ * key selected on that connection.
+ * </p>
+ * <p>
+ * The data to sign are read into memory first to allow retrying on another
+ * connection if a connection fails.
+ * </p>
+ */
+public class UtimacoPooledSignatureContainer implements SizeEstimatingSignatureContainer {
+    final UtimacoProviderPool pool;
+    final PdfName subfilter;
+
+    /** The signature container for the key of each connection. */
+    final Map<UtimacoProviderPool.Connection, UtimacoJceSignatureContainer> containers = new ConcurrentHashMap<>();
+
+    /** The signature algorithm */
+    String algorithm;
+
+    /** The signature algorithm parameters */
+    AlgorithmParameterSpec paramSpec;
+
+    public UtimacoPooledSignatureContainer(UtimacoProviderPool pool, PdfName subfilter) {
+        this.pool = pool;
+        this.subfilter = subfilter;
+    }
+
+    public UtimacoPooledSignatureContainer with(String algorithm, AlgorithmParameterSpec paramSpec) {
+        this.algorithm = algorithm;
+        this.paramSpec = paramSpec;
+        containers.clear();
+        return this;
+    }
+
+    @Override
+    public byte[] sign(InputStream data) throws GeneralSecurityException {
+        byte[] bytes;
+        try {
+            bytes = StreamUtil.inputStreamToArray(data);
+        } catch (IOException e) {
+            throw new GeneralSecurityException(e);
+        }
+        return pool.execute(connection -> container(connection).sign(new ByteArrayInputStream(bytes)));
+    }
+
+    /**
+     * Returns the maximum of the sizes estimated for the keys selected on
+     * the connections as any of them may be used.
+     */
+    @Override
+    public int estimateSize() throws GeneralSecurityException {
+        int size = 0;
+        for (UtimacoProviderPool.Connection connection : pool.getConnections()) {
+            if (connection.key != null)
+                size = Math.max(size, container(connection).estimateSize());
+        }
+        return size;
+    }
+
+    @Override
+    public void modifySigningDictionary(PdfDictionary signDic) {
+        signDic.put(PdfName.Filter, new PdfName("MKLx_GENERIC_SIGNER"));
+        signDic.put(PdfName.SubFilter, subfilter);
+    }
+
+    /**
+     * Returns the signature container for the key currently selected on
+     * the given connection, creating a new one if the key has been selected
+     * anew.
+     */
+    UtimacoJceSignatureContainer container(UtimacoProviderPool.Connection connection) {
+        UtimacoKeyCache.Entry key = connection.key;
+        UtimacoJceSignatureContainer container = containers.get(connection);
+        if (container == null || container.pk != key.privateKey) {
+            container = new UtimacoJceSignatureContainer(connection.provider, subfilter)
+                    .select(key.alias, key.privateKey, key.chain)
+                    .with(algorithm, paramSpec);
+            containers.put(connection, container);
+        }
+        return container;
+    }
+}
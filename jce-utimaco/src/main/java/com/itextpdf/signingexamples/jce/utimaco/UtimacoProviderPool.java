@@ -0,0 +1,430 @@
+package com.itextpdf.signingexamples.jce.utimaco;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import CryptoServerAPI.CryptoServerException;
+import CryptoServerJCE.CryptoServerProvider;
+
+/**
+ * <p>
+ * This class manages a pool of connections to Utimaco CryptoServer
+ * devices, optionally spread across several devices of a cluster holding
+ * the same key. Each connection is a separate {@link CryptoServerProvider}
+ * instance.
+ * </p>
+ * <p>
+ * Each operation is dispatched to the healthy connection with the fewest
+ * operations in flight, respecting the maximum concurrency per connection.
+ * If an operation fails, the connection is ejected for a cooldown period
+ * and the operation is retried with another connection, preferably on
+ * a different device. A background health check regularly probes idle
+ * connections with a signature of a few bytes, and re-logs in and
+ * re-selects the key on ejected ones, re-admitting them once they work
+ * again.
+ * </p>
+ * <p>
+ * The dispatching, ejection, and cooldown logic mirrors the one of the
+ * <code>Pkcs11LoadBalancer</code> of the PKCS#11 examples; as the example
+ * modules do not depend on each other, it is not shared. In contrast to
+ * that class, this pool prefers devices which have not failed yet for the
+ * current operation and runs health checks.
+ * </p>
+ * <p>
+ * See {@link UtimacoPooledSignature} and {@link UtimacoPooledSignatureContainer}
+ * for the iText signing interfaces based on this class.
+ * </p>
+ */
+public class UtimacoProviderPool implements AutoCloseable {
+    /** The default cooldown period of an ejected connection in milliseconds. */
+    public static final long DEFAULT_COOLDOWN_MILLIS = 30000;
+
+    /** The default period of the health checks in milliseconds. */
+    public static final long DEFAULT_HEALTH_CHECK_MILLIS = 15000;
+
+    final List<Connection> connections = new ArrayList<>();
+    long cooldownMillis = DEFAULT_COOLDOWN_MILLIS;
+    long healthCheckMillis = DEFAULT_HEALTH_CHECK_MILLIS;
+    int maxConcurrency = 1;
+
+    /** The alias of the selected key. */
+    String alias;
+
+    /** The PIN to log in with. */
+    char[] pin;
+
+    ScheduledExecutorService healthCheckExecutor;
+
+    /**
+     * Adds the given number of connections to the given device, e.g.
+     * "3001@10.0.0.1", using the given CryptoServer configuration for
+     * everything but the device.
+     */
+    public UtimacoProviderPool addDevice(String device, String config, int connectionCount) throws IOException, CryptoServerException {
+        String deviceConfig = "Device = " + device + "\n" + removeDevice(config);
+        for (int i = 0; i < connectionCount; i++) {
+            CryptoServerProvider provider = new CryptoServerProvider(new ByteArrayInputStream(deviceConfig.getBytes(StandardCharsets.UTF_8)));
+            addConnection(provider, device);
+        }
+        return this;
+    }
+
+    /**
+     * Adds a connection via the given provider to the given device. The
+     * device name only serves to group connections for failover.
+     */
+    public synchronized UtimacoProviderPool addConnection(CryptoServerProvider provider, String device) {
+        connections.add(new Connection(provider, device));
+        notifyAll();
+        return this;
+    }
+
+    public synchronized List<Connection> getConnections() {
+        return Collections.unmodifiableList(new ArrayList<>(connections));
+    }
+
+    public long getCooldownMillis() {
+        return cooldownMillis;
+    }
+
+    /**
+     * Sets how long a failing connection is ejected before it is tried again.
+     */
+    public UtimacoProviderPool setCooldownMillis(long cooldownMillis) {
+        this.cooldownMillis = cooldownMillis;
+        return this;
+    }
+
+    public long getHealthCheckMillis() {
+        return healthCheckMillis;
+    }
+
+    /**
+     * Sets the period of the health checks; a value of 0 or less disables
+     * them. Takes effect at the next {@link #select(String, char[])}.
+     */
+    public UtimacoProviderPool setHealthCheckMillis(long healthCheckMillis) {
+        this.healthCheckMillis = healthCheckMillis;
+        return this;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Sets how many operations may be in flight on a single connection at
+     * the same time. As a connection handles requests one after the other,
+     * the default is 1.
+     */
+    public UtimacoProviderPool setMaxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        return this;
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * Logs in on all connections and selects the key with the given alias,
+     * or the first key with a certificate chain if the alias is
+     * <code>null</code>. Connections failing to do so are ejected. Starts
+     * the health checks.
+     */
+    public UtimacoProviderPool select(String alias, char[] pin) throws GeneralSecurityException {
+        List<Connection> connections = getConnections();
+        if (connections.isEmpty())
+            throw new GeneralSecurityException("The pool has no connections");
+
+        GeneralSecurityException failure = null;
+        String selectedAlias = alias;
+        boolean selected = false;
+        for (Connection connection : connections) {
+            try {
+                connection.select(selectedAlias, pin, false);
+                if (connection.key == null)
+                    throw new GeneralSecurityException(String.format("No key '%s' on device %s", alias, connection.device));
+                selectedAlias = connection.key.alias;
+                selected = true;
+                setHealthy(connection, true);
+            } catch (GeneralSecurityException | IOException | RuntimeException e) {
+                setHealthy(connection, false);
+                if (failure == null)
+                    failure = new GeneralSecurityException("Key selection failed on all connections", e);
+                else
+                    failure.addSuppressed(e);
+            }
+        }
+        if (!selected)
+            throw failure;
+
+        this.alias = selectedAlias;
+        this.pin = pin;
+        startHealthChecks();
+        return this;
+    }
+
+    /**
+     * Executes the given operation on the least loaded healthy connection,
+     * retrying on other connections as long as the operation fails.
+     */
+    public <T> T execute(Operation<T> operation) throws GeneralSecurityException {
+        Set<Connection> tried = new HashSet<>();
+        Set<String> failedDevices = new HashSet<>();
+        GeneralSecurityException failure = null;
+        Connection connection;
+        while ((connection = acquire(tried, failedDevices)) != null) {
+            tried.add(connection);
+            try {
+                if (connection.key == null)
+                    throw new GeneralSecurityException(String.format("No key selected on device %s", connection.device));
+                T result = operation.execute(connection);
+                release(connection, true);
+                return result;
+            } catch (GeneralSecurityException | RuntimeException e) {
+                release(connection, false);
+                failedDevices.add(connection.device);
+                if (failure == null)
+                    failure = new GeneralSecurityException("Signing failed on all connections", e);
+                else
+                    failure.addSuppressed(e);
+            }
+        }
+        throw failure != null ? failure : new GeneralSecurityException("No CryptoServer connection available");
+    }
+
+    /**
+     * Returns the healthy connection with the fewest operations in flight
+     * not in the given set, preferring devices not in the given set of
+     * failed devices. If only ejected connections remain, the one to be
+     * re-admitted first is returned. Waits if all candidates are busy.
+     * Returns <code>null</code> if there are no candidates.
+     */
+    synchronized Connection acquire(Set<Connection> excluded, Set<String> failedDevices) throws GeneralSecurityException {
+        while (true) {
+            long now = System.currentTimeMillis();
+            Connection best = null;
+            Connection bestEjected = null;
+            boolean busy = false;
+            for (Connection connection : connections) {
+                if (excluded.contains(connection))
+                    continue;
+                if (connection.inFlight >= maxConcurrency) {
+                    busy = true;
+                } else if (connection.ejectedUntil > now) {
+                    if (bestEjected == null || connection.ejectedUntil < bestEjected.ejectedUntil)
+                        bestEjected = connection;
+                } else if (best == null || isBetter(connection, best, failedDevices)) {
+                    best = connection;
+                }
+            }
+
+            if (best == null && !busy)
+                best = bestEjected;
+            if (best != null) {
+                best.inFlight++;
+                return best;
+            }
+            if (!busy)
+                return null;
+
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GeneralSecurityException("Interrupted while waiting for a CryptoServer connection", e);
+            }
+        }
+    }
+
+    static boolean isBetter(Connection connection, Connection best, Set<String> failedDevices) {
+        boolean failed = failedDevices.contains(connection.device);
+        boolean bestFailed = failedDevices.contains(best.device);
+        if (failed != bestFailed)
+            return !failed;
+        return connection.inFlight < best.inFlight;
+    }
+
+    synchronized void release(Connection connection, boolean success) {
+        connection.inFlight--;
+        if (success)
+            connection.successes++;
+        else
+            connection.failures++;
+        setHealthy(connection, success);
+    }
+
+    synchronized void releaseHealthCheck(Connection connection, boolean healthy) {
+        connection.inFlight--;
+        setHealthy(connection, healthy);
+    }
+
+    synchronized void setHealthy(Connection connection, boolean healthy) {
+        connection.ejectedUntil = healthy ? 0 : System.currentTimeMillis() + cooldownMillis;
+        notifyAll();
+    }
+
+    synchronized void startHealthChecks() {
+        if (healthCheckExecutor != null || healthCheckMillis <= 0)
+            return;
+        healthCheckExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "CryptoServer health check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthCheckExecutor.scheduleWithFixedDelay(this::checkHealth, healthCheckMillis, healthCheckMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Probes all idle connections. Healthy ones merely sign a few bytes
+     * with the selected key; on ejected ones the key is selected anew as the
+     * device may have lost the login or key handles, e.g. after a restart.
+     */
+    void checkHealth() {
+        for (Connection connection : getConnections()) {
+            boolean ejected;
+            synchronized (this) {
+                if (connection.inFlight > 0)
+                    continue;
+                ejected = connection.isEjected() || connection.key == null;
+                connection.inFlight++;
+            }
+            try {
+                if (ejected) {
+                    connection.select(alias, pin, true);
+                    if (connection.key == null)
+                        throw new GeneralSecurityException(String.format("No key '%s' on device %s", alias, connection.device));
+                } else {
+                    connection.probe();
+                }
+                releaseHealthCheck(connection, true);
+            } catch (GeneralSecurityException | IOException | RuntimeException e) {
+                releaseHealthCheck(connection, false);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (healthCheckExecutor != null) {
+            healthCheckExecutor.shutdownNow();
+            healthCheckExecutor = null;
+        }
+    }
+
+    static String removeDevice(String config) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        try (   BufferedReader reader = new BufferedReader(new StringReader(config))   ) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().toLowerCase().startsWith("device"))
+                    builder.append(line).append('\n');
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * An operation to execute on a connection.
+     */
+    public interface Operation<T> {
+        T execute(Connection connection) throws GeneralSecurityException;
+    }
+
+    /**
+     * A connection to a CryptoServer device and its state.
+     */
+    public static class Connection {
+        static final byte[] PROBE_DATA = "health check".getBytes(StandardCharsets.US_ASCII);
+
+        final CryptoServerProvider provider;
+        final String device;
+        volatile UtimacoKeyCache.Entry key;
+        int inFlight = 0;
+        long ejectedUntil = 0;
+        long successes = 0;
+        long failures = 0;
+
+        Connection(CryptoServerProvider provider, String device) {
+            this.provider = provider;
+            this.device = device;
+        }
+
+        /**
+         * Selects the key with the given alias, or the first key if the
+         * alias is <code>null</code>, from the {@link UtimacoKeyCache} of the
+         * provider, refreshing the cache first if requested.
+         */
+        void select(String alias, char[] pin, boolean refresh) throws GeneralSecurityException, IOException {
+            UtimacoKeyCache cache = refresh ? UtimacoKeyCache.refresh(provider, pin) : UtimacoKeyCache.forProvider(provider, pin);
+            key = cache.get(alias);
+        }
+
+        /**
+         * Checks that the device is reachable and the selected key still
+         * works by signing a few bytes with it. This costs a single device
+         * round trip, in contrast to loading the key store.
+         */
+        void probe() throws GeneralSecurityException {
+            UtimacoKeyCache.Entry key = this.key;
+            if (key == null)
+                throw new GeneralSecurityException(String.format("No key selected on device %s", device));
+            String keyAlgorithm = key.privateKey.getAlgorithm();
+            Signature signature = Signature.getInstance("EC".equals(keyAlgorithm) ? "SHA256withECDSA" : "SHA256with" + keyAlgorithm, provider);
+            signature.initSign(key.privateKey);
+            signature.update(PROBE_DATA);
+            signature.sign();
+        }
+
+        public CryptoServerProvider getProvider() {
+            return provider;
+        }
+
+        public String getDevice() {
+            return device;
+        }
+
+        public String getAlias() {
+            UtimacoKeyCache.Entry key = this.key;
+            return key != null ? key.alias : null;
+        }
+
+        public PrivateKey getPrivateKey() {
+            UtimacoKeyCache.Entry key = this.key;
+            return key != null ? key.privateKey : null;
+        }
+
+        public Certificate[] getChain() {
+            UtimacoKeyCache.Entry key = this.key;
+            return key != null ? key.chain : null;
+        }
+
+        public long getSuccesses() {
+            return successes;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public boolean isEjected() {
+            return ejectedUntil > System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.itextpdf.signingexamples.jce.utimaco;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.Security;
+import java.security.Signature;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.StampingProperties;
+import com.itextpdf.signatures.BouncyCastleDigest;
+import com.itextpdf.signatures.PdfSigner;
+import com.itextpdf.signatures.PdfSigner.CryptoStandard;
+
+import CryptoServerAPI.CryptoServerException;
+
+/**
+ * This test class compares signing with {@link UtimacoJceSignature} with
+ * and without hashing on the host. As PKCS#1 v1.5 signatures are
+ * deterministic, they must be identical; RSASSA-PSS signatures are
+ * randomized, so both must merely verify.
+ */
+class TestHostHashing {
+    final static File RESULT_FOLDER = new File("target/test-outputs", "signature");
+
+    @BeforeAll
+    public static void setUpBeforeClass() throws Exception {
+        RESULT_FOLDER.mkdirs();
+        BouncyCastleProvider provider = new BouncyCastleProvider();
+        Security.addProvider(provider);
+    }
+
+    final static String CONFIG =
+            "Device = 3001@127.0.0.1\n"
+            + "DefaultUser = JCE\n"
+            + "KeyGroup = JCE";
+
+    final static byte[] MESSAGE = "To-be-signed attributes stand-in for the equivalence test".getBytes();
+
+    @Test
+    void testEquivalenceRsaPkcs1() throws IOException, CryptoServerException, GeneralSecurityException {
+        UtimacoJceSignature signature = new UtimacoJceSignature(new ByteArrayInputStream(CONFIG.getBytes()))
+                .select(null, "5678".toCharArray()).setDigestAlgorithmName("SHA256");
+
+        byte[] onDevice = signature.setHashOnHost(false).sign(MESSAGE);
+        byte[] onHost = signature.setHashOnHost(true).sign(MESSAGE);
+
+        assertArrayEquals(onDevice, onHost, "PKCS#1 v1.5 signatures differ");
+    }
+
+    @Test
+    void testEquivalenceRsaSsaPss() throws IOException, CryptoServerException, GeneralSecurityException {
+        PSSParameterSpec pssSpec = new PSSParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, 32, 1);
+        UtimacoJceSignature signature = new UtimacoJceSignature(new ByteArrayInputStream(CONFIG.getBytes()))
+                .select(null, "5678".toCharArray()).setDigestAlgorithmName("SHA256").with(pssSpec);
+
+        byte[] onDevice = signature.setHashOnHost(false).sign(MESSAGE);
+        byte[] onHost = signature.setHashOnHost(true).sign(MESSAGE);
+
+        Signature verifier = Signature.getInstance("SHA256withRSAandMGF1", "BC");
+        verifier.setParameter(pssSpec);
+        verifier.initVerify(signature.getChain()[0].getPublicKey());
+        verifier.update(MESSAGE);
+        assertTrue(verifier.verify(onDevice), "RSASSA-PSS signature hashed on the device does not verify");
+        verifier.update(MESSAGE);
+        assertTrue(verifier.verify(onHost), "RSASSA-PSS signature hashed on the host does not verify");
+    }
+
+    @Test
+    void testSignSimpleHashOnHost() throws IOException, CryptoServerException, GeneralSecurityException {
+        UtimacoJceSignature signature = new UtimacoJceSignature(new ByteArrayInputStream(CONFIG.getBytes()))
+                .select(null, "5678".toCharArray()).setDigestAlgorithmName("SHA256").setHashOnHost(true);
+
+        try (   InputStream resource = getClass().getResourceAsStream("/circles.pdf");
+                PdfReader pdfReader = new PdfReader(resource);
+                OutputStream result = new FileOutputStream(new File(RESULT_FOLDER, "circles-utimaco-signed-simple-hash-on-host.pdf"))) {
+            PdfSigner pdfSigner = new PdfSigner(pdfReader, result, new StampingProperties().useAppendMode());
+
+            pdfSigner.signDetached(new BouncyCastleDigest(), signature, signature.getChain(), null, null, null, 0, CryptoStandard.CMS);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.itextpdf.signingexamples.jce.utimaco;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+import org.junit.jupiter.api.Test;
+
+import com.itextpdf.kernel.pdf.PdfName;
+
+import CryptoServerAPI.CryptoServerException;
+import CryptoServerJCE.CryptoServerProvider;
+
+/**
+ * This test class illustrates the {@link UtimacoKeyCache}: after the
+ * first selection, signers for any key are created from the cache
+ * without accessing the device; after a refresh, new key handles are
+ * used.
+ */
+class TestKeyCache {
+    final static String CONFIG =
+            "Device = 3001@127.0.0.1\n"
+            + "DefaultUser = JCE\n"
+            + "KeyGroup = JCE";
+
+    @Test
+    void testSelectFromCache() throws IOException, CryptoServerException, GeneralSecurityException {
+        char[] pin = "5678".toCharArray();
+        CryptoServerProvider provider = new CryptoServerProvider(new ByteArrayInputStream(CONFIG.getBytes()));
+
+        long start = System.nanoTime();
+        UtimacoJceSignature first = new UtimacoJceSignature(provider).select(null, pin);
+        System.out.printf("First selection, loading the cache: %.2f ms\n", (System.nanoTime() - start) / 1e6);
+
+        UtimacoKeyCache cache = UtimacoKeyCache.forProvider(provider, pin);
+        start = System.nanoTime();
+        int count = 0;
+        for (UtimacoKeyCache.Entry entry : cache.getEntries()) {
+            UtimacoJceSignature signature = new UtimacoJceSignature(provider).select(entry.getAlias(), pin);
+            UtimacoJceSignatureContainer container = new UtimacoJceSignatureContainer(provider, PdfName.Adbe_pkcs7_detached).select(entry.getAlias(), pin);
+            assertSame(entry.getPrivateKey(), signature.pk);
+            assertSame(entry.getPrivateKey(), container.pk);
+            count++;
+        }
+        System.out.printf("Selection of all %d cached keys: %.2f ms\n", count, (System.nanoTime() - start) / 1e6);
+
+        UtimacoKeyCache.refresh(provider, pin);
+        UtimacoJceSignature refreshed = new UtimacoJceSignature(provider).select(first.getAlias(), pin);
+        assertNotSame(first.pk, refreshed.pk);
+    }
+}
@@ -0,0 +1,115 @@
+package com.itextpdf.signingexamples.jce.utimaco;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.StampingProperties;
+import com.itextpdf.signatures.BouncyCastleDigest;
+import com.itextpdf.signatures.PdfSigner;
+import com.itextpdf.signatures.PdfSigner.CryptoStandard;
+
+import CryptoServerAPI.CryptoServerException;
+
+/**
+ * This test class signs PDF files in parallel using {@link UtimacoPooledSignature}
+ * and {@link UtimacoPooledSignatureContainer} with a {@link UtimacoProviderPool}.
+ * For lack of a real cluster, both "devices" of the pool are the same
+ * simulator addressed differently.
+ */
+class TestPooledSigning {
+    final static File RESULT_FOLDER = new File("target/test-outputs", "signature");
+    final static int THREADS = 8;
+    final static int DOCUMENTS_PER_THREAD = 5;
+
+    @BeforeAll
+    public static void setUpBeforeClass() throws Exception {
+        RESULT_FOLDER.mkdirs();
+        BouncyCastleProvider provider = new BouncyCastleProvider();
+        Security.addProvider(provider);
+    }
+
+    final static String CONFIG =
+            "DefaultUser = JCE\n"
+            + "KeyGroup = JCE";
+
+    @Test
+    void testSignPooledUtimacoSignature() throws Exception {
+        try (   UtimacoProviderPool pool = createPool()   ) {
+            UtimacoPooledSignature signature = new UtimacoPooledSignature(pool).setDigestAlgorithmName("SHA256");
+
+            signParallel("circles-utimaco-signed-pooled-%d-%d.pdf", (pdfSigner) ->
+                pdfSigner.signDetached(new BouncyCastleDigest(), signature, signature.getChain(), null, null, null, 0, CryptoStandard.CMS));
+
+            printStatistics(pool);
+        }
+    }
+
+    @Test
+    void testSignPooledUtimacoSignatureContainer() throws Exception {
+        try (   UtimacoProviderPool pool = createPool()   ) {
+            UtimacoPooledSignatureContainer signature = new UtimacoPooledSignatureContainer(pool, PdfName.Adbe_pkcs7_detached)
+                    .with("SHA256withRSA", null);
+
+            signParallel("circles-utimaco-signed-pooled-container-%d-%d.pdf", (pdfSigner) ->
+                pdfSigner.signExternalContainer(signature, signature.estimateSize()));
+
+            printStatistics(pool);
+        }
+    }
+
+    UtimacoProviderPool createPool() throws IOException, CryptoServerException, GeneralSecurityException {
+        return new UtimacoProviderPool()
+                .addDevice("3001@127.0.0.1", CONFIG, 2)
+                .addDevice("3001@localhost", CONFIG, 2)
+                .select(null, "5678".toCharArray());
+    }
+
+    void signParallel(String resultNamePattern, SigningAction action) throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                int thread = i;
+                futures.add(executorService.submit(() -> {
+                    for (int j = 0; j < DOCUMENTS_PER_THREAD; j++) {
+                        try (   InputStream resource = getClass().getResourceAsStream("/circles.pdf");
+                                PdfReader pdfReader = new PdfReader(resource);
+                                OutputStream result = new FileOutputStream(new File(RESULT_FOLDER, String.format(resultNamePattern, thread, j)))) {
+                            action.sign(new PdfSigner(pdfReader, result, new StampingProperties().useAppendMode()));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    void printStatistics(UtimacoProviderPool pool) {
+        for (UtimacoProviderPool.Connection connection : pool.getConnections())
+            System.out.printf("Connection to %s: %d successes, %d failures\n", connection.getDevice(), connection.getSuccesses(), connection.getFailures());
+    }
+
+    interface SigningAction {
+        void sign(PdfSigner pdfSigner) throws IOException, GeneralSecurityException;
+    }
+}
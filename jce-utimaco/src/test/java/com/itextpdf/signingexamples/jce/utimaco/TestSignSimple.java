@@ -208,7 +208,7 @@ class TestSignSimple {
                 OutputStream result = new FileOutputStream(new File(RESULT_FOLDER, "circles-utimaco-signed-simple-container-specific-pkcs1.pdf"))) {
             PdfSigner pdfSigner = new PdfSigner(pdfReader, result, new StampingProperties().useAppendMode());
 
-            pdfSigner.signExternalContainer(signature, 8192);
+            pdfSigner.signExternalContainer(signature, signature.estimateSize());
         }
     }
 
@@ -231,7 +231,7 @@ class TestSignSimple {
                 OutputStream result = new FileOutputStream(new File(RESULT_FOLDER, "circles-utimaco-signed-simple-container-specific-pss.pdf"))) {
             PdfSigner pdfSigner = new PdfSigner(pdfReader, result, new StampingProperties().useAppendMode());
 
-            pdfSigner.signExternalContainer(signature, 8192);
+            pdfSigner.signExternalContainer(signature, signature.estimateSize());
         }
     }
 }
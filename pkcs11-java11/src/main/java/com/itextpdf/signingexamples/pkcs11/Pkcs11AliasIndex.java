@@ -0,0 +1,263 @@
+package com.itextpdf.signingexamples.pkcs11;
+
+import java.io.IOException;
+import java.security.AuthProvider;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.security.auth.login.LoginException;
+
+/**
+ * <p>
+ * This class indexes the key entries of the PKCS11 key store of a
+ * provider by alias, recording the key algorithm and the SHA-256
+ * fingerprint of the certificate of each entry.
+ * </p>
+ * <p>
+ * The index is created once per provider and PIN and shared by all
+ * {@link Pkcs11Signature} and {@link Pkcs11SignatureContainer}
+ * instances using that provider with that PIN; a request with a different
+ * PIN logs out and loads the key store anew, so the PIN is actually checked
+ * by the token instead of being ignored due to the existing login. If the
+ * token rejects that PIN, the previous login is restored. Private key and
+ * certificate chain are only retrieved for the alias actually selected,
+ * and only once. Thus, selecting a key among many on a network HSM does
+ * not cost a token round trip per alias anymore.
+ * </p>
+ * <p>
+ * As the index also represents the login to the token, signers can use
+ * {@link #relogin(Provider, Pkcs11AliasIndex)} to log in anew with the
+ * PIN used for the index after an operation failed as indicated by
+ * {@link #isLoginLost(Throwable)}, e.g. due to card removal or HSM failover.
+ * </p>
+ */
+public class Pkcs11AliasIndex {
+    static final Map<Provider, Pkcs11AliasIndex> INDEXES = new IdentityHashMap<>();
+
+    /**
+     * Returns the alias index for the given provider, loading its key
+     * store using the given PIN on first request or if the PIN differs
+     * from the one the index has been loaded with.
+     */
+    public static Pkcs11AliasIndex forProvider(Provider provider, char[] pin) throws GeneralSecurityException, IOException {
+        synchronized (INDEXES) {
+            Pkcs11AliasIndex index = INDEXES.get(provider);
+            if (index == null) {
+                index = new Pkcs11AliasIndex(provider, pin);
+                INDEXES.put(provider, index);
+            } else if (!Arrays.equals(index.pin, pin)) {
+                index = reload(provider, pin);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Drops the alias index for the given provider, e.g. after keys have
+     * been added or removed on the token.
+     */
+    public static void invalidate(Provider provider) {
+        synchronized (INDEXES) {
+            INDEXES.remove(provider);
+        }
+    }
+
+    /**
+     * Replaces the given stale alias index of the provider by a new one,
+     * logging out and logging in anew with the PIN of the stale index. If
+     * some other signer has already replaced the stale index, the current
+     * index is returned instead.
+     */
+    public static Pkcs11AliasIndex relogin(Provider provider, Pkcs11AliasIndex stale) throws GeneralSecurityException, IOException {
+        synchronized (INDEXES) {
+            Pkcs11AliasIndex index = INDEXES.get(provider);
+            if (index != null && index != stale)
+                return index;
+            return reload(provider, stale.pin);
+        }
+    }
+
+    /**
+     * Logs out and creates a new index logging in with the given PIN; only
+     * if that succeeds, the new index replaces the current one. Otherwise
+     * the token is logged in again with the PIN of the current index, so a
+     * wrong PIN does not leave the signers sharing the provider logged out.
+     * As the provider cannot check a PIN while being logged in, the logout
+     * cannot be avoided; signers failing in the meantime recover using
+     * {@link #relogin(Provider, Pkcs11AliasIndex)}.
+     */
+    static Pkcs11AliasIndex reload(Provider provider, char[] pin) throws GeneralSecurityException, IOException {
+        logout(provider);
+        Pkcs11AliasIndex index;
+        try {
+            index = new Pkcs11AliasIndex(provider, pin);
+        } catch (GeneralSecurityException | IOException e) {
+            Pkcs11AliasIndex current = INDEXES.get(provider);
+            if (current != null && !Arrays.equals(current.pin, pin)) {
+                try {
+                    logout(provider);
+                    KeyStore.getInstance("PKCS11", provider).load(null, current.pin);
+                } catch (GeneralSecurityException | IOException e2) {
+                    e.addSuppressed(e2);
+                }
+            }
+            throw e;
+        }
+        INDEXES.put(provider, index);
+        return index;
+    }
+
+    static void logout(Provider provider) {
+        if (provider instanceof AuthProvider) {
+            try {
+                ((AuthProvider) provider).logout();
+            } catch (LoginException e) {
+                // the login may be lost already
+            }
+        }
+    }
+
+    /**
+     * Checks whether the given exception indicates that the session or the
+     * login has been lost and, therefore, the operation may succeed after a
+     * {@link #relogin(Provider, Pkcs11AliasIndex)}. As the SunPKCS11 provider
+     * does not expose the PKCS#11 error codes, the messages are inspected.
+     */
+    public static boolean isLoginLost(Throwable e) {
+        for (; e != null; e = e.getCause()) {
+            String message = e.getMessage();
+            if (message == null)
+                continue;
+            for (String code : LOGIN_LOST_ERROR_CODES) {
+                if (message.contains(code))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    static final List<String> LOGIN_LOST_ERROR_CODES = Arrays.asList("CKR_USER_NOT_LOGGED_IN",
+            "CKR_SESSION_HANDLE_INVALID", "CKR_SESSION_CLOSED", "CKR_KEY_HANDLE_INVALID",
+            "CKR_OBJECT_HANDLE_INVALID", "CKR_TOKEN_NOT_PRESENT", "CKR_DEVICE_REMOVED");
+
+    final KeyStore keyStore;
+    final char[] pin;
+    final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    Pkcs11AliasIndex(Provider provider, char[] pin) throws GeneralSecurityException, IOException {
+        this.pin = pin != null ? pin.clone() : null;
+        keyStore = KeyStore.getInstance("PKCS11", provider);
+        keyStore.load(null, pin);
+
+        Enumeration<String> aliases = keyStore.aliases();
+        while (aliases.hasMoreElements()) {
+            String alias = aliases.nextElement();
+            if (!keyStore.isKeyEntry(alias))
+                continue;
+            Certificate certificate = keyStore.getCertificate(alias);
+            if (certificate == null)
+                continue;
+            entries.put(alias, new Entry(alias, certificate));
+        }
+    }
+
+    /** The indexed key entries in key store order. */
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * Returns the entry for the given alias, or the first entry if the
+     * alias is <code>null</code>, with its private key and certificate
+     * chain resolved. Returns <code>null</code> if there is no such entry
+     * with both a private key and a certificate chain. The PIN must be the
+     * one the index has been loaded with, cf. {@link #forProvider(Provider, char[])}.
+     */
+    public Entry select(String alias, char[] pin) throws GeneralSecurityException {
+        if (!Arrays.equals(this.pin, pin))
+            throw new UnrecoverableKeyException("PIN differs from the one the alias index has been loaded with");
+        List<Entry> candidates = new ArrayList<>();
+        if (alias == null) {
+            candidates.addAll(entries.values());
+        } else if (entries.containsKey(alias)) {
+            candidates.add(entries.get(alias));
+        }
+
+        for (Entry entry : candidates) {
+            if (resolve(entry, pin))
+                return entry;
+        }
+        return null;
+    }
+
+    boolean resolve(Entry entry, char[] pin) throws GeneralSecurityException {
+        synchronized (keyStore) {
+            if (!entry.resolved) {
+                entry.privateKey = (PrivateKey) keyStore.getKey(entry.alias, pin);
+                if (entry.privateKey != null)
+                    entry.chain = keyStore.getCertificateChain(entry.alias);
+                entry.resolved = true;
+            }
+        }
+        return entry.privateKey != null && entry.chain != null;
+    }
+
+    /**
+     * A key entry of the index.
+     */
+    public static class Entry {
+        final String alias;
+        final String keyAlgorithm;
+        final String fingerprint;
+        volatile boolean resolved = false;
+        PrivateKey privateKey;
+        Certificate[] chain;
+
+        Entry(String alias, Certificate certificate) throws GeneralSecurityException {
+            this.alias = alias;
+            this.keyAlgorithm = certificate.getPublicKey().getAlgorithm();
+            StringBuilder builder = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded()))
+                builder.append(String.format("%02x", b));
+            this.fingerprint = builder.toString();
+        }
+
+        public String getAlias() {
+            return alias;
+        }
+
+        /** The key algorithm according to the certificate, e.g. "RSA" or "EC". */
+        public String getKeyAlgorithm() {
+            return keyAlgorithm;
+        }
+
+        /** The hex encoded SHA-256 fingerprint of the certificate. */
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        /** The private key, <code>null</code> until selected. */
+        public PrivateKey getPrivateKey() {
+            return privateKey;
+        }
+
+        /** The certificate chain, <code>null</code> until selected. */
+        public Certificate[] getChain() {
+            return chain;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.itextpdf.signingexamples.pkcs11;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.GeneralSecurityException;
+import java.security.ProviderException;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.itextpdf.signatures.IExternalSignature;
+
+import iaik.pkcs.pkcs11.TokenException;
+
+/**
+ * <p>
+ * This class distributes signing operations across several signing
+ * backends, e.g. {@link Pkcs11Signature} or {@link Pkcs11WrapperSignature}
+ * instances each bound to a different slot, library, or HSM, holding
+ * equivalent keys.
+ * </p>
+ * <p>
+ * Each operation is dispatched to the healthy backend with the fewest
+ * operations in flight, respecting the maximum concurrency of each backend.
+ * If an operation fails due to a device or session error, cf.
+ * {@link #isBackendFailure(Throwable)}, the backend is ejected for a
+ * cooldown period and the operation is retried with another backend. After
+ * the cooldown the backend is re-admitted; if it fails again, it is ejected
+ * again. Other failures, e.g. due to an unsupported algorithm or invalid
+ * parameters, would occur on every backend and are thrown right away
+ * without ejecting the backend.
+ * </p>
+ * <p>
+ * See {@link Pkcs11LoadBalancingSignature} and {@link Pkcs11LoadBalancingSignatureContainer}
+ * for the iText signing interfaces based on this class.
+ * </p>
+ */
+public class Pkcs11LoadBalancer {
+    /** The default cooldown period of an ejected backend in milliseconds. */
+    public static final long DEFAULT_COOLDOWN_MILLIS = 30000;
+
+    final List<Backend> backends = new ArrayList<>();
+    long cooldownMillis = DEFAULT_COOLDOWN_MILLIS;
+
+    /**
+     * Adds a backend using the key of a {@link Pkcs11Signature}. Such a
+     * signature can be used concurrently.
+     */
+    public Pkcs11LoadBalancer addBackend(Pkcs11Signature signature) {
+        return addBackend(signature, signature.getChain(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Adds a backend using the key of a {@link Pkcs11WrapperSignature}. As
+     * such a signature uses a single session, it is used by one thread at
+     * a time only.
+     */
+    public Pkcs11LoadBalancer addBackend(Pkcs11WrapperSignature signature) {
+        return addBackend(signature, signature.getChain(), 1);
+    }
+
+    /**
+     * Adds a backend signing with the given {@link IExternalSignature}
+     * whose key is certified by the given certificate chain, to be used
+     * by at most the given number of threads at the same time.
+     */
+    public synchronized Pkcs11LoadBalancer addBackend(IExternalSignature signature, Certificate[] chain, int maxConcurrency) {
+        if (chain == null || chain.length == 0)
+            throw new IllegalArgumentException("A backend requires a certificate chain");
+        backends.add(new Backend(signature, chain, Math.max(1, maxConcurrency)));
+        notifyAll();
+        return this;
+    }
+
+    public synchronized List<Backend> getBackends() {
+        return Collections.unmodifiableList(new ArrayList<>(backends));
+    }
+
+    public long getCooldownMillis() {
+        return cooldownMillis;
+    }
+
+    /**
+     * Sets how long a failing backend is ejected before it is tried again.
+     */
+    public Pkcs11LoadBalancer setCooldownMillis(long cooldownMillis) {
+        this.cooldownMillis = cooldownMillis;
+        return this;
+    }
+
+    /**
+     * Executes the given operation on the least loaded healthy backend,
+     * retrying on other backends as long as the operation fails due to a
+     * device or session error.
+     */
+    public <T> T execute(Operation<T> operation) throws GeneralSecurityException {
+        Set<Backend> tried = new HashSet<>();
+        GeneralSecurityException failure = null;
+        Backend backend;
+        while ((backend = acquire(tried)) != null) {
+            tried.add(backend);
+            try {
+                T result = operation.execute(backend);
+                release(backend, true);
+                return result;
+            } catch (GeneralSecurityException | RuntimeException e) {
+                if (!isBackendFailure(e)) {
+                    release(backend, null);
+                    if (failure != null)
+                        e.addSuppressed(failure);
+                    throw e;
+                }
+                release(backend, false);
+                if (failure == null)
+                    failure = new GeneralSecurityException("Signing failed on all backends", e);
+                else
+                    failure.addSuppressed(e);
+            }
+        }
+        throw failure != null ? failure : new GeneralSecurityException("No signing backend available");
+    }
+
+    /**
+     * Checks whether the given exception or one of its causes indicates a
+     * device or session error, i.e. a {@link ProviderException} as thrown by
+     * the SunPKCS11 provider, a PKCS#11 wrapper {@link TokenException} or
+     * PKCS11Exception, or an I/O error, in contrast to a caller error.
+     */
+    public static boolean isBackendFailure(Throwable e) {
+        for (; e != null; e = e.getCause()) {
+            if (e instanceof ProviderException || e instanceof TokenException
+                    || e instanceof IOException || e instanceof UncheckedIOException
+                    || "PKCS11Exception".equals(e.getClass().getSimpleName()))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the healthy backend with the fewest operations in flight
+     * not in the given set. If only ejected backends remain, the one to be
+     * re-admitted first is returned. Waits if all candidates are busy.
+     * Returns <code>null</code> if there are no candidates.
+     */
+    synchronized Backend acquire(Set<Backend> excluded) throws GeneralSecurityException {
+        while (true) {
+            long now = System.currentTimeMillis();
+            Backend best = null;
+            Backend bestEjected = null;
+            boolean busy = false;
+            for (Backend backend : backends) {
+                if (excluded.contains(backend))
+                    continue;
+                if (backend.inFlight >= backend.maxConcurrency) {
+                    busy = true;
+                } else if (backend.ejectedUntil > now) {
+                    if (bestEjected == null || backend.ejectedUntil < bestEjected.ejectedUntil)
+                        bestEjected = backend;
+                } else if (best == null || backend.inFlight < best.inFlight) {
+                    best = backend;
+                }
+            }
+
+            if (best == null && !busy)
+                best = bestEjected;
+            if (best != null) {
+                best.inFlight++;
+                return best;
+            }
+            if (!busy)
+                return null;
+
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GeneralSecurityException("Interrupted while waiting for a signing backend", e);
+            }
+        }
+    }
+
+    /**
+     * Releases the given backend, marking it healthy on success, ejecting
+     * it on failure, and leaving its state as is if <code>null</code>.
+     */
+    synchronized void release(Backend backend, Boolean success) {
+        backend.inFlight--;
+        if (Boolean.TRUE.equals(success)) {
+            backend.ejectedUntil = 0;
+            backend.successes++;
+        } else if (Boolean.FALSE.equals(success)) {
+            backend.ejectedUntil = System.currentTimeMillis() + cooldownMillis;
+            backend.failures++;
+        }
+        notifyAll();
+    }
+
+    /**
+     * An operation to execute on a backend.
+     */
+    public interface Operation<T> {
+        T execute(Backend backend) throws GeneralSecurityException;
+    }
+
+    /**
+     * A signing backend and its state.
+     */
+    public static class Backend {
+        final IExternalSignature signature;
+        final Certificate[] chain;
+        final int maxConcurrency;
+        int inFlight = 0;
+        long ejectedUntil = 0;
+        long successes = 0;
+        long failures = 0;
+
+        Backend(IExternalSignature signature, Certificate[] chain, int maxConcurrency) {
+            this.signature = signature;
+            this.chain = chain;
+            this.maxConcurrency = maxConcurrency;
+        }
+
+        public IExternalSignature getSignature() {
+            return signature;
+        }
+
+        public Certificate[] getChain() {
+            return chain;
+        }
+
+        public long getSuccesses() {
+            return successes;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public boolean isEjected() {
+            return ejectedUntil > System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.itextpdf.signingexamples.pkcs11;
+
+import java.security.GeneralSecurityException;
+import java.security.cert.Certificate;
+import java.util.List;
+
+import com.itextpdf.signatures.IExternalSignature;
+import com.itextpdf.signatures.ISignatureMechanismParams;
+
+/**
+ * <p>
+ * This {@link IExternalSignature} implementation distributes the signing
+ * operations across the backends of a {@link Pkcs11LoadBalancer}.
+ * </p>
+ * <p>
+ * As iText embeds the certificate chain before the signature is created,
+ * all backends must hold the same key, e.g. as copies on several HSMs,
+ * and be certified by the same signer certificate. For backends holding
+ * different keys with different certificates use
+ * {@link Pkcs11LoadBalancingSignatureContainer}.
+ * </p>
+ */
+public class Pkcs11LoadBalancingSignature implements IExternalSignature {
+    final Pkcs11LoadBalancer loadBalancer;
+    final IExternalSignature prototype;
+    final Certificate[] chain;
+
+    public Pkcs11LoadBalancingSignature(Pkcs11LoadBalancer loadBalancer) {
+        List<Pkcs11LoadBalancer.Backend> backends = loadBalancer.getBackends();
+        if (backends.isEmpty())
+            throw new IllegalArgumentException("The load balancer has no backends");
+        Pkcs11LoadBalancer.Backend first = backends.get(0);
+        for (Pkcs11LoadBalancer.Backend backend : backends) {
+            if (!first.getChain()[0].equals(backend.getChain()[0]))
+                throw new IllegalArgumentException("The backends have different signer certificates");
+        }
+
+        this.loadBalancer = loadBalancer;
+        this.prototype = first.getSignature();
+        this.chain = first.getChain();
+    }
+
+    public Certificate[] getChain() {
+        return chain;
+    }
+
+    @Override
+    public String getDigestAlgorithmName() {
+        return prototype.getDigestAlgorithmName();
+    }
+
+    @Override
+    public String getSignatureAlgorithmName() {
+        return prototype.getSignatureAlgorithmName();
+    }
+
+    @Override
+    public ISignatureMechanismParams getSignatureMechanismParameters() {
+        return prototype.getSignatureMechanismParameters();
+    }
+
+    @Override
+    public byte[] sign(byte[] message) throws GeneralSecurityException {
+        return loadBalancer.execute(backend -> backend.getSignature().sign(message));
+    }
+}
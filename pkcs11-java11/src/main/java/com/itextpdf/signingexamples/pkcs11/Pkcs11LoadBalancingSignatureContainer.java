@@ -0,0 +1,129 @@
+package com.itextpdf.signingexamples.pkcs11;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.DefaultSignatureAlgorithmIdentifierFinder;
+import org.bouncycastle.operator.RuntimeOperatorException;
+
+import com.itextpdf.io.source.ByteArrayOutputStream;
+import com.itextpdf.io.util.StreamUtil;
+import com.itextpdf.kernel.pdf.PdfDictionary;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.signatures.IExternalSignature;
+import com.itextpdf.signatures.IExternalSignatureContainer;
+import com.itextpdf.signingexamples.common.CMSSignedDataTemplate;
+import com.itextpdf.signingexamples.common.SignatureContainerSizeEstimator;
+import com.itextpdf.signingexamples.common.SizeEstimatingSignatureContainer;
+
+/**
+ * <p>
+ * This {@link IExternalSignatureContainer} implementation distributes the
+ * signing operations across the backends of a {@link Pkcs11LoadBalancer}.
+ * </p>
+ * <p>
+ * In contrast to {@link Pkcs11LoadBalancingSignature} the backends may
+ * hold different keys certified by different certificates as the
+ * signature container is built for the backend actually used, embedding
+ * the certificate chain of that backend. If a backend fails, the container
+ * is built anew with another backend.
+ * </p>
+ */
+public class Pkcs11LoadBalancingSignatureContainer implements SizeEstimatingSignatureContainer {
+    final Pkcs11LoadBalancer loadBalancer;
+    final PdfName subfilter;
+    /** The CMS templates for the certificate chains and algorithms of the backends */
+    final Map<Pkcs11LoadBalancer.Backend, CMSSignedDataTemplate> templates = new ConcurrentHashMap<>();
+
+    public Pkcs11LoadBalancingSignatureContainer(Pkcs11LoadBalancer loadBalancer, PdfName subfilter) {
+        this.loadBalancer = loadBalancer;
+        this.subfilter = subfilter;
+    }
+
+    @Override
+    public byte[] sign(InputStream data) throws GeneralSecurityException {
+        byte[] bytes;
+        try {
+            bytes = StreamUtil.inputStreamToArray(data);
+        } catch (IOException e) {
+            throw new GeneralSecurityException(e);
+        }
+        return loadBalancer.execute(backend -> sign(backend, bytes));
+    }
+
+    byte[] sign(Pkcs11LoadBalancer.Backend backend, byte[] data) throws GeneralSecurityException {
+        ContentSigner contentSigner = buildContentSigner(backend.getSignature());
+        return template(backend, contentSigner).sign(new CMSProcessableByteArray(data), contentSigner);
+    }
+
+    /**
+     * Returns the maximum of the sizes estimated for the backends as any
+     * of them may be used.
+     */
+    @Override
+    public int estimateSize() throws GeneralSecurityException {
+        int size = 0;
+        for (Pkcs11LoadBalancer.Backend backend : loadBalancer.getBackends()) {
+            CMSSignedDataTemplate template = template(backend, buildContentSigner(backend.getSignature()));
+            size = Math.max(size, new SignatureContainerSizeEstimator(template).estimate());
+        }
+        return size;
+    }
+
+    /**
+     * Returns the CMS template for the certificate chain of the given
+     * backend and the algorithm of the given content signer.
+     */
+    CMSSignedDataTemplate template(Pkcs11LoadBalancer.Backend backend, ContentSigner contentSigner) throws GeneralSecurityException {
+        CMSSignedDataTemplate template = templates.get(backend);
+        if (template == null || !template.matches(backend.getChain(), contentSigner.getAlgorithmIdentifier())) {
+            template = new CMSSignedDataTemplate(backend.getChain(), contentSigner.getAlgorithmIdentifier());
+            templates.put(backend, template);
+        }
+        return template;
+    }
+
+    static ContentSigner buildContentSigner(IExternalSignature signature) {
+        String signatureAlgorithmName = signature.getSignatureAlgorithmName();
+        if ("RSASSA-PSS".equals(signatureAlgorithmName))
+            signatureAlgorithmName = "RSAandMGF1";
+        AlgorithmIdentifier algorithmIdentifier = new DefaultSignatureAlgorithmIdentifierFinder().find(
+                signature.getDigestAlgorithmName() + "with" + signatureAlgorithmName);
+
+        return new ContentSigner() {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+            @Override
+            public byte[] getSignature() {
+                try {
+                    return signature.sign(outputStream.toByteArray());
+                } catch (GeneralSecurityException e) {
+                    throw new RuntimeOperatorException(e.getMessage(), e);
+                }
+            }
+
+            @Override
+            public OutputStream getOutputStream() {
+                return outputStream;
+            }
+
+            @Override
+            public AlgorithmIdentifier getAlgorithmIdentifier() {
+                return algorithmIdentifier;
+            }
+        };
+    }
+
+    @Override
+    public void modifySigningDictionary(PdfDictionary signDic) {
+        signDic.put(PdfName.Filter, new PdfName("MKLx_GENERIC_SIGNER"));
+        signDic.put(PdfName.SubFilter, subfilter);
+    }
+}
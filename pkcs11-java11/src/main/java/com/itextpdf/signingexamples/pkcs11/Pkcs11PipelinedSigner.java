@@ -0,0 +1,194 @@
+package com.itextpdf.signingexamples.pkcs11;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.cert.Certificate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.StampingProperties;
+import com.itextpdf.signatures.BouncyCastleDigest;
+import com.itextpdf.signatures.IExternalSignature;
+import com.itextpdf.signatures.IOcspClient;
+import com.itextpdf.signatures.ISignatureMechanismParams;
+import com.itextpdf.signatures.ITSAClient;
+import com.itextpdf.signatures.PdfSigner;
+import com.itextpdf.signatures.PdfSigner.CryptoStandard;
+
+/**
+ * <p>
+ * This class signs batches of PDFs with a single, serial signing device,
+ * e.g. a smartcard accessed via a {@link Pkcs11WrapperSignature} or a
+ * {@link Pkcs11Signature}, keeping the device as busy as possible.
+ * </p>
+ * <p>
+ * Documents are read, prepared, and hashed on worker threads. The
+ * to-be-signed data are queued for a single device thread which signs
+ * them one after the other. Then the worker threads embed the signatures
+ * and write the outputs. Thus, while the device signs one document, the
+ * workers already prepare the next ones and finish the previous ones.
+ * With enough workers, device utilization approaches 100% in batch runs,
+ * cf. {@link #getDeviceUtilization()}.
+ * </p>
+ */
+public class Pkcs11PipelinedSigner implements AutoCloseable {
+    /** The default number of worker threads. */
+    public static final int DEFAULT_WORKER_THREADS = 3;
+    /** The suffix of the temporary files written next to the targets. */
+    public static final String PART_SUFFIX = ".part";
+
+    final IExternalSignature signature;
+    final Certificate[] chain;
+    final ExecutorService workerExecutor;
+    final ExecutorService deviceExecutor;
+    final IExternalSignature deviceSignature;
+
+    IOcspClient ocspClient = null;
+    ITSAClient tsaClient = null;
+
+    final AtomicLong deviceBusyNanos = new AtomicLong();
+    final AtomicLong firstSubmitNanos = new AtomicLong();
+    final AtomicLong lastDeviceDoneNanos = new AtomicLong();
+
+    public Pkcs11PipelinedSigner(IExternalSignature signature, Certificate[] chain) {
+        this(signature, chain, DEFAULT_WORKER_THREADS);
+    }
+
+    public Pkcs11PipelinedSigner(IExternalSignature signature, Certificate[] chain, int workerThreads) {
+        this.signature = signature;
+        this.chain = chain;
+        this.workerExecutor = Executors.newFixedThreadPool(workerThreads);
+        this.deviceExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Signing device");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.deviceSignature = new DeviceSignature();
+    }
+
+    public Pkcs11PipelinedSigner setOcspClient(IOcspClient ocspClient) {
+        this.ocspClient = ocspClient;
+        return this;
+    }
+
+    public Pkcs11PipelinedSigner setTsaClient(ITSAClient tsaClient) {
+        this.tsaClient = tsaClient;
+        return this;
+    }
+
+    /**
+     * Schedules signing the given source PDF into the given target file.
+     * The signed PDF is written to a temporary file next to the target
+     * which is moved into place only after signing succeeded, so a failure
+     * does not leave a partial target.
+     */
+    public CompletableFuture<File> submit(File source, File target) {
+        firstSubmitNanos.compareAndSet(0, System.nanoTime());
+        return CompletableFuture.supplyAsync(() -> {
+            Path part = target.toPath().resolveSibling(target.getName() + PART_SUFFIX);
+            try {
+                try (   PdfReader pdfReader = new PdfReader(source);
+                        OutputStream result = Files.newOutputStream(part)  ) {
+                    PdfSigner pdfSigner = new PdfSigner(pdfReader, result, new StampingProperties().useAppendMode());
+                    pdfSigner.signDetached(new BouncyCastleDigest(), deviceSignature, chain, null, ocspClient, tsaClient, 0, CryptoStandard.CMS);
+                }
+                move(part, target.toPath());
+                return target;
+            } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                try {
+                    Files.deleteIfExists(part);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw new IllegalStateException(String.format("Failure signing %s", source), e);
+            }
+        }, workerExecutor);
+    }
+
+    static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * The time the signing device has been busy signing so far.
+     */
+    public long getDeviceBusyNanos() {
+        return deviceBusyNanos.get();
+    }
+
+    /**
+     * The share of time the signing device has been busy signing between
+     * the first submission and the last signature so far.
+     */
+    public double getDeviceUtilization() {
+        long first = firstSubmitNanos.get();
+        long last = lastDeviceDoneNanos.get();
+        return first == 0 || last <= first ? 0 : (double) deviceBusyNanos.get() / (last - first);
+    }
+
+    @Override
+    public void close() {
+        workerExecutor.shutdown();
+        deviceExecutor.shutdown();
+    }
+
+    /**
+     * This {@link IExternalSignature} forwards the signing requests of
+     * the worker threads to the single device thread.
+     */
+    class DeviceSignature implements IExternalSignature {
+        @Override
+        public String getDigestAlgorithmName() {
+            return signature.getDigestAlgorithmName();
+        }
+
+        @Override
+        public String getSignatureAlgorithmName() {
+            return signature.getSignatureAlgorithmName();
+        }
+
+        @Override
+        public ISignatureMechanismParams getSignatureMechanismParameters() {
+            return signature.getSignatureMechanismParameters();
+        }
+
+        @Override
+        public byte[] sign(byte[] message) throws GeneralSecurityException {
+            Future<byte[]> future = deviceExecutor.submit(() -> {
+                long start = System.nanoTime();
+                try {
+                    return signature.sign(message);
+                } finally {
+                    long end = System.nanoTime();
+                    deviceBusyNanos.addAndGet(end - start);
+                    lastDeviceDoneNanos.set(end);
+                }
+            });
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GeneralSecurityException("Interrupted while waiting for the signing device", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof GeneralSecurityException)
+                    throw (GeneralSecurityException) e.getCause();
+                throw new GeneralSecurityException(e.getCause());
+            }
+        }
+    }
+}
@@ -5,7 +5,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.GeneralSecurityException;
-import java.security.KeyStore;
 import java.security.PrivateKey;
 import java.security.Provider;
 import java.security.Security;
@@ -14,38 +13,29 @@ import java.security.cert.Certificate;
 import java.security.spec.AlgorithmParameterSpec;
 import java.security.spec.MGF1ParameterSpec;
 import java.security.spec.PSSParameterSpec;
-import java.util.Arrays;
-import java.util.Enumeration;
 
 import org.bouncycastle.asn1.ASN1Integer;
-import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.DERNull;
 import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
 import org.bouncycastle.asn1.pkcs.RSASSAPSSparams;
 import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
-import org.bouncycastle.cert.X509CertificateHolder;
-import org.bouncycastle.cert.jcajce.JcaCertStore;
-import org.bouncycastle.cms.CMSException;
-import org.bouncycastle.cms.CMSSignedData;
-import org.bouncycastle.cms.CMSSignedDataGenerator;
-import org.bouncycastle.cms.CMSTypedData;
-import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
 import org.bouncycastle.operator.ContentSigner;
 import org.bouncycastle.operator.DefaultDigestAlgorithmIdentifierFinder;
 import org.bouncycastle.operator.DefaultSignatureAlgorithmIdentifierFinder;
 import org.bouncycastle.operator.DigestAlgorithmIdentifierFinder;
-import org.bouncycastle.operator.OperatorCreationException;
-import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
 
 import com.itextpdf.io.source.ByteArrayOutputStream;
 import com.itextpdf.kernel.pdf.PdfDictionary;
 import com.itextpdf.kernel.pdf.PdfName;
-import com.itextpdf.signatures.IExternalSignatureContainer;
+import com.itextpdf.signingexamples.common.CMSSignedDataTemplate;
+import com.itextpdf.signingexamples.common.CMSTypedDataInputStream;
+import com.itextpdf.signingexamples.common.SignatureContainerSizeEstimator;
+import com.itextpdf.signingexamples.common.SizeEstimatingSignatureContainer;
 
 /**
  * @author mkl
  */
-public class Pkcs11SignatureContainer implements IExternalSignatureContainer {
+public class Pkcs11SignatureContainer implements SizeEstimatingSignatureContainer {
     final PdfName subfilter;
 
     /** The alias. */
@@ -57,15 +47,24 @@ public class Pkcs11SignatureContainer implements IExternalSignatureContainer {
     /** The certificate chain. */
     Certificate[] chain;
 
+    /** The signature algorithm */
+    String algorithm;
+
+    /** The signature algorithm parameters */
+    AlgorithmParameterSpec paramSpec;
+
     /** The algorithm identifier */
     AlgorithmIdentifier algorithmIdentifier;
 
-    /** The BC content signer for the given key */
-    ContentSigner contentSigner;
+    /** The CMS template for the certificate chain and algorithm last used */
+    volatile CMSSignedDataTemplate template;
 
     /** The security provider */
     final Provider provider;
 
+    /** The alias index the key has been selected from. */
+    Pkcs11AliasIndex aliasIndex;
+
     public Pkcs11SignatureContainer(File pkcs11configFile, PdfName subfilter) {
         this.subfilter = subfilter;
         Provider p = Security.getProvider("SunPKCS11");
@@ -89,30 +88,13 @@ public class Pkcs11SignatureContainer implements IExternalSignatureContainer {
     }
 
     public Pkcs11SignatureContainer select(String alias, char[] pin) throws GeneralSecurityException, IOException {
-        KeyStore ks = KeyStore.getInstance("PKCS11", provider);
-        ks.load(null, pin);
-
-        boolean found = false;
-        Enumeration<String> aliases = ks.aliases();
-        while (aliases.hasMoreElements()) {
-            String thisAlias = aliases.nextElement();
-            if (alias == null || alias.equals(thisAlias)) {
-                PrivateKey thisPk = (PrivateKey) ks.getKey(thisAlias, pin);
-                if (thisPk == null)
-                    continue;
-                Certificate[] thisChain = ks.getCertificateChain(thisAlias);
-                if (thisChain == null)
-                    continue;
-
-                found = true;
-                pk = thisPk;
-                chain = thisChain;
-                this.alias = thisAlias;
-                break;
-            }
-        }
-
-        if (!found) {
+        aliasIndex = Pkcs11AliasIndex.forProvider(provider, pin);
+        Pkcs11AliasIndex.Entry entry = aliasIndex.select(alias, pin);
+        if (entry != null) {
+            pk = entry.getPrivateKey();
+            chain = entry.getChain();
+            this.alias = entry.getAlias();
+        } else {
             pk = null;
             chain = null;
             this.alias = null;
@@ -130,18 +112,37 @@ public class Pkcs11SignatureContainer implements IExternalSignatureContainer {
             algorithmIdentifier = new DefaultSignatureAlgorithmIdentifierFinder().find(algorithm);
         }
 
-        contentSigner = new ContentSigner() {
-            private ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        this.algorithm = algorithm;
+        this.paramSpec = paramSpec;
+
+        return this;
+    }
+
+    /**
+     * Creates a BC content signer for the selected key. Each {@link #sign(InputStream)}
+     * call uses its own content signer as the signer buffers the to-be-signed
+     * data; thus, the container can be used by multiple threads concurrently.
+     */
+    ContentSigner createContentSigner() {
+        final String algorithm = this.algorithm;
+        final AlgorithmParameterSpec paramSpec = this.paramSpec;
+        final AlgorithmIdentifier algorithmIdentifier = this.algorithmIdentifier;
+
+        return new ContentSigner() {
+            private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
 
             @Override
             public byte[] getSignature() {
                 try {
-                    Signature sig = Signature.getInstance(algorithm, provider);
-                    sig.initSign(pk);
-                    if (paramSpec != null)
-                        sig.setParameter(paramSpec);
-                    sig.update(outputStream.toByteArray());
-                    return sig.sign();
+                    byte[] data = outputStream.toByteArray();
+                    try {
+                        return signData(algorithm, paramSpec, data);
+                    } catch (GeneralSecurityException | RuntimeException e) {
+                        if (aliasIndex == null || alias == null || !Pkcs11AliasIndex.isLoginLost(e))
+                            throw e;
+                        recover();
+                        return signData(algorithm, paramSpec, data);
+                    }
                 } catch (Exception e) {
                     if (e instanceof RuntimeException)
                         throw (RuntimeException)e;
@@ -161,65 +162,61 @@ public class Pkcs11SignatureContainer implements IExternalSignatureContainer {
                 return algorithmIdentifier;
             }
         };
+    }
 
-        return this;
+    byte[] signData(String algorithm, AlgorithmParameterSpec paramSpec, byte[] data) throws GeneralSecurityException {
+        Signature sig = Signature.getInstance(algorithm, provider);
+        sig.initSign(pk);
+        if (paramSpec != null)
+            sig.setParameter(paramSpec);
+        sig.update(data);
+        return sig.sign();
     }
 
-    @Override
-    public byte[] sign(InputStream data) throws GeneralSecurityException {
+    /**
+     * Logs in anew and selects the same alias again after the session or
+     * the login to the token has been lost, e.g. due to card removal or
+     * HSM failover.
+     */
+    synchronized void recover() throws GeneralSecurityException {
+        String selectedAlias = alias;
         try {
-            CMSTypedData msg = new CMSTypedDataInputStream(data);
-
-            X509CertificateHolder signCert = new X509CertificateHolder(chain[0].getEncoded());
-
-            CMSSignedDataGenerator gen = new CMSSignedDataGenerator();
-
-            gen.addSignerInfoGenerator(
-                    new JcaSignerInfoGeneratorBuilder(new JcaDigestCalculatorProviderBuilder().setProvider("BC").build())
-                            .build(contentSigner, signCert));
-
-            gen.addCertificates(new JcaCertStore(Arrays.asList(chain)));
-
-            CMSSignedData sigData = gen.generate(msg, false);
-            return sigData.getEncoded();
-        } catch (IOException | OperatorCreationException | CMSException e) {
+            Pkcs11AliasIndex index = Pkcs11AliasIndex.relogin(provider, aliasIndex);
+            select(selectedAlias, index.pin);
+        } catch (IOException e) {
             throw new GeneralSecurityException(e);
         }
+        if (pk == null)
+            throw new GeneralSecurityException(String.format("Key '%s' not found anymore after re-login", selectedAlias));
     }
 
     @Override
-    public void modifySigningDictionary(PdfDictionary signDic) {
-        signDic.put(PdfName.Filter, new PdfName("MKLx_GENERIC_SIGNER"));
-        signDic.put(PdfName.SubFilter, subfilter);
+    public byte[] sign(InputStream data) throws GeneralSecurityException {
+        ContentSigner contentSigner = createContentSigner();
+        return template(contentSigner).sign(new CMSTypedDataInputStream(data), contentSigner);
     }
 
-    class CMSTypedDataInputStream implements CMSTypedData {
-        InputStream in;
-
-        public CMSTypedDataInputStream(InputStream is) {
-            in = is;
-        }
-
-        @Override
-        public ASN1ObjectIdentifier getContentType() {
-            return PKCSObjectIdentifiers.data;
-        }
+    /**
+     * Returns the CMS template for the selected certificate chain and the
+     * algorithm of the given content signer, creating it anew only after
+     * either of them has changed.
+     */
+    CMSSignedDataTemplate template(ContentSigner contentSigner) throws GeneralSecurityException {
+        CMSSignedDataTemplate template = this.template;
+        if (template == null || !template.matches(chain, contentSigner.getAlgorithmIdentifier()))
+            this.template = template = new CMSSignedDataTemplate(chain, contentSigner.getAlgorithmIdentifier());
+        return template;
+    }
 
-        @Override
-        public Object getContent() {
-            return in;
-        }
+    @Override
+    public int estimateSize() throws GeneralSecurityException {
+        return new SignatureContainerSizeEstimator(template(createContentSigner())).estimate();
+    }
 
-        @Override
-        public void write(OutputStream out) throws IOException,
-                CMSException {
-            byte[] buffer = new byte[8 * 1024];
-            int read;
-            while ((read = in.read(buffer)) != -1) {
-                out.write(buffer, 0, read);
-            }
-            in.close();
-        }
+    @Override
+    public void modifySigningDictionary(PdfDictionary signDic) {
+        signDic.put(PdfName.Filter, new PdfName("MKLx_GENERIC_SIGNER"));
+        signDic.put(PdfName.SubFilter, subfilter);
     }
 
     private static RSASSAPSSparams createPSSParams(PSSParameterSpec pssSpec)
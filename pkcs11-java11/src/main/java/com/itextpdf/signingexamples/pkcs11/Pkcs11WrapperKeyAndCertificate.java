@@ -5,15 +5,22 @@ import static iaik.pkcs.pkcs11.Module.SlotRequirement.ALL_SLOTS;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.math.BigInteger;
+import java.security.DigestOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
 import org.bouncycastle.operator.ContentSigner;
@@ -21,13 +28,14 @@ import org.bouncycastle.operator.DefaultSignatureAlgorithmIdentifierFinder;
 import org.bouncycastle.operator.RuntimeOperatorException;
 
 import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.MechanismInfo;
 import iaik.pkcs.pkcs11.Session;
 import iaik.pkcs.pkcs11.Slot;
 import iaik.pkcs.pkcs11.Token;
 import iaik.pkcs.pkcs11.TokenException;
 import iaik.pkcs.pkcs11.objects.Key;
 import iaik.pkcs.pkcs11.objects.PrivateKey;
-import iaik.pkcs.pkcs11.objects.X509PublicKeyCertificate;
+import iaik.pkcs.pkcs11.wrapper.CK_ATTRIBUTE;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
 
 /**
@@ -38,16 +46,22 @@ public class Pkcs11WrapperKeyAndCertificate implements AutoCloseable {
     protected Slot slot = null;
     protected Session session = null;
 
+    protected Pkcs11WrapperTokenLogin tokenLogin = null;
+
     protected PrivateKey privateKey = null;
+    protected byte[] keyId = null;
+    protected String keyLabel = null;
     protected Long keyType = null;
     protected String alias = null;
     protected X509Certificate[] chain = null;
+    protected List<X509Certificate> intermediateCertificates = new ArrayList<>();
+    protected Pkcs11WrapperSelectionStore selectionStore = null;
+    protected HashingMode hashingMode = HashingMode.TOKEN;
+    protected volatile Set<Long> supportedSignatureMechanisms = null;
 
     public Pkcs11WrapperKeyAndCertificate(String libraryPath, long slotId) throws IOException, TokenException {
-        pkcs11Module = iaik.pkcs.pkcs11.Module.getInstance(libraryPath);
+        pkcs11Module = Pkcs11WrapperTokenLogin.acquireModule(libraryPath);
         try {
-            pkcs11Module.initialize(null);
-
             Slot[] slots = pkcs11Module.getSlotList(ALL_SLOTS);
             
             for (Slot oneSlot : slots) {
@@ -68,96 +82,89 @@ public class Pkcs11WrapperKeyAndCertificate implements AutoCloseable {
     public Pkcs11WrapperKeyAndCertificate select(String alias, String certLabel, char[] pin) throws TokenException, CertificateException {
         closeSession();
         Token token = slot.getToken();
+        tokenLogin = Pkcs11WrapperTokenLogin.forToken(pkcs11Module, slot.getSlotID(), token);
+        tokenLogin.login(pin);
         session = token.openSession(Token.SessionType.SERIAL_SESSION, Token.SessionReadWriteBehavior.RO_SESSION, null, null);
-        session.login(Session.UserType.USER, pin); 
+
+        if (selectionStore != null) {
+            Pkcs11WrapperSelectionStore.Selection selection = selectionStore.lookup(token.getTokenInfo(), session, alias, certLabel);
+            if (selection != null && isValidPrivateKeyType(selection.getKeyType())) {
+                List<X509Certificate> certificates = new ArrayList<>();
+                for (byte[] certificate : selection.getChain())
+                    certificates.add(new iaik.x509.X509Certificate(certificate));
+
+                this.alias = selection.getAlias();
+                this.keyType = selection.getKeyType();
+                this.keyId = selection.keyId;
+                this.keyLabel = selection.keyLabel;
+                this.privateKey = (PrivateKey) iaik.pkcs.pkcs11.objects.Object.getInstance(session, selection.getKeyHandle());
+                this.chain = certificates.toArray(i -> new X509Certificate[i]);
+                return this;
+            }
+        }
 
         boolean found = false;
 
-        PrivateKey searchTemplate = new PrivateKey();
-        searchTemplate.getSign().setBooleanValue(Boolean.TRUE);
+        Pkcs11WrapperObjectIndex index = Pkcs11WrapperObjectIndex.build(session);
 
-        session.findObjectsInit(searchTemplate);
-        List<PrivateKey> privateKeys = new ArrayList<>();
-        try {
-            Object[] matchingKeys;
-            while ((matchingKeys = session.findObjects(1)).length > 0) {
-                PrivateKey privateKey = (PrivateKey) matchingKeys[0];
-                if (alias != null && alias.length() > 0) {
-                    if (privateKey.getLabel().isPresent()) {
-                        if (!Arrays.equals(privateKey.getLabel().getCharArrayValue(), alias.toCharArray()))
-                            continue;
-                    } else if(privateKey.getId().isPresent()) {
-                        if (!new BigInteger(privateKey.getId().getByteArrayValue()).toString().equals(alias))
-                            continue;
-                    } else {
-                        // nothing to compare the alias to; assuming it matches
-                    }
+        for (Pkcs11WrapperObjectIndex.Entry keyEntry : index.getKeys()) {
+            if (alias != null && alias.length() > 0) {
+                if (keyEntry.getLabel() != null) {
+                    if (!alias.equals(keyEntry.getLabel()))
+                        continue;
+                } else if (keyEntry.getIdString() != null) {
+                    if (!alias.equals(keyEntry.getIdString()))
+                        continue;
+                } else {
+                    // nothing to compare the alias to; assuming it matches
                 }
-                privateKeys.add(privateKey);
             }
-        } finally {
-            session.findObjectsFinal();
-        }
 
-        for (PrivateKey privateKey : privateKeys) {
-            Long type = privateKey.getKeyType().getLongValue();
+            Long type = keyEntry.getKeyType();
             if (!isValidPrivateKeyType(type))
                 continue;
 
-            String thisAlias;
-            if (privateKey.getLabel().isPresent())
-                thisAlias = new String(privateKey.getLabel().getCharArrayValue());
-            else if (privateKey.getId().isPresent())
-                thisAlias = new BigInteger(privateKey.getId().getByteArrayValue()).toString();
-            else
-                thisAlias = null;
+            String thisAlias = keyEntry.getAlias();
             if (alias != null && !alias.equals(thisAlias))
                 continue;
 
-            X509PublicKeyCertificate signatureCertificate = null;
-            X509PublicKeyCertificate certificateTemplate = new X509PublicKeyCertificate();
-            if (certLabel == null && thisAlias != null && thisAlias.length() > 0)
-                certLabel = thisAlias;
-            if (certLabel != null)
-                certificateTemplate.getLabel().setCharArrayValue(certLabel.toCharArray());
-            session.findObjectsInit(certificateTemplate);
-            try {
-                Object[] correspondingCertificates = session.findObjects(2);
-                if (correspondingCertificates.length != 1)
-                    continue;
-                signatureCertificate = (X509PublicKeyCertificate) correspondingCertificates[0];
-            } finally {
-                session.findObjectsFinal();
-            }
-
-            List<X509Certificate> certificates = new ArrayList<>();
-            certificates.add(new iaik.x509.X509Certificate(signatureCertificate.getValue().getByteArrayValue()));
+            String thisCertLabel = certLabel;
+            if (thisCertLabel == null && thisAlias != null && thisAlias.length() > 0)
+                thisCertLabel = thisAlias;
+            List<Pkcs11WrapperObjectIndex.Entry> correspondingCertificates = thisCertLabel != null ?
+                    index.getCertificatesByLabel(thisCertLabel) : index.getCertificates();
+            if (correspondingCertificates.size() != 1)
+                continue;
+            Pkcs11WrapperObjectIndex.Entry signatureCertificate = correspondingCertificates.get(0);
+            byte[] signatureCertificateValue = Pkcs11WrapperObjectIndex.getValue(session, signatureCertificate);
+            if (signatureCertificateValue == null)
+                continue;
 
-            certificateTemplate = new X509PublicKeyCertificate();
-            session.findObjectsInit(certificateTemplate);
-            try {
-                Object[] correspondingCertificates;
-                while ((correspondingCertificates = session.findObjects(1)).length > 0) {
-                    X509PublicKeyCertificate certObject = (X509PublicKeyCertificate) correspondingCertificates[0];
-                    if (certObject.getObjectHandle() != signatureCertificate.getObjectHandle()) {
-                        certificates.add(new iaik.x509.X509Certificate(certObject.getValue().getByteArrayValue()));
-                    }
-                }
-            } finally {
-                session.findObjectsFinal();
-            }
+            List<X509Certificate> certificates = buildChain(index, new iaik.x509.X509Certificate(signatureCertificateValue));
 
             found = true;
             this.alias = thisAlias;
             this.keyType = type;
-            this.privateKey = privateKey;
+            this.keyId = keyEntry.getId();
+            this.keyLabel = keyEntry.getLabel();
+            this.privateKey = (PrivateKey) iaik.pkcs.pkcs11.objects.Object.getInstance(session, keyEntry.getHandle());
             this.chain = certificates.toArray(i -> new X509Certificate[i]);
+
+            if (selectionStore != null) {
+                try {
+                    selectionStore.store(token.getTokenInfo(), alias, certLabel, thisAlias, keyEntry, chain);
+                } catch (IOException | CertificateEncodingException | TokenException e) {
+                    // the store is a mere optimization, so failing to update it is not an error
+                }
+            }
             break;
         }
 
         if (!found) {
             this.alias = null;
             this.keyType = null;
+            this.keyId = null;
+            this.keyLabel = null;
             this.privateKey = null;
             this.chain = null;
         }
@@ -169,6 +176,84 @@ public class Pkcs11WrapperKeyAndCertificate implements AutoCloseable {
         return chain;
     }
 
+    /**
+     * Sets a store in which the result of {@link #select(String, String, char[])}
+     * is persisted per token and from which it is retrieved and validated in
+     * later selections, even in later processes, to skip the enumeration of
+     * all keys and certificates on slow devices.
+     */
+    public Pkcs11WrapperKeyAndCertificate setSelectionStore(Pkcs11WrapperSelectionStore selectionStore) {
+        this.selectionStore = selectionStore;
+        return this;
+    }
+
+    /**
+     * Sets certificates not stored on the token, e.g. intermediate CA
+     * certificates, to complete the certificate chain with during
+     * {@link #select(String, String, char[])} if the issuer of a
+     * certificate cannot be found on the token.
+     */
+    public Pkcs11WrapperKeyAndCertificate setIntermediateCertificates(Collection<? extends X509Certificate> intermediateCertificates) {
+        this.intermediateCertificates = intermediateCertificates != null ? new ArrayList<>(intermediateCertificates) : new ArrayList<>();
+        return this;
+    }
+
+    /**
+     * Builds the issuer chain of the given signer certificate from the
+     * certificates on the token, completed from the intermediate
+     * certificates if necessary. Only certificates in the chain are
+     * retrieved from the token and parsed.
+     */
+    protected List<X509Certificate> buildChain(Pkcs11WrapperObjectIndex index, X509Certificate signerCertificate) throws TokenException, CertificateException {
+        List<X509Certificate> certificates = new ArrayList<>();
+        certificates.add(signerCertificate);
+
+        X509Certificate current = signerCertificate;
+        while (certificates.size() < MAX_CHAIN_LENGTH && !current.getSubjectX500Principal().equals(current.getIssuerX500Principal())) {
+            X509Certificate issuer = null;
+            List<X509Certificate> candidates = new ArrayList<>();
+            for (Pkcs11WrapperObjectIndex.Entry entry : index.getCertificatesBySubject(current.getIssuerX500Principal().getEncoded())) {
+                byte[] value = Pkcs11WrapperObjectIndex.getValue(session, entry);
+                if (value != null)
+                    candidates.add(new iaik.x509.X509Certificate(value));
+            }
+            for (X509Certificate candidate : intermediateCertificates) {
+                if (candidate.getSubjectX500Principal().equals(current.getIssuerX500Principal()))
+                    candidates.add(candidate);
+            }
+            candidates.removeIf(candidate -> certificates.contains(candidate));
+
+            if (candidates.size() == 1) {
+                issuer = candidates.get(0);
+            } else {
+                for (X509Certificate candidate : candidates) {
+                    if (isSignedBy(current, candidate)) {
+                        issuer = candidate;
+                        break;
+                    }
+                }
+            }
+
+            if (issuer == null)
+                break;
+            certificates.add(issuer);
+            current = issuer;
+        }
+
+        return certificates;
+    }
+
+    static boolean isSignedBy(X509Certificate certificate, X509Certificate candidate) {
+        try {
+            certificate.verify(candidate.getPublicKey());
+            return true;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    static final int MAX_CHAIN_LENGTH = 10;
+
     static Collection<Long> SIGNATURE_KEY_TYPES = List.of(Key.KeyType.DSA, Key.KeyType.ECDSA, Key.KeyType.RSA); 
     protected boolean isValidPrivateKeyType(Long type) {
         return SIGNATURE_KEY_TYPES.contains(type);
@@ -178,7 +263,13 @@ public class Pkcs11WrapperKeyAndCertificate implements AutoCloseable {
     public void close() throws TokenException {
         closeSession();
         slot = null;
-        pkcs11Module.finalize(null);
+        if (pkcs11Module != null) {
+            try {
+                Pkcs11WrapperTokenLogin.releaseModule(pkcs11Module);
+            } finally {
+                pkcs11Module = null;
+            }
+        }
     }
 
     protected void closeSession() throws TokenException {
@@ -191,12 +282,112 @@ public class Pkcs11WrapperKeyAndCertificate implements AutoCloseable {
         }
     }
 
+    /**
+     * Re-establishes the session after the session or the login has been
+     * lost, e.g. due to card removal or HSM failover: makes sure the token
+     * is logged in again, opens a new session, and searches the selected
+     * key anew by CKA_ID and CKA_LABEL.
+     */
+    protected void recover() throws TokenException {
+        tokenLogin.ensureLoggedIn();
+        try {
+            closeSession();
+        } catch (TokenException e) {
+            // the session is lost already
+        }
+        session = slot.getToken().openSession(Token.SessionType.SERIAL_SESSION, Token.SessionReadWriteBehavior.RO_SESSION, null, null);
+
+        List<CK_ATTRIBUTE> template = new ArrayList<>();
+        template.add(Pkcs11WrapperObjectIndex.attribute(PKCS11Constants.CKA_CLASS, PKCS11Constants.CKO_PRIVATE_KEY));
+        template.add(Pkcs11WrapperObjectIndex.attribute(PKCS11Constants.CKA_SIGN, Boolean.TRUE));
+        if (keyId != null)
+            template.add(Pkcs11WrapperObjectIndex.attribute(PKCS11Constants.CKA_ID, keyId));
+        if (keyLabel != null)
+            template.add(Pkcs11WrapperObjectIndex.attribute(PKCS11Constants.CKA_LABEL, keyLabel.toCharArray()));
+        List<Long> handles = Pkcs11WrapperObjectIndex.findHandles(session, template.toArray(new CK_ATTRIBUTE[template.size()]));
+        if (handles.size() != 1)
+            throw new TokenException(String.format("Found %d keys instead of one after re-login", handles.size()));
+        privateKey = (PrivateKey) iaik.pkcs.pkcs11.objects.Object.getInstance(session, handles.get(0));
+    }
+
+    /**
+     * Checks whether signing may succeed after {@link #recover()}.
+     */
+    protected boolean isRecoverable(TokenException e) {
+        return tokenLogin != null && privateKey != null && Pkcs11WrapperTokenLogin.isLoginLost(e);
+    }
+
+    /**
+     * Initializes a signing operation with the selected key, recovering
+     * the session once if it has been lost.
+     */
+    protected void signInit(Mechanism mechanism) throws TokenException {
+        try {
+            session.signInit(mechanism, privateKey);
+        } catch (TokenException e) {
+            if (!isRecoverable(e))
+                throw e;
+            recover();
+            session.signInit(mechanism, privateKey);
+        }
+    }
+
+    /**
+     * Signs the given data in a single part with the selected key. If the
+     * session has been lost in the meantime, it is recovered and signing
+     * is retried once, so the document at hand does not fail.
+     */
+    protected byte[] sign(Mechanism mechanism, byte[] data) throws TokenException {
+        signInit(mechanism);
+        try {
+            return session.sign(data);
+        } catch (TokenException e) {
+            if (!isRecoverable(e))
+                throw e;
+            recover();
+            session.signInit(mechanism, privateKey);
+            return session.sign(data);
+        }
+    }
+
     public ContentSigner buildContentSigner(String signatureAlgorithm) throws TokenException {
         AlgorithmIdentifier signAlgorithmIdentifier = new DefaultSignatureAlgorithmIdentifierFinder().find(signatureAlgorithm);
         Long mechanism = MECHANISM_BY_ALGORITHM_LOWER.get(signatureAlgorithm.toLowerCase());
         if (mechanism == null)
             throw new IllegalArgumentException(String.format("No applicable mechanism for '%s'", signatureAlgorithm));
-        session.signInit(Mechanism.get(mechanism), privateKey);
+
+        Pkcs11WrapperRawMechanism rawMechanism = Pkcs11WrapperRawMechanism.forAlgorithm(signatureAlgorithm);
+        if (isHashingOnHost(rawMechanism)) {
+            MessageDigest messageDigest;
+            try {
+                messageDigest = rawMechanism.createMessageDigest();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException(String.format("No digest for '%s'", signatureAlgorithm), e);
+            }
+
+            return new ContentSigner() {
+                OutputStream digestStream = new DigestOutputStream(OutputStream.nullOutputStream(), messageDigest);
+
+                @Override
+                public byte[] getSignature() {
+                    try {
+                        return signHash(rawMechanism, messageDigest.digest());
+                    } catch (TokenException | IOException e) {
+                        throw new RuntimeOperatorException(e.getMessage(), e);
+                    }
+                }
+
+                @Override
+                public OutputStream getOutputStream() {
+                    return digestStream;
+                }
+
+                @Override
+                public AlgorithmIdentifier getAlgorithmIdentifier() {
+                    return signAlgorithmIdentifier;
+                }
+            };
+        }
 
         return new ContentSigner() {
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -204,10 +395,8 @@ public class Pkcs11WrapperKeyAndCertificate implements AutoCloseable {
             @Override
             public byte[] getSignature() {
                 try {
-                    byte[] signature = session.sign(baos.toByteArray());
-                    // TODO: In case of ECDSA check the format of the returned bytes and transform if necessary
-                    return signature;
-                } catch (TokenException e) {
+                    return encodeSignature(rawMechanism, sign(Mechanism.get(mechanism), baos.toByteArray()));
+                } catch (TokenException | IOException e) {
                     throw new RuntimeOperatorException(e.getMessage(), e);
                 }
             }
@@ -224,6 +413,284 @@ public class Pkcs11WrapperKeyAndCertificate implements AutoCloseable {
         };
     }
 
+    /**
+     * <p>
+     * Builds a {@link ContentSigner} which in contrast to the one returned by
+     * {@link #buildContentSigner(String)} does not collect all the to-be-signed
+     * data in memory but instead forwards it to the token in chunks of
+     * {@link #STREAMING_CHUNK_SIZE} bytes using <code>C_SignUpdate</code> and
+     * finishes with <code>C_SignFinal</code>, see {@link StreamingContentSigner}.
+     * </p>
+     * <p>
+     * If hashing on the host is selected, the content signer of
+     * {@link #buildContentSigner(String)} is returned as it streams anyway.
+     * </p>
+     */
+    public ContentSigner buildStreamingContentSigner(String signatureAlgorithm) throws TokenException {
+        Pkcs11WrapperRawMechanism rawMechanism = Pkcs11WrapperRawMechanism.forAlgorithm(signatureAlgorithm);
+        if (isHashingOnHost(rawMechanism))
+            return buildContentSigner(signatureAlgorithm);
+
+        AlgorithmIdentifier signAlgorithmIdentifier = new DefaultSignatureAlgorithmIdentifierFinder().find(signatureAlgorithm);
+        Long mechanismCode = MECHANISM_BY_ALGORITHM_LOWER.get(signatureAlgorithm.toLowerCase());
+        if (mechanismCode == null)
+            throw new IllegalArgumentException(String.format("No applicable mechanism for '%s'", signatureAlgorithm));
+        return new StreamingContentSigner(Mechanism.get(mechanismCode), rawMechanism, signAlgorithmIdentifier);
+    }
+
+    /** The size of the chunks forwarded to the token by streaming content signers. */
+    public static final int STREAMING_CHUNK_SIZE = 16 * 1024;
+
+    /**
+     * Forwards a part of the to-be-signed data of a multi-part signing
+     * operation to the token.
+     */
+    protected void signUpdate(byte[] part) throws TokenException {
+        session.signUpdate(part);
+    }
+
+    /**
+     * <p>
+     * A {@link ContentSigner} forwarding the to-be-signed data to the token
+     * in chunks. The signing operation is started only when the first chunk
+     * is forwarded, and it is terminated if signing fails or the signer is
+     * {@link #abort() aborted}, so an abandoned signer does not leave an
+     * active operation in the session.
+     * </p>
+     * <p>
+     * If the token rejects multi-part signing for the mechanism, the signer
+     * falls back to collecting the data and single-part signing. A session
+     * loss before the token accepted the first chunk is recovered from
+     * transparently. As the data are not retained, though, a later session
+     * loss fails the signature at hand; the session is recovered nonetheless
+     * for the signatures to come.
+     * </p>
+     */
+    protected class StreamingContentSigner implements ContentSigner {
+        final Mechanism mechanism;
+        final Pkcs11WrapperRawMechanism rawMechanism;
+        final AlgorithmIdentifier signAlgorithmIdentifier;
+        final byte[] chunk = new byte[STREAMING_CHUNK_SIZE];
+        int chunkLength = 0;
+        boolean active = false;
+        boolean updated = false;
+        ByteArrayOutputStream singlePartData = null;
+
+        final OutputStream outputStream = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                chunk[chunkLength++] = (byte) b;
+                if (chunkLength == chunk.length)
+                    flushChunk();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    int count = Math.min(len, chunk.length - chunkLength);
+                    System.arraycopy(b, off, chunk, chunkLength, count);
+                    chunkLength += count;
+                    off += count;
+                    len -= count;
+                    if (chunkLength == chunk.length)
+                        flushChunk();
+                }
+            }
+        };
+
+        StreamingContentSigner(Mechanism mechanism, Pkcs11WrapperRawMechanism rawMechanism, AlgorithmIdentifier signAlgorithmIdentifier) {
+            this.mechanism = mechanism;
+            this.rawMechanism = rawMechanism;
+            this.signAlgorithmIdentifier = signAlgorithmIdentifier;
+        }
+
+        void flushChunk() throws IOException {
+            if (chunkLength == 0)
+                return;
+            byte[] part = chunkLength == chunk.length ? chunk : Arrays.copyOf(chunk, chunkLength);
+            chunkLength = 0;
+            if (singlePartData == null) {
+                try {
+                    if (updated)
+                        signUpdate(part);
+                    else
+                        start(part);
+                    updated = true;
+                    return;
+                } catch (TokenException e) {
+                    abort();
+                    if (updated) {
+                        recoverQuietly(e);
+                        throw new IOException("Multi-part signing failed, the data must be signed anew", e);
+                    }
+                    // the token may not support multi-part signing for the mechanism
+                    singlePartData = new ByteArrayOutputStream();
+                }
+            }
+            singlePartData.write(part);
+        }
+
+        /**
+         * Starts the operation with the given first part, recovering the
+         * session once if it has been lost.
+         */
+        void start(byte[] part) throws TokenException {
+            signInit(mechanism);
+            active = true;
+            try {
+                signUpdate(part);
+            } catch (TokenException e) {
+                if (!isRecoverable(e))
+                    throw e;
+                active = false;
+                recover();
+                session.signInit(mechanism, privateKey);
+                active = true;
+                signUpdate(part);
+            }
+        }
+
+        void recoverQuietly(TokenException e) {
+            if (isRecoverable(e)) {
+                try {
+                    recover();
+                } catch (TokenException e2) {
+                    e.addSuppressed(e2);
+                }
+            }
+        }
+
+        /**
+         * Terminates the signing operation if it may still be active, e.g.
+         * if the signer is abandoned after data have been written to it.
+         */
+        public void abort() {
+            if (active) {
+                active = false;
+                try {
+                    // C_SignFinal terminates the operation whether it succeeds or not
+                    session.signFinal();
+                } catch (TokenException e) {
+                    // terminated nonetheless
+                }
+            }
+        }
+
+        @Override
+        public byte[] getSignature() {
+            try {
+                flushChunk();
+                byte[] signature;
+                if (singlePartData != null) {
+                    signature = sign(mechanism, singlePartData.toByteArray());
+                } else if (!updated) {
+                    signature = sign(mechanism, new byte[0]);
+                } else {
+                    active = false;
+                    try {
+                        signature = session.signFinal();
+                    } catch (TokenException e) {
+                        recoverQuietly(e);
+                        throw e;
+                    }
+                }
+                return encodeSignature(rawMechanism, signature);
+            } catch (TokenException | IOException e) {
+                abort();
+                throw new RuntimeOperatorException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return outputStream;
+        }
+
+        @Override
+        public AlgorithmIdentifier getAlgorithmIdentifier() {
+            return signAlgorithmIdentifier;
+        }
+    }
+
+    /**
+     * Sets where the to-be-signed data shall be hashed, see {@link HashingMode}.
+     */
+    public Pkcs11WrapperKeyAndCertificate setHashingMode(HashingMode hashingMode) {
+        this.hashingMode = hashingMode != null ? hashingMode : HashingMode.TOKEN;
+        return this;
+    }
+
+    public HashingMode getHashingMode() {
+        return hashingMode;
+    }
+
+    /**
+     * Determines whether to hash on the host and use the given raw mechanism
+     * to sign the hash according to the current {@link HashingMode}.
+     */
+    protected boolean isHashingOnHost(Pkcs11WrapperRawMechanism rawMechanism) throws TokenException {
+        if (rawMechanism == null)
+            return false;
+        switch (hashingMode) {
+        case HOST:
+            return true;
+        case AUTO:
+            return isMechanismSupported(rawMechanism.getMechanismCode());
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Signs the given hash with the given raw mechanism and returns the
+     * signature in the format expected for the matching signature algorithm.
+     */
+    protected byte[] signHash(Pkcs11WrapperRawMechanism rawMechanism, byte[] hash) throws TokenException, IOException {
+        byte[] signature = sign(rawMechanism.createMechanism(hash.length), rawMechanism.createMechanismInput(hash));
+        return rawMechanism.createSignature(signature);
+    }
+
+    /**
+     * Transforms the signature returned by the token for a combined
+     * mechanism into the format expected for the matching signature
+     * algorithm, cf. {@link Pkcs11WrapperRawMechanism#createSignature(byte[])}.
+     */
+    protected byte[] encodeSignature(Pkcs11WrapperRawMechanism rawMechanism, byte[] tokenSignature) throws IOException {
+        return rawMechanism != null ? rawMechanism.createSignature(tokenSignature) : tokenSignature;
+    }
+
+    /**
+     * Checks whether the token supports the given mechanism for signing.
+     * The mechanism list of the token is retrieved once and cached; the
+     * cache is published safely to other threads.
+     */
+    protected boolean isMechanismSupported(long mechanism) throws TokenException {
+        Set<Long> mechanisms = supportedSignatureMechanisms;
+        if (mechanisms == null) {
+            mechanisms = new HashSet<>();
+            Token token = slot.getToken();
+            for (Mechanism candidate : token.getMechanismList()) {
+                MechanismInfo info = token.getMechanismInfo(candidate);
+                if (info == null || info.isSign())
+                    mechanisms.add(candidate.getMechanismCode());
+            }
+            supportedSignatureMechanisms = mechanisms = Collections.unmodifiableSet(mechanisms);
+        }
+        return mechanisms.contains(mechanism);
+    }
+
+    /**
+     * Where the to-be-signed data are hashed.
+     */
+    public enum HashingMode {
+        /** On the token, using combined mechanisms like <code>CKM_SHA256_RSA_PKCS</code>. */
+        TOKEN,
+        /** On the host, using raw mechanisms like <code>CKM_RSA_PKCS</code> for the hash only. */
+        HOST,
+        /** On the host if the token supports the raw mechanism, otherwise on the token. */
+        AUTO
+    }
+
     static Map<String, Long> MECHANISM_BY_ALGORITHM_LOWER = new HashMap<>();
 
     static {
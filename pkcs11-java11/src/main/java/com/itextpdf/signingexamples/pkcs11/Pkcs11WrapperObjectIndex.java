@@ -0,0 +1,315 @@
+package com.itextpdf.signingexamples.pkcs11;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bouncycastle.asn1.ASN1Encoding;
+
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.wrapper.CK_ATTRIBUTE;
+import iaik.pkcs.pkcs11.wrapper.PKCS11;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+
+/**
+ * <p>
+ * This class indexes the signing private keys and the X.509 certificates
+ * on a token by CKA_ID and CKA_LABEL in a single pass.
+ * </p>
+ * <p>
+ * In contrast to {@link Session#findObjects(int)} this class enumerates
+ * object handles in large batches and only reads the attributes actually
+ * needed for matching keys and certificates. On tokens with many objects
+ * and on slow smartcards this reduces the number of native calls a lot.
+ * </p>
+ * <p>
+ * Certificates furthermore are indexed by subject so that issuer chains
+ * can be built without parsing any certificate. Their DER encoded values
+ * are only read when actually requested, see {@link #getValue(Session, Entry)}.
+ * </p>
+ */
+public class Pkcs11WrapperObjectIndex {
+    /** The maximum number of object handles retrieved per C_FindObjects call. */
+    public static final int FIND_BATCH_SIZE = 256;
+
+    static final long[] KEY_ATTRIBUTES = { PKCS11Constants.CKA_LABEL, PKCS11Constants.CKA_ID, PKCS11Constants.CKA_KEY_TYPE };
+    static final long[] CERTIFICATE_ATTRIBUTES = { PKCS11Constants.CKA_LABEL, PKCS11Constants.CKA_ID, PKCS11Constants.CKA_SUBJECT, PKCS11Constants.CKA_ISSUER };
+
+    final List<Entry> keys = new ArrayList<>();
+    final List<Entry> certificates = new ArrayList<>();
+    final Map<String, List<Entry>> keysById = new HashMap<>();
+    final Map<String, List<Entry>> keysByLabel = new HashMap<>();
+    final Map<String, List<Entry>> certificatesById = new HashMap<>();
+    final Map<String, List<Entry>> certificatesByLabel = new HashMap<>();
+    final Map<String, List<Entry>> certificatesBySubject = new HashMap<>();
+
+    /**
+     * Builds the index of the signing private keys and the X.509 certificates
+     * visible in the given session.
+     */
+    public static Pkcs11WrapperObjectIndex build(Session session) throws TokenException {
+        Pkcs11WrapperObjectIndex index = new Pkcs11WrapperObjectIndex();
+
+        CK_ATTRIBUTE[] keyTemplate = {
+                attribute(PKCS11Constants.CKA_CLASS, PKCS11Constants.CKO_PRIVATE_KEY),
+                attribute(PKCS11Constants.CKA_SIGN, Boolean.TRUE) };
+        for (long handle : findHandles(session, keyTemplate)) {
+            Entry entry = new Entry(handle, readAttributes(session, handle, KEY_ATTRIBUTES));
+            index.keys.add(entry);
+            index(index.keysById, entry.getIdString(), entry);
+            index(index.keysByLabel, entry.getLabel(), entry);
+        }
+
+        CK_ATTRIBUTE[] certificateTemplate = {
+                attribute(PKCS11Constants.CKA_CLASS, PKCS11Constants.CKO_CERTIFICATE),
+                attribute(PKCS11Constants.CKA_CERTIFICATE_TYPE, PKCS11Constants.CKC_X_509) };
+        for (long handle : findHandles(session, certificateTemplate)) {
+            Entry entry = new Entry(handle, readAttributes(session, handle, CERTIFICATE_ATTRIBUTES));
+            if (entry.subject == null || entry.issuer == null) {
+                // Some tokens do not set the optional CKA_SUBJECT or CKA_ISSUER, so take them from the certificate itself
+                org.bouncycastle.asn1.x509.Certificate certificate = parse(getValue(session, entry));
+                if (certificate != null) {
+                    entry.subject = encoded(certificate.getSubject());
+                    entry.issuer = encoded(certificate.getIssuer());
+                }
+            }
+            index.certificates.add(entry);
+            index(index.certificatesById, entry.getIdString(), entry);
+            index(index.certificatesByLabel, entry.getLabel(), entry);
+            index(index.certificatesBySubject, nameKey(entry.subject), entry);
+        }
+
+        return index;
+    }
+
+    /** The signing private keys in token order. */
+    public List<Entry> getKeys() {
+        return Collections.unmodifiableList(keys);
+    }
+
+    /** The X.509 certificates in token order. */
+    public List<Entry> getCertificates() {
+        return Collections.unmodifiableList(certificates);
+    }
+
+    public List<Entry> getKeysById(String id) {
+        return keysById.getOrDefault(id, Collections.emptyList());
+    }
+
+    public List<Entry> getKeysByLabel(String label) {
+        return keysByLabel.getOrDefault(label, Collections.emptyList());
+    }
+
+    public List<Entry> getCertificatesById(String id) {
+        return certificatesById.getOrDefault(id, Collections.emptyList());
+    }
+
+    public List<Entry> getCertificatesByLabel(String label) {
+        return certificatesByLabel.getOrDefault(label, Collections.emptyList());
+    }
+
+    /**
+     * Returns the certificates with the given DER encoded subject name,
+     * i.e. the candidate issuers of certificates with that issuer name.
+     */
+    public List<Entry> getCertificatesBySubject(byte[] subject) {
+        String key = nameKey(subject);
+        return key != null ? certificatesBySubject.getOrDefault(key, Collections.emptyList()) : Collections.emptyList();
+    }
+
+    /**
+     * Returns the CKA_VALUE of the given object, reading it from the token
+     * on first request only.
+     */
+    public static byte[] getValue(Session session, Entry entry) throws TokenException {
+        if (entry.value == null) {
+            CK_ATTRIBUTE[] attributes = readAttributes(session, entry.handle, PKCS11Constants.CKA_VALUE);
+            entry.value = (byte[]) attributes[0].pValue;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Retrieves the handles of all objects matching the template,
+     * {@link #FIND_BATCH_SIZE} handles per native call.
+     */
+    public static List<Long> findHandles(Session session, CK_ATTRIBUTE[] template) throws TokenException {
+        PKCS11 pkcs11 = session.getModule().getPKCS11Module();
+        long sessionHandle = session.getSessionHandle();
+
+        List<Long> handles = new ArrayList<>();
+        pkcs11.C_FindObjectsInit(sessionHandle, template, true);
+        try {
+            long[] batch;
+            while ((batch = pkcs11.C_FindObjects(sessionHandle, FIND_BATCH_SIZE)).length > 0) {
+                for (long handle : batch)
+                    handles.add(handle);
+            }
+        } finally {
+            pkcs11.C_FindObjectsFinal(sessionHandle);
+        }
+        return handles;
+    }
+
+    /**
+     * Reads the given attributes of an object in a single native call.
+     * If the token refuses that, e.g. because one of the attributes is
+     * not present, the attributes are read one by one, leaving the values
+     * of the unavailable ones <code>null</code>.
+     */
+    public static CK_ATTRIBUTE[] readAttributes(Session session, long handle, long... types) throws TokenException {
+        PKCS11 pkcs11 = session.getModule().getPKCS11Module();
+        long sessionHandle = session.getSessionHandle();
+
+        CK_ATTRIBUTE[] attributes = new CK_ATTRIBUTE[types.length];
+        for (int i = 0; i < types.length; i++)
+            attributes[i] = attribute(types[i], null);
+
+        try {
+            pkcs11.C_GetAttributeValue(sessionHandle, handle, attributes, true);
+        } catch (PKCS11Exception e) {
+            for (CK_ATTRIBUTE attribute : attributes) {
+                CK_ATTRIBUTE[] single = { attribute(attribute.type, null) };
+                try {
+                    pkcs11.C_GetAttributeValue(sessionHandle, handle, single, true);
+                    attribute.pValue = single[0].pValue;
+                } catch (PKCS11Exception e2) {
+                    attribute.pValue = null;
+                }
+            }
+        }
+        return attributes;
+    }
+
+    public static CK_ATTRIBUTE attribute(long type, Object value) {
+        CK_ATTRIBUTE attribute = new CK_ATTRIBUTE();
+        attribute.type = type;
+        attribute.pValue = value;
+        return attribute;
+    }
+
+    static String nameKey(byte[] name) {
+        return name != null ? Base64.getEncoder().encodeToString(name) : null;
+    }
+
+    static org.bouncycastle.asn1.x509.Certificate parse(byte[] value) {
+        try {
+            return value != null ? org.bouncycastle.asn1.x509.Certificate.getInstance(value) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    static byte[] encoded(org.bouncycastle.asn1.x500.X500Name name) {
+        try {
+            return name.getEncoded(ASN1Encoding.DER);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    static void index(Map<String, List<Entry>> map, String key, Entry entry) {
+        if (key != null)
+            map.computeIfAbsent(key, k -> new ArrayList<>()).add(entry);
+    }
+
+    /**
+     * The handle and the matching related attributes of a token object.
+     */
+    public static class Entry {
+        final long handle;
+        final String label;
+        final byte[] id;
+        final Long keyType;
+        byte[] subject;
+        byte[] issuer;
+        byte[] value;
+
+        Entry(long handle, CK_ATTRIBUTE[] attributes) {
+            this.handle = handle;
+            String label = null;
+            byte[] id = null;
+            Long keyType = null;
+            byte[] subject = null;
+            byte[] issuer = null;
+            byte[] value = null;
+            for (CK_ATTRIBUTE attribute : attributes) {
+                if (attribute.pValue == null)
+                    continue;
+                if (attribute.type == PKCS11Constants.CKA_LABEL) {
+                    label = attribute.pValue instanceof char[] ? new String((char[]) attribute.pValue) : attribute.pValue.toString();
+                } else if (attribute.type == PKCS11Constants.CKA_ID) {
+                    id = (byte[]) attribute.pValue;
+                } else if (attribute.type == PKCS11Constants.CKA_KEY_TYPE) {
+                    keyType = (Long) attribute.pValue;
+                } else if (attribute.type == PKCS11Constants.CKA_SUBJECT) {
+                    subject = (byte[]) attribute.pValue;
+                } else if (attribute.type == PKCS11Constants.CKA_ISSUER) {
+                    issuer = (byte[]) attribute.pValue;
+                } else if (attribute.type == PKCS11Constants.CKA_VALUE) {
+                    value = (byte[]) attribute.pValue;
+                }
+            }
+            this.label = label;
+            this.id = id;
+            this.keyType = keyType;
+            this.subject = subject;
+            this.issuer = issuer;
+            this.value = value;
+        }
+
+        public long getHandle() {
+            return handle;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public byte[] getId() {
+            return id;
+        }
+
+        /** The CKA_ID as decimal number string, the way it is used as alias. */
+        public String getIdString() {
+            return id != null && id.length > 0 ? new BigInteger(id).toString() : null;
+        }
+
+        public Long getKeyType() {
+            return keyType;
+        }
+
+        /** The DER encoded subject name of a certificate. */
+        public byte[] getSubject() {
+            return subject;
+        }
+
+        /** The DER encoded issuer name of a certificate. */
+        public byte[] getIssuer() {
+            return issuer;
+        }
+
+        /**
+         * The CKA_VALUE if already read; for certificates use
+         * {@link Pkcs11WrapperObjectIndex#getValue(Session, Entry)}.
+         */
+        public byte[] getValue() {
+            return value;
+        }
+
+        /**
+         * The alias of the object: its label if present, otherwise its
+         * CKA_ID as decimal number string, otherwise <code>null</code>.
+         */
+        public String getAlias() {
+            return label != null ? label : getIdString();
+        }
+    }
+}
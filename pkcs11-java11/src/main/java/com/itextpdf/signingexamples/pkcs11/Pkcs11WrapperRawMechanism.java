@@ -0,0 +1,138 @@
+package com.itextpdf.signingexamples.pkcs11;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.DigestInfo;
+import org.bouncycastle.operator.DefaultDigestAlgorithmIdentifierFinder;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.parameters.RSAPkcsPssParameters;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+/**
+ * <p>
+ * This class describes how to create a signature for a JCA signature
+ * algorithm name by hashing on the host and signing the hash only using
+ * a raw PKCS#11 mechanism, i.e. <code>CKM_RSA_PKCS</code> on a DigestInfo
+ * structure, <code>CKM_RSA_PKCS_PSS</code>, <code>CKM_ECDSA</code>, or
+ * <code>CKM_DSA</code>.
+ * </p>
+ * <p>
+ * Smartcards are slow both in I/O and in hashing, so sending only the hash
+ * instead of the whole to-be-signed data can considerably speed up signing.
+ * </p>
+ */
+public class Pkcs11WrapperRawMechanism {
+    enum Encoding { DIGEST_INFO, PSS, RAW_HASH }
+
+    final String digestAlgorithm;
+    final long digestMechanism;
+    final long mgf;
+    final long mechanism;
+    final Encoding encoding;
+    final boolean derSignature;
+
+    Pkcs11WrapperRawMechanism(String digestAlgorithm, long digestMechanism, long mgf, long mechanism, Encoding encoding, boolean derSignature) {
+        this.digestAlgorithm = digestAlgorithm;
+        this.digestMechanism = digestMechanism;
+        this.mgf = mgf;
+        this.mechanism = mechanism;
+        this.encoding = encoding;
+        this.derSignature = derSignature;
+    }
+
+    /**
+     * Returns the raw mechanism description for the given signature algorithm
+     * name, e.g. "SHA256withRSA", or <code>null</code> if there is none.
+     */
+    public static Pkcs11WrapperRawMechanism forAlgorithm(String signatureAlgorithm) {
+        return signatureAlgorithm != null ? RAW_MECHANISM_BY_ALGORITHM_LOWER.get(signatureAlgorithm.toLowerCase()) : null;
+    }
+
+    /** The PKCS#11 mechanism code of the raw signature mechanism. */
+    public long getMechanismCode() {
+        return mechanism;
+    }
+
+    public MessageDigest createMessageDigest() throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance(digestAlgorithm);
+    }
+
+    /**
+     * Creates the PKCS#11 mechanism to sign a hash with, including the PSS
+     * parameters if applicable.
+     */
+    public Mechanism createMechanism(int hashLength) {
+        Mechanism result = Mechanism.get(mechanism);
+        if (encoding == Encoding.PSS)
+            result.setParameters(new RSAPkcsPssParameters(Mechanism.get(digestMechanism), mgf, hashLength));
+        return result;
+    }
+
+    /**
+     * Creates the data to hand to the raw mechanism for the given hash,
+     * i.e. the DER encoded DigestInfo for PKCS#1 v1.5 and the hash itself
+     * otherwise.
+     */
+    public byte[] createMechanismInput(byte[] hash) throws IOException {
+        if (encoding == Encoding.DIGEST_INFO) {
+            AlgorithmIdentifier digestAlgorithmIdentifier = new DefaultDigestAlgorithmIdentifierFinder().find(digestAlgorithm);
+            digestAlgorithmIdentifier = new AlgorithmIdentifier(digestAlgorithmIdentifier.getAlgorithm(), DERNull.INSTANCE);
+            return new DigestInfo(digestAlgorithmIdentifier, hash).getEncoded(ASN1Encoding.DER);
+        }
+        return hash;
+    }
+
+    /**
+     * Transforms the signature returned by the token into the format
+     * expected for the signature algorithm, i.e. converts the plain
+     * r||s format of (EC)DSA signatures into a DER encoded sequence
+     * unless plain ECDSA is requested.
+     */
+    public byte[] createSignature(byte[] tokenSignature) throws IOException {
+        if (!derSignature)
+            return tokenSignature;
+        int length = tokenSignature.length / 2;
+        BigInteger r = new BigInteger(1, Arrays.copyOfRange(tokenSignature, 0, length));
+        BigInteger s = new BigInteger(1, Arrays.copyOfRange(tokenSignature, length, tokenSignature.length));
+        return new DERSequence(new ASN1Encodable[] { new ASN1Integer(r), new ASN1Integer(s) }).getEncoded(ASN1Encoding.DER);
+    }
+
+    static Map<String, Pkcs11WrapperRawMechanism> RAW_MECHANISM_BY_ALGORITHM_LOWER = new HashMap<>();
+
+    static {
+        String[][] digests = {
+                { "sha1", "SHA-1" }, { "sha224", "SHA-224" }, { "sha256", "SHA-256" }, { "sha384", "SHA-384" }, { "sha512", "SHA-512" } };
+        long[] digestMechanisms = {
+                PKCS11Constants.CKM_SHA_1, PKCS11Constants.CKM_SHA224, PKCS11Constants.CKM_SHA256, PKCS11Constants.CKM_SHA384, PKCS11Constants.CKM_SHA512 };
+        long[] mgfs = {
+                PKCS11Constants.CKG_MGF1_SHA1, PKCS11Constants.CKG_MGF1_SHA224, PKCS11Constants.CKG_MGF1_SHA256, PKCS11Constants.CKG_MGF1_SHA384, PKCS11Constants.CKG_MGF1_SHA512 };
+
+        for (int i = 0; i < digests.length; i++) {
+            String prefix = digests[i][0];
+            String digest = digests[i][1];
+            RAW_MECHANISM_BY_ALGORITHM_LOWER.put(prefix + "withdsa",
+                    new Pkcs11WrapperRawMechanism(digest, digestMechanisms[i], 0, PKCS11Constants.CKM_DSA, Encoding.RAW_HASH, true));
+            RAW_MECHANISM_BY_ALGORITHM_LOWER.put(prefix + "withecdsa",
+                    new Pkcs11WrapperRawMechanism(digest, digestMechanisms[i], 0, PKCS11Constants.CKM_ECDSA, Encoding.RAW_HASH, true));
+            RAW_MECHANISM_BY_ALGORITHM_LOWER.put(prefix + "withplain-ecdsa",
+                    new Pkcs11WrapperRawMechanism(digest, digestMechanisms[i], 0, PKCS11Constants.CKM_ECDSA, Encoding.RAW_HASH, false));
+            RAW_MECHANISM_BY_ALGORITHM_LOWER.put(prefix + "withrsa",
+                    new Pkcs11WrapperRawMechanism(digest, digestMechanisms[i], 0, PKCS11Constants.CKM_RSA_PKCS, Encoding.DIGEST_INFO, false));
+            RAW_MECHANISM_BY_ALGORITHM_LOWER.put(prefix + "withrsaandmgf1",
+                    new Pkcs11WrapperRawMechanism(digest, digestMechanisms[i], mgfs[i], PKCS11Constants.CKM_RSA_PKCS_PSS, Encoding.PSS, false));
+        }
+    }
+}
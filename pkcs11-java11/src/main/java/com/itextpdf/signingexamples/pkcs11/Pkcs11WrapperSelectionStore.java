@@ -0,0 +1,235 @@
+package com.itextpdf.signingexamples.pkcs11;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Properties;
+
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.TokenInfo;
+import iaik.pkcs.pkcs11.wrapper.CK_ATTRIBUTE;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+/**
+ * <p>
+ * This class persists the result of {@link Pkcs11WrapperKeyAndCertificate#select(String, String, char[])}
+ * in a directory, one properties file per token identified by its serial
+ * number and label. For each alias / certificate label combination used for
+ * selection it stores the CKA_ID and CKA_LABEL of the key and the DER encoded
+ * certificate chain.
+ * </p>
+ * <p>
+ * On slow smartcards this turns key selection in later processes into a
+ * few targeted C_FindObjects calls instead of a full enumeration of keys
+ * and certificates. A stored entry is only used if the targeted searches
+ * find exactly one matching key and the stored signer certificate still
+ * is on the token; otherwise the entry is removed, e.g. after a certificate
+ * renewal, and the selection falls back to the full enumeration.
+ * </p>
+ */
+public class Pkcs11WrapperSelectionStore {
+    final Path directory;
+
+    public Pkcs11WrapperSelectionStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Looks up a stored selection for the given token and selection
+     * parameters and validates it by searching the key by CKA_ID and
+     * CKA_LABEL and the signer certificate by its value. Returns
+     * <code>null</code> if there is no stored selection or if it is not
+     * valid anymore; in the latter case the stored entry is removed.
+     */
+    public synchronized Selection lookup(TokenInfo tokenInfo, Session session, String alias, String certLabel) throws TokenException {
+        Properties properties = load(tokenInfo);
+        String prefix = prefix(alias, certLabel);
+        String keyHandleAlias = properties.getProperty(prefix + "alias");
+        String keyType = properties.getProperty(prefix + "keyType");
+        String chainLength = properties.getProperty(prefix + "chain.length");
+        if (keyType == null || chainLength == null)
+            return null;
+
+        Selection selection = new Selection();
+        try {
+            selection.alias = keyHandleAlias;
+            selection.keyType = Long.valueOf(keyType);
+            selection.keyId = decode(properties.getProperty(prefix + "keyId"));
+            selection.keyLabel = properties.getProperty(prefix + "keyLabel");
+            for (int i = 0; i < Integer.parseInt(chainLength); i++) {
+                byte[] certificate = decode(properties.getProperty(prefix + "chain." + i));
+                if (certificate == null)
+                    return invalidate(tokenInfo, prefix);
+                selection.chain.add(certificate);
+            }
+        } catch (IllegalArgumentException e) {
+            return invalidate(tokenInfo, prefix);
+        }
+        if (selection.chain.isEmpty())
+            return invalidate(tokenInfo, prefix);
+
+        List<CK_ATTRIBUTE> template = new ArrayList<>();
+        template.add(Pkcs11WrapperObjectIndex.attribute(PKCS11Constants.CKA_CLASS, PKCS11Constants.CKO_PRIVATE_KEY));
+        template.add(Pkcs11WrapperObjectIndex.attribute(PKCS11Constants.CKA_SIGN, Boolean.TRUE));
+        if (selection.keyId != null)
+            template.add(Pkcs11WrapperObjectIndex.attribute(PKCS11Constants.CKA_ID, selection.keyId));
+        if (selection.keyLabel != null)
+            template.add(Pkcs11WrapperObjectIndex.attribute(PKCS11Constants.CKA_LABEL, selection.keyLabel.toCharArray()));
+        List<Long> handles = Pkcs11WrapperObjectIndex.findHandles(session, template.toArray(new CK_ATTRIBUTE[template.size()]));
+        if (handles.size() != 1)
+            return invalidate(tokenInfo, prefix);
+
+        CK_ATTRIBUTE[] certificateTemplate = {
+                Pkcs11WrapperObjectIndex.attribute(PKCS11Constants.CKA_CLASS, PKCS11Constants.CKO_CERTIFICATE),
+                Pkcs11WrapperObjectIndex.attribute(PKCS11Constants.CKA_VALUE, selection.chain.get(0))
+        };
+        if (Pkcs11WrapperObjectIndex.findHandles(session, certificateTemplate).isEmpty())
+            return invalidate(tokenInfo, prefix);
+
+        selection.keyHandle = handles.get(0);
+        return selection;
+    }
+
+    /**
+     * Removes the stored selection for the given token and selection
+     * parameters, if any.
+     */
+    public synchronized void remove(TokenInfo tokenInfo, String alias, String certLabel) throws IOException {
+        Properties properties = load(tokenInfo);
+        if (removeEntry(properties, prefix(alias, certLabel)))
+            save(tokenInfo, properties);
+    }
+
+    /**
+     * Stores the selected key and certificate chain for the given token
+     * and selection parameters.
+     */
+    public synchronized void store(TokenInfo tokenInfo, String alias, String certLabel, String keyHandleAlias,
+            Pkcs11WrapperObjectIndex.Entry keyEntry, X509Certificate[] chain) throws IOException, CertificateEncodingException {
+        Properties properties = load(tokenInfo);
+        String prefix = prefix(alias, certLabel);
+        removeEntry(properties, prefix);
+        if (keyHandleAlias != null)
+            properties.setProperty(prefix + "alias", keyHandleAlias);
+        properties.setProperty(prefix + "keyType", String.valueOf(keyEntry.getKeyType()));
+        if (keyEntry.getId() != null)
+            properties.setProperty(prefix + "keyId", Base64.getEncoder().encodeToString(keyEntry.getId()));
+        if (keyEntry.getLabel() != null)
+            properties.setProperty(prefix + "keyLabel", keyEntry.getLabel());
+        properties.setProperty(prefix + "chain.length", String.valueOf(chain.length));
+        for (int i = 0; i < chain.length; i++)
+            properties.setProperty(prefix + "chain." + i, Base64.getEncoder().encodeToString(chain[i].getEncoded()));
+        save(tokenInfo, properties);
+    }
+
+    Selection invalidate(TokenInfo tokenInfo, String prefix) {
+        Properties properties = load(tokenInfo);
+        if (removeEntry(properties, prefix)) {
+            try {
+                save(tokenInfo, properties);
+            } catch (IOException e) {
+                // the store is a mere optimization, so failing to update it is not an error
+            }
+        }
+        return null;
+    }
+
+    static boolean removeEntry(Properties properties, String prefix) {
+        boolean removed = false;
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(prefix)) {
+                properties.remove(name);
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    void save(TokenInfo tokenInfo, Properties properties) throws IOException {
+        Files.createDirectories(directory);
+        Path file = file(tokenInfo);
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try (OutputStream outputStream = Files.newOutputStream(temporary)) {
+            properties.store(outputStream, tokenInfo.getLabel().trim() + " / " + tokenInfo.getSerialNumber().trim());
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    Properties load(TokenInfo tokenInfo) {
+        Properties properties = new Properties();
+        Path file = file(tokenInfo);
+        if (Files.isReadable(file)) {
+            try (InputStream inputStream = Files.newInputStream(file)) {
+                properties.load(inputStream);
+            } catch (IOException | IllegalArgumentException e) {
+                // a broken store file merely means a full selection
+                properties.clear();
+            }
+        }
+        return properties;
+    }
+
+    Path file(TokenInfo tokenInfo) {
+        String key = tokenInfo.getManufacturerID().trim() + '\n' + tokenInfo.getModel().trim() + '\n'
+                + tokenInfo.getSerialNumber().trim() + '\n' + tokenInfo.getLabel().trim();
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder("token-");
+            for (int i = 0; i < 8; i++)
+                builder.append(String.format("%02x", hash[i]));
+            return directory.resolve(builder.append(".properties").toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String prefix(String alias, String certLabel) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(
+                (String.valueOf(alias) + '\n' + String.valueOf(certLabel)).getBytes(StandardCharsets.UTF_8)) + '.';
+    }
+
+    static byte[] decode(String value) {
+        return value != null ? Base64.getDecoder().decode(value) : null;
+    }
+
+    /**
+     * A stored and validated selection.
+     */
+    public static class Selection {
+        String alias;
+        Long keyType;
+        byte[] keyId;
+        String keyLabel;
+        long keyHandle;
+        final List<byte[]> chain = new ArrayList<>();
+
+        public String getAlias() {
+            return alias;
+        }
+
+        public Long getKeyType() {
+            return keyType;
+        }
+
+        public long getKeyHandle() {
+            return keyHandle;
+        }
+
+        /** The DER encoded certificate chain, signer certificate first. */
+        public List<byte[]> getChain() {
+            return chain;
+        }
+    }
+}
@@ -45,6 +45,12 @@ public class Pkcs11WrapperSignature extends Pkcs11WrapperKeyAndCertificate imple
         return this;
     }
 
+    @Override
+    public Pkcs11WrapperSignature setHashingMode(HashingMode hashingMode) {
+        super.setHashingMode(hashingMode);
+        return this;
+    }
+
     @Override
     public String getSignatureAlgorithmName() {
         return signatureAlgorithmName;
@@ -67,6 +73,14 @@ public class Pkcs11WrapperSignature extends Pkcs11WrapperKeyAndCertificate imple
 
     @Override
     public byte[] sign(byte[] message) throws GeneralSecurityException {
+        Pkcs11WrapperRawMechanism rawMechanism = Pkcs11WrapperRawMechanism.forAlgorithm(digestAlgorithmName + "with" + signatureAlgorithmName);
+        try {
+            if (isHashingOnHost(rawMechanism))
+                return signHash(rawMechanism, rawMechanism.createMessageDigest().digest(message));
+        } catch (TokenException | IOException e) {
+            throw new GeneralSecurityException(e);
+        }
+
         long mechanismId;
         switch(signatureAlgorithmName) {
         case "DSA":
@@ -140,9 +154,8 @@ public class Pkcs11WrapperSignature extends Pkcs11WrapperKeyAndCertificate imple
 
         Mechanism signatureMechanism = Mechanism.get(mechanismId);
         try {
-            session.signInit(signatureMechanism, privateKey);
-            return session.sign(message);
-        } catch (TokenException e) {
+            return encodeSignature(rawMechanism, sign(signatureMechanism, message));
+        } catch (TokenException | IOException e) {
             throw new GeneralSecurityException(e);
         } 
     }
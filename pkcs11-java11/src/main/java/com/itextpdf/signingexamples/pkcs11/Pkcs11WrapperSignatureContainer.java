@@ -2,26 +2,18 @@ package com.itextpdf.signingexamples.pkcs11;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.security.GeneralSecurityException;
 import java.security.cert.CertificateException;
-import java.util.Arrays;
-
-import org.bouncycastle.asn1.ASN1ObjectIdentifier;
-import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
-import org.bouncycastle.cert.X509CertificateHolder;
-import org.bouncycastle.cert.jcajce.JcaCertStore;
-import org.bouncycastle.cms.CMSException;
-import org.bouncycastle.cms.CMSSignedData;
-import org.bouncycastle.cms.CMSSignedDataGenerator;
-import org.bouncycastle.cms.CMSTypedData;
-import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
-import org.bouncycastle.operator.OperatorCreationException;
-import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+
+import org.bouncycastle.operator.ContentSigner;
 
 import com.itextpdf.kernel.pdf.PdfDictionary;
 import com.itextpdf.kernel.pdf.PdfName;
 import com.itextpdf.signatures.IExternalSignatureContainer;
+import com.itextpdf.signingexamples.common.CMSSignedDataTemplate;
+import com.itextpdf.signingexamples.common.CMSTypedDataInputStream;
+import com.itextpdf.signingexamples.common.SignatureContainerSizeEstimator;
+import com.itextpdf.signingexamples.common.SizeEstimatingSignatureContainer;
 
 import iaik.pkcs.pkcs11.TokenException;
 
@@ -32,8 +24,12 @@ import iaik.pkcs.pkcs11.TokenException;
  * 
  * @author mkl
  */
-public class Pkcs11WrapperSignatureContainer extends Pkcs11WrapperKeyAndCertificate implements IExternalSignatureContainer {
+public class Pkcs11WrapperSignatureContainer extends Pkcs11WrapperKeyAndCertificate implements SizeEstimatingSignatureContainer {
     String signatureAlgorithm = null;
+    boolean streaming = false;
+
+    /** The CMS template for the certificate chain and algorithm last used */
+    volatile CMSSignedDataTemplate template;
 
     public Pkcs11WrapperSignatureContainer(String libraryPath, long slotId) throws IOException, TokenException {
         super(libraryPath, slotId);
@@ -46,6 +42,12 @@ public class Pkcs11WrapperSignatureContainer extends Pkcs11WrapperKeyAndCertific
         return this;
     }
 
+    @Override
+    public Pkcs11WrapperSignatureContainer setHashingMode(HashingMode hashingMode) {
+        super.setHashingMode(hashingMode);
+        return this;
+    }
+
     public String getSignatureAlgorithm() {
         return signatureAlgorithm;
     }
@@ -55,24 +57,52 @@ public class Pkcs11WrapperSignatureContainer extends Pkcs11WrapperKeyAndCertific
         return this;
     }
 
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Sets whether to forward the to-be-signed data to the token in chunks
+     * instead of collecting them first, see {@link #buildStreamingContentSigner(String)}.
+     */
+    public Pkcs11WrapperSignatureContainer setStreaming(boolean streaming) {
+        this.streaming = streaming;
+        return this;
+    }
+
     @Override
     public byte[] sign(InputStream data) throws GeneralSecurityException {
         try {
-            CMSTypedData msg = new CMSTypedDataInputStream(data);
-
-            X509CertificateHolder signCert = new X509CertificateHolder(chain[0].getEncoded());
-
-            CMSSignedDataGenerator gen = new CMSSignedDataGenerator();
-
-            gen.addSignerInfoGenerator(
-                    new JcaSignerInfoGeneratorBuilder(new JcaDigestCalculatorProviderBuilder().setProvider("BC").build())
-                            .build(buildContentSigner(signatureAlgorithm), signCert));
+            ContentSigner contentSigner = streaming ? buildStreamingContentSigner(signatureAlgorithm) : buildContentSigner(signatureAlgorithm);
+            try {
+                return template(contentSigner).sign(new CMSTypedDataInputStream(data), contentSigner);
+            } catch (GeneralSecurityException | RuntimeException e) {
+                if (contentSigner instanceof StreamingContentSigner)
+                    ((StreamingContentSigner) contentSigner).abort();
+                throw e;
+            }
+        } catch (TokenException e) {
+            throw new GeneralSecurityException(e);
+        }
+    }
 
-            gen.addCertificates(new JcaCertStore(Arrays.asList(chain)));
+    /**
+     * Returns the CMS template for the selected certificate chain and the
+     * algorithm of the given content signer, creating it anew only after
+     * either of them has changed.
+     */
+    CMSSignedDataTemplate template(ContentSigner contentSigner) throws GeneralSecurityException {
+        CMSSignedDataTemplate template = this.template;
+        if (template == null || !template.matches(chain, contentSigner.getAlgorithmIdentifier()))
+            this.template = template = new CMSSignedDataTemplate(chain, contentSigner.getAlgorithmIdentifier());
+        return template;
+    }
 
-            CMSSignedData sigData = gen.generate(msg, false);
-            return sigData.getEncoded();
-        } catch (IOException | OperatorCreationException | CMSException | TokenException e) {
+    @Override
+    public int estimateSize() throws GeneralSecurityException {
+        try {
+            return new SignatureContainerSizeEstimator(template(buildContentSigner(signatureAlgorithm))).estimate();
+        } catch (TokenException e) {
             throw new GeneralSecurityException(e);
         }
     }
@@ -82,33 +112,4 @@ public class Pkcs11WrapperSignatureContainer extends Pkcs11WrapperKeyAndCertific
         signDic.put(PdfName.Filter, new PdfName("MKLx_PKCS11_WRAPPER_SIGNER"));
         signDic.put(PdfName.SubFilter, PdfName.Adbe_pkcs7_detached);
     }
-
-    class CMSTypedDataInputStream implements CMSTypedData {
-        InputStream in;
-
-        public CMSTypedDataInputStream(InputStream is) {
-            in = is;
-        }
-
-        @Override
-        public ASN1ObjectIdentifier getContentType() {
-            return PKCSObjectIdentifiers.data;
-        }
-
-        @Override
-        public Object getContent() {
-            return in;
-        }
-
-        @Override
-        public void write(OutputStream out) throws IOException,
-                CMSException {
-            byte[] buffer = new byte[8 * 1024];
-            int read;
-            while ((read = in.read(buffer)) != -1) {
-                out.write(buffer, 0, read);
-            }
-            in.close();
-        }
-    }
 }
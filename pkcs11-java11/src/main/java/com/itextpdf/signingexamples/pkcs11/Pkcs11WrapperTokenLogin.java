@@ -0,0 +1,340 @@
+package com.itextpdf.signingexamples.pkcs11;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.SessionInfo;
+import iaik.pkcs.pkcs11.State;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+
+/**
+ * <p>
+ * This class manages the login to tokens for all
+ * {@link Pkcs11WrapperKeyAndCertificate} instances in a process.
+ * </p>
+ * <p>
+ * PKCS#11 modules are initialized once per library and shared, cf.
+ * {@link #acquireModule(String)} and {@link #releaseModule(Module)}, as
+ * <code>C_Initialize</code> and <code>C_Finalize</code> affect the whole
+ * process. For each token, a dedicated session is opened and logged in
+ * once; as the login state of a PKCS#11 application is shared by all its
+ * sessions with the token, all other sessions are logged in, too.
+ * </p>
+ * <p>
+ * That dedicated session is checked regularly by a daemon thread, and if
+ * it turns out to be lost, e.g. due to card removal or HSM failover, a
+ * new one is opened and logged in again with the PIN originally used.
+ * Signers may also request such a re-login themselves, cf. {@link #relogin()},
+ * after an operation failed as indicated by {@link #isLoginLost(TokenException)}.
+ * </p>
+ * <p>
+ * A PIN is kept for re-logins once a login with it has succeeded. If the
+ * token already was logged in by someone else, the token cannot check the
+ * PIN; it then is kept unchecked, but a login with a PIN differing from one
+ * checked before is rejected.
+ * </p>
+ * <p>
+ * If a re-login fails because the PIN is incorrect, locked, or expired,
+ * the session checks stop and no further automatic re-login is attempted,
+ * lest repeated attempts lock the PIN; only an explicit {@link #login(char[])}
+ * resumes them.
+ * </p>
+ */
+public class Pkcs11WrapperTokenLogin {
+    /** The interval of the session checks in seconds. */
+    public static final long KEEP_ALIVE_INTERVAL_SECONDS = 60;
+
+    /** The error codes indicating that the session or the login has been lost. */
+    static final List<Long> LOGIN_LOST_ERROR_CODES = List.of(PKCS11Constants.CKR_USER_NOT_LOGGED_IN,
+            PKCS11Constants.CKR_SESSION_HANDLE_INVALID, PKCS11Constants.CKR_SESSION_CLOSED,
+            PKCS11Constants.CKR_KEY_HANDLE_INVALID, PKCS11Constants.CKR_OBJECT_HANDLE_INVALID);
+
+    /** The error codes indicating that the PIN has not been accepted. */
+    static final List<Long> PIN_ERROR_CODES = List.of(PKCS11Constants.CKR_PIN_INCORRECT,
+            PKCS11Constants.CKR_PIN_INVALID, PKCS11Constants.CKR_PIN_LEN_RANGE,
+            PKCS11Constants.CKR_PIN_EXPIRED, PKCS11Constants.CKR_PIN_LOCKED);
+
+    static final Map<String, SharedModule> MODULES = new HashMap<>();
+
+    static final Object KEEP_ALIVE_LOCK = new Object();
+    static ScheduledExecutorService keepAliveExecutor = null;
+
+    /**
+     * Returns the initialized module for the given library, loading and
+     * initializing it on first request.
+     */
+    public static synchronized Module acquireModule(String libraryPath) throws IOException, TokenException {
+        SharedModule sharedModule = MODULES.get(libraryPath);
+        if (sharedModule == null) {
+            Module module = Module.getInstance(libraryPath);
+            boolean initialized = true;
+            try {
+                module.initialize(null);
+            } catch (PKCS11Exception e) {
+                // e.g. the SunPKCS11 provider may already use the library in this process
+                if (e.getErrorCode() != PKCS11Constants.CKR_CRYPTOKI_ALREADY_INITIALIZED)
+                    throw e;
+                initialized = false;
+            }
+            sharedModule = new SharedModule(libraryPath, module, initialized);
+            MODULES.put(libraryPath, sharedModule);
+        }
+        sharedModule.references++;
+        return sharedModule.module;
+    }
+
+    /**
+     * Releases a module retrieved from {@link #acquireModule(String)},
+     * finalizing it when it is not used anymore unless it already had
+     * been initialized by someone else.
+     */
+    public static synchronized void releaseModule(Module module) throws TokenException {
+        SharedModule sharedModule = forModule(module);
+        if (sharedModule == null || --sharedModule.references > 0)
+            return;
+        MODULES.remove(sharedModule.libraryPath);
+        for (Pkcs11WrapperTokenLogin login : sharedModule.logins.values())
+            login.close();
+        if (sharedModule.initialized)
+            module.finalize(null);
+    }
+
+    /**
+     * Returns the login manager for the given token of a module retrieved
+     * from {@link #acquireModule(String)}.
+     */
+    public static synchronized Pkcs11WrapperTokenLogin forToken(Module module, long slotId, Token token) {
+        SharedModule sharedModule = forModule(module);
+        if (sharedModule == null)
+            throw new IllegalArgumentException("Module has not been acquired from Pkcs11WrapperTokenLogin");
+        return sharedModule.logins.computeIfAbsent(slotId, id -> new Pkcs11WrapperTokenLogin(token));
+    }
+
+    /**
+     * Checks whether the given exception indicates that the session or the
+     * login has been lost and, therefore, the operation may succeed after a
+     * {@link #relogin()}.
+     */
+    public static boolean isLoginLost(TokenException e) {
+        return e instanceof PKCS11Exception && LOGIN_LOST_ERROR_CODES.contains(((PKCS11Exception) e).getErrorCode());
+    }
+
+    static boolean isPinError(TokenException e) {
+        return e instanceof PKCS11Exception && PIN_ERROR_CODES.contains(((PKCS11Exception) e).getErrorCode());
+    }
+
+    static SharedModule forModule(Module module) {
+        for (SharedModule sharedModule : MODULES.values()) {
+            if (sharedModule.module == module)
+                return sharedModule;
+        }
+        return null;
+    }
+
+    final Token token;
+    Session loginSession = null;
+    char[] pin = null;
+    boolean pinVerified = false;
+    TokenException pinFailure = null;
+    ScheduledFuture<?> keepAlive = null;
+
+    Pkcs11WrapperTokenLogin(Token token) {
+        this.token = token;
+    }
+
+    /**
+     * Makes sure the token is logged in, logging in with the given PIN
+     * unless already logged in with it. If the token already is logged in
+     * with a different PIN which has been verified, the given PIN is
+     * rejected, as it cannot be checked without logging out all sessions.
+     */
+    public synchronized void login(char[] pin) throws TokenException {
+        if (loginSession != null && isLoggedIn()) {
+            if (Arrays.equals(pin, this.pin))
+                return;
+            if (pinVerified)
+                throw new TokenException("Token already is logged in with a different PIN");
+        }
+        Session session = openLoginSession();
+        boolean verified;
+        try {
+            verified = login(session, pin);
+        } catch (TokenException e) {
+            closeSession(session, e);
+            throw e;
+        }
+        if (!verified && pinVerified && !Arrays.equals(pin, this.pin)) {
+            TokenException e = new TokenException("Token already is logged in with a different PIN");
+            closeSession(session, e);
+            throw e;
+        }
+        setPin(pin, verified || pinVerified);
+        pinFailure = null;
+        useLoginSession(session);
+    }
+
+    /**
+     * Makes sure the token is logged in, logging in again with the PIN
+     * used before if the login has been lost.
+     */
+    public synchronized void ensureLoggedIn() throws TokenException {
+        if (loginSession == null || !isLoggedIn())
+            relogin();
+    }
+
+    /**
+     * Opens a new dedicated session and logs in again with the PIN used
+     * before. Other sessions with the token may have become invalid and
+     * have to be re-opened by their users. After the PIN has not been
+     * accepted once, this fails without another login attempt.
+     */
+    public synchronized void relogin() throws TokenException {
+        if (pinFailure != null)
+            throw new TokenException("No automatic re-login after the PIN has not been accepted", pinFailure);
+        Session session = openLoginSession();
+        try {
+            if (login(session, pin))
+                pinVerified = true;
+        } catch (TokenException e) {
+            closeSession(session, e);
+            if (isPinError(e)) {
+                pinFailure = e;
+                cancelKeepAlive();
+                setPin(null, false);
+            }
+            throw e;
+        }
+        useLoginSession(session);
+    }
+
+    Session openLoginSession() throws TokenException {
+        return token.openSession(Token.SessionType.SERIAL_SESSION, Token.SessionReadWriteBehavior.RO_SESSION, null, null);
+    }
+
+    /**
+     * Logs in the given session with the given PIN and returns whether the
+     * PIN actually has been checked, i.e. <code>false</code> if the token
+     * already was logged in.
+     */
+    static boolean login(Session session, char[] pin) throws TokenException {
+        try {
+            session.login(Session.UserType.USER, pin);
+            return true;
+        } catch (PKCS11Exception e) {
+            if (e.getErrorCode() != PKCS11Constants.CKR_USER_ALREADY_LOGGED_IN)
+                throw e;
+            return false;
+        }
+    }
+
+    void useLoginSession(Session session) {
+        // only close the former session now lest the token log out in between
+        closeLoginSession();
+        loginSession = session;
+        scheduleKeepAlive();
+    }
+
+    void setPin(char[] pin, boolean verified) {
+        if (this.pin != null)
+            Arrays.fill(this.pin, ' ');
+        this.pin = pin != null ? pin.clone() : null;
+        this.pinVerified = verified;
+    }
+
+    static void closeSession(Session session, Exception e) {
+        try {
+            session.closeSession();
+        } catch (TokenException e2) {
+            e.addSuppressed(e2);
+        }
+    }
+
+    boolean isLoggedIn() {
+        try {
+            SessionInfo info = loginSession.getSessionInfo();
+            State state = info.getState();
+            return State.RO_USER_FUNCTIONS.equals(state) || State.RW_USER_FUNCTIONS.equals(state);
+        } catch (TokenException e) {
+            return false;
+        }
+    }
+
+    synchronized void keepAlive() {
+        if (keepAlive == null)
+            return;
+        try {
+            ensureLoggedIn();
+        } catch (TokenException e) {
+            // the token may be unavailable for the time being; try again next time
+            // unless the PIN has not been accepted, in which case relogin() stopped the checks
+            closeLoginSession();
+        }
+    }
+
+    void scheduleKeepAlive() {
+        if (keepAlive != null)
+            return;
+        synchronized (KEEP_ALIVE_LOCK) {
+            if (keepAliveExecutor == null) {
+                keepAliveExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "PKCS#11 token keep-alive");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            keepAlive = keepAliveExecutor.scheduleWithFixedDelay(this::keepAlive,
+                    KEEP_ALIVE_INTERVAL_SECONDS, KEEP_ALIVE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    void cancelKeepAlive() {
+        if (keepAlive != null) {
+            keepAlive.cancel(false);
+            keepAlive = null;
+        }
+    }
+
+    synchronized void close() {
+        cancelKeepAlive();
+        closeLoginSession();
+        setPin(null, false);
+    }
+
+    void closeLoginSession() {
+        if (loginSession != null) {
+            try {
+                loginSession.closeSession();
+            } catch (TokenException e) {
+                // the session may be lost already
+            } finally {
+                loginSession = null;
+            }
+        }
+    }
+
+    static class SharedModule {
+        final String libraryPath;
+        final Module module;
+        final boolean initialized;
+        final Map<Long, Pkcs11WrapperTokenLogin> logins = new HashMap<>();
+        int references = 0;
+
+        SharedModule(String libraryPath, Module module, boolean initialized) {
+            this.libraryPath = libraryPath;
+            this.module = module;
+            this.initialized = initialized;
+        }
+    }
+}
@@ -80,7 +80,7 @@ public class BaseSignSimple {
                 OutputStream resultStream = new FileOutputStream(result)    ) {
             PdfSigner pdfSigner = new PdfSigner(pdfReader, resultStream, new StampingProperties().useAppendMode());
 
-            pdfSigner.signExternalContainer(signature, 8192);
+            pdfSigner.signExternalContainer(signature, signature.estimateSize());
         }
     }
 
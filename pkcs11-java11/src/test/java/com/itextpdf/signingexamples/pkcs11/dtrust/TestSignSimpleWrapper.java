@@ -21,6 +21,7 @@ import com.itextpdf.signatures.PdfSigner;
 import com.itextpdf.signatures.PdfSigner.CryptoStandard;
 
 import iaik.pkcs.pkcs11.TokenException;
+import com.itextpdf.signingexamples.pkcs11.Pkcs11WrapperKeyAndCertificate.HashingMode;
 import com.itextpdf.signingexamples.pkcs11.Pkcs11WrapperSignature;
 import com.itextpdf.signingexamples.pkcs11.Pkcs11WrapperSignatureContainer;
 
@@ -71,6 +72,28 @@ class TestSignSimpleWrapper {
         }
     }
 
+    /**
+     * Signs a PDF using {@link Pkcs11WrapperSignature} with SHA256andRSA,
+     * hashing on the host and merely signing the hash on the card.
+     */
+    @Test
+    void testExternalSignatureSha256HostHashing() throws TokenException, IOException, GeneralSecurityException {
+        String certLabel = "Signaturzertifikat";
+        char[] pin = "12345678".toCharArray();
+        File result = new File(RESULT_FOLDER, "circles-pkcs11-signed-simple-dtrust-wrapper-sha256-host-hashing.pdf");
+        ITSAClient tsaClient = null;
+
+        try (   Pkcs11WrapperSignature signature = new Pkcs11WrapperSignature("c:/Program Files (x86)/Personal/bin64/personal64.dll", 1);
+                InputStream resource = getClass().getResourceAsStream("/circles.pdf");
+                PdfReader pdfReader = new PdfReader(resource);
+                OutputStream resultStream = new FileOutputStream(result)    ) {
+            PdfSigner pdfSigner = new PdfSigner(pdfReader, resultStream, new StampingProperties().useAppendMode());
+            signature.select(null, certLabel, pin).setDigestAlgorithmName("SHA256").setHashingMode(HashingMode.AUTO);
+            IExternalDigest externalDigest = new BouncyCastleDigest();
+            pdfSigner.signDetached(externalDigest , signature, signature.getChain(), null, null, tsaClient, 0, CryptoStandard.CMS);
+        }
+    }
+
     /**
      * Signs a PDF using {@link Pkcs11WrapperSignatureContainer} with SHA256andRSA.
      */
@@ -89,7 +112,7 @@ class TestSignSimpleWrapper {
                 OutputStream resultStream = new FileOutputStream(result)    ) {
             PdfSigner pdfSigner = new PdfSigner(pdfReader, resultStream, new StampingProperties().useAppendMode());
             signature.select(null, certLabel, pin).setSignatureAlgorithm("SHA256withRSA");
-            pdfSigner.signExternalContainer(signature, 8192);
+            pdfSigner.signExternalContainer(signature, signature.estimateSize());
         }
     }
 
@@ -111,7 +134,39 @@ class TestSignSimpleWrapper {
                 OutputStream resultStream = new FileOutputStream(result)    ) {
             PdfSigner pdfSigner = new PdfSigner(pdfReader, resultStream, new StampingProperties().useAppendMode());
             signature.select(null, certLabel, pin).setSignatureAlgorithm("SHA256withRSAandMGF1");
-            pdfSigner.signExternalContainer(signature, 8192);
+            pdfSigner.signExternalContainer(signature, signature.estimateSize());
+        }
+    }
+
+    /**
+     * Signs two PDFs using two {@link Pkcs11WrapperSignature} instances for
+     * the same card at the same time. The card is logged in only once, cf.
+     * {@link com.itextpdf.signingexamples.pkcs11.Pkcs11WrapperTokenLogin}.
+     */
+    @Test
+    void testExternalSignatureSha256SharedLogin() throws TokenException, IOException, GeneralSecurityException {
+        String certLabel = "Signaturzertifikat";
+        char[] pin = "12345678".toCharArray();
+        File result1 = new File(RESULT_FOLDER, "circles-pkcs11-signed-simple-dtrust-wrapper-sha256-shared-1.pdf");
+        File result2 = new File(RESULT_FOLDER, "circles-pkcs11-signed-simple-dtrust-wrapper-sha256-shared-2.pdf");
+
+        try (   Pkcs11WrapperSignature signature1 = new Pkcs11WrapperSignature("c:/Program Files (x86)/Personal/bin64/personal64.dll", 1);
+                Pkcs11WrapperSignature signature2 = new Pkcs11WrapperSignature("c:/Program Files (x86)/Personal/bin64/personal64.dll", 1)  ) {
+            signature1.select(null, certLabel, pin).setDigestAlgorithmName("SHA256");
+            signature2.select(null, certLabel, pin).setDigestAlgorithmName("SHA256");
+
+            signDetached(signature1, result1);
+            signDetached(signature2, result2);
+        }
+    }
+
+    void signDetached(Pkcs11WrapperSignature signature, File result) throws IOException, GeneralSecurityException {
+        try (   InputStream resource = getClass().getResourceAsStream("/circles.pdf");
+                PdfReader pdfReader = new PdfReader(resource);
+                OutputStream resultStream = new FileOutputStream(result)    ) {
+            PdfSigner pdfSigner = new PdfSigner(pdfReader, resultStream, new StampingProperties().useAppendMode());
+            IExternalDigest externalDigest = new BouncyCastleDigest();
+            pdfSigner.signDetached(externalDigest , signature, signature.getChain(), null, null, null, 0, CryptoStandard.CMS);
         }
     }
 }
@@ -1,5 +1,11 @@
 package com.itextpdf.signingexamples.pkcs11.generic;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
 /**
  * This utility class retrieves information from the environment
  * to use as seeds to configure PKCS11 test cases. The variables
@@ -54,6 +60,25 @@ public class TestEnvironment {
         return config;
     }
 
+    /**
+     * Returns the value of the given entry of the given PKCS11 driver
+     * configuration, reading the configuration file if the configuration
+     * is not given inline, or <code>null</code> if there is no such entry.
+     */
+    public static String getPkcs11ConfigValue(String config, String key) throws IOException {
+        List<String> lines = config.startsWith("--") ?
+                List.of(config.substring(2).split("\n")) :
+                Files.readAllLines(Paths.get(config), StandardCharsets.UTF_8);
+        for (String line : lines) {
+            if (line.trim().startsWith("#"))
+                continue;
+            String[] parts = line.split("=", 2);
+            if (parts.length == 2 && parts[0].trim().equals(key))
+                return parts[1].trim();
+        }
+        return null;
+    }
+
     public static String getPkcs11Alias() {
         String envValue = System.getenv("PKCS11_ALIAS");
         if (envValue == null || envValue.length() == 0)
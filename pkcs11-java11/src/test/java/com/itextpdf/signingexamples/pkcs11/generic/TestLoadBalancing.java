@@ -0,0 +1,122 @@
+package com.itextpdf.signingexamples.pkcs11.generic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.ProviderException;
+import java.security.Security;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.StampingProperties;
+import com.itextpdf.signatures.BouncyCastleDigest;
+import com.itextpdf.signatures.IExternalDigest;
+import com.itextpdf.signatures.PdfSigner;
+import com.itextpdf.signatures.PdfSigner.CryptoStandard;
+import com.itextpdf.signingexamples.pkcs11.Pkcs11LoadBalancer;
+import com.itextpdf.signingexamples.pkcs11.Pkcs11LoadBalancingSignature;
+import com.itextpdf.signingexamples.pkcs11.Pkcs11LoadBalancingSignatureContainer;
+import com.itextpdf.signingexamples.pkcs11.Pkcs11Signature;
+
+/**
+ * This test class signs PDF files using {@link Pkcs11LoadBalancingSignature}
+ * and {@link Pkcs11LoadBalancingSignatureContainer} with two backends
+ * configured according to the values the {@link TestEnvironment} utility
+ * provides. For lack of a second device both backends access the same
+ * device via separate provider instances.
+ */
+class TestLoadBalancing {
+    final static File RESULT_FOLDER = new File("target/test-outputs", "signature");
+
+    @BeforeAll
+    public static void setUpBeforeClass() throws Exception {
+        RESULT_FOLDER.mkdirs();
+        BouncyCastleProvider provider = new BouncyCastleProvider();
+        Security.addProvider(provider);
+    }
+
+    @Test
+    void testSignLoadBalanced() throws IOException, GeneralSecurityException {
+        Pkcs11LoadBalancer loadBalancer = createLoadBalancer();
+        Pkcs11LoadBalancingSignature signature = new Pkcs11LoadBalancingSignature(loadBalancer);
+
+        for (int i = 0; i < 4; i++) {
+            File result = new File(RESULT_FOLDER, "circles-pkcs11-signed-load-balanced-generic-" + i + ".pdf");
+            try (   InputStream resource = getClass().getResourceAsStream("/circles.pdf");
+                    PdfReader pdfReader = new PdfReader(resource);
+                    OutputStream resultStream = new FileOutputStream(result)    ) {
+                PdfSigner pdfSigner = new PdfSigner(pdfReader, resultStream, new StampingProperties().useAppendMode());
+
+                IExternalDigest externalDigest = new BouncyCastleDigest();
+                pdfSigner.signDetached(externalDigest , signature, signature.getChain(), null, null, null, 0, CryptoStandard.CMS);
+            }
+        }
+
+        for (Pkcs11LoadBalancer.Backend backend : loadBalancer.getBackends())
+            System.out.printf("Backend: %d successes, %d failures\n", backend.getSuccesses(), backend.getFailures());
+    }
+
+    @Test
+    void testSignLoadBalancedContainer() throws IOException, GeneralSecurityException {
+        Pkcs11LoadBalancer loadBalancer = createLoadBalancer();
+        Pkcs11LoadBalancingSignatureContainer signature = new Pkcs11LoadBalancingSignatureContainer(loadBalancer, PdfName.Adbe_pkcs7_detached);
+
+        for (int i = 0; i < 4; i++) {
+            File result = new File(RESULT_FOLDER, "circles-pkcs11-signed-load-balanced-container-generic-" + i + ".pdf");
+            try (   InputStream resource = getClass().getResourceAsStream("/circles.pdf");
+                    PdfReader pdfReader = new PdfReader(resource);
+                    OutputStream resultStream = new FileOutputStream(result)    ) {
+                PdfSigner pdfSigner = new PdfSigner(pdfReader, resultStream, new StampingProperties().useAppendMode());
+
+                pdfSigner.signExternalContainer(signature, signature.estimateSize());
+            }
+        }
+
+        for (Pkcs11LoadBalancer.Backend backend : loadBalancer.getBackends())
+            System.out.printf("Backend: %d successes, %d failures\n", backend.getSuccesses(), backend.getFailures());
+    }
+
+    @Test
+    void testEjectOnlyOnBackendFailures() throws IOException, GeneralSecurityException {
+        Pkcs11LoadBalancer loadBalancer = createLoadBalancer();
+
+        assertThrows(NoSuchAlgorithmException.class, () -> loadBalancer.execute(backend -> {
+            throw new NoSuchAlgorithmException("Caller error");
+        }));
+        for (Pkcs11LoadBalancer.Backend backend : loadBalancer.getBackends()) {
+            assertFalse(backend.isEjected(), "Backend ejected due to a caller error");
+            assertEquals(0, backend.getFailures());
+        }
+
+        assertThrows(GeneralSecurityException.class, () -> loadBalancer.execute(backend -> {
+            throw new ProviderException("Device error");
+        }));
+        for (Pkcs11LoadBalancer.Backend backend : loadBalancer.getBackends()) {
+            assertTrue(backend.isEjected(), "Backend not ejected due to a device error");
+            assertEquals(1, backend.getFailures());
+        }
+    }
+
+    Pkcs11LoadBalancer createLoadBalancer() throws IOException, GeneralSecurityException {
+        Pkcs11LoadBalancer loadBalancer = new Pkcs11LoadBalancer();
+        for (int i = 0; i < 2; i++) {
+            Pkcs11Signature signature = new Pkcs11Signature(TestEnvironment.getPkcs11Config())
+                    .select(TestEnvironment.getPkcs11Alias(), TestEnvironment.getPkcs11Pin()).setDigestAlgorithmName("SHA256");
+            loadBalancer.addBackend(signature);
+        }
+        return loadBalancer;
+    }
+}
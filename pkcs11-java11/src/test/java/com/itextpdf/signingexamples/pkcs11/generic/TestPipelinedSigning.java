@@ -0,0 +1,105 @@
+package com.itextpdf.signingexamples.pkcs11.generic;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.itextpdf.signatures.IExternalSignature;
+import com.itextpdf.signatures.ISignatureMechanismParams;
+import com.itextpdf.signingexamples.pkcs11.Pkcs11PipelinedSigner;
+import com.itextpdf.signingexamples.pkcs11.Pkcs11Signature;
+
+/**
+ * This test class signs a batch of PDF files using a {@link Pkcs11PipelinedSigner}
+ * with a {@link Pkcs11Signature} configured according to the values the
+ * {@link TestEnvironment} utility provides, and reports the utilization
+ * of the device.
+ */
+class TestPipelinedSigning {
+    final static File RESULT_FOLDER = new File("target/test-outputs", "signature");
+
+    @BeforeAll
+    public static void setUpBeforeClass() throws Exception {
+        RESULT_FOLDER.mkdirs();
+        BouncyCastleProvider provider = new BouncyCastleProvider();
+        Security.addProvider(provider);
+    }
+
+    @Test
+    void testSignBatchPipelined() throws IOException, GeneralSecurityException {
+        File source = new File(RESULT_FOLDER, "circles.pdf");
+        try (   InputStream resource = getClass().getResourceAsStream("/circles.pdf")   ) {
+            Files.copy(resource, source.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        Pkcs11Signature signature = new Pkcs11Signature(TestEnvironment.getPkcs11Config())
+                .select(TestEnvironment.getPkcs11Alias(), TestEnvironment.getPkcs11Pin()).setDigestAlgorithmName("SHA256");
+
+        long start = System.nanoTime();
+        try (   Pkcs11PipelinedSigner signer = new Pkcs11PipelinedSigner(signature, signature.getChain())   ) {
+            List<CompletableFuture<File>> results = new ArrayList<>();
+            for (int i = 0; i < 20; i++)
+                results.add(signer.submit(source, new File(RESULT_FOLDER, "circles-pkcs11-signed-pipelined-generic-" + i + ".pdf")));
+            CompletableFuture.allOf(results.toArray(new CompletableFuture[results.size()])).join();
+
+            System.out.printf("20 documents in %d ms, device utilization %.1f%%\n",
+                    (System.nanoTime() - start) / 1000000, signer.getDeviceUtilization() * 100);
+        }
+    }
+
+    @Test
+    void testFailureLeavesNoTarget() throws IOException, GeneralSecurityException {
+        File source = new File(RESULT_FOLDER, "circles.pdf");
+        try (   InputStream resource = getClass().getResourceAsStream("/circles.pdf")   ) {
+            Files.copy(resource, source.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        Pkcs11Signature signature = new Pkcs11Signature(TestEnvironment.getPkcs11Config())
+                .select(TestEnvironment.getPkcs11Alias(), TestEnvironment.getPkcs11Pin()).setDigestAlgorithmName("SHA256");
+        IExternalSignature failingSignature = new IExternalSignature() {
+            @Override
+            public String getDigestAlgorithmName() {
+                return signature.getDigestAlgorithmName();
+            }
+
+            @Override
+            public String getSignatureAlgorithmName() {
+                return signature.getSignatureAlgorithmName();
+            }
+
+            @Override
+            public ISignatureMechanismParams getSignatureMechanismParameters() {
+                return signature.getSignatureMechanismParameters();
+            }
+
+            @Override
+            public byte[] sign(byte[] message) throws GeneralSecurityException {
+                throw new GeneralSecurityException("Simulated device failure");
+            }
+        };
+
+        File target = new File(RESULT_FOLDER, "circles-pkcs11-signed-pipelined-failing-generic.pdf");
+        Files.deleteIfExists(target.toPath());
+        try (   Pkcs11PipelinedSigner signer = new Pkcs11PipelinedSigner(failingSignature, signature.getChain())   ) {
+            CompletableFuture<File> result = signer.submit(source, target);
+            assertThrows(CompletionException.class, result::join);
+        }
+        assertFalse(target.exists(), "Partial target left");
+        assertFalse(new File(RESULT_FOLDER, target.getName() + Pkcs11PipelinedSigner.PART_SUFFIX).exists(), "Temporary file left");
+    }
+}
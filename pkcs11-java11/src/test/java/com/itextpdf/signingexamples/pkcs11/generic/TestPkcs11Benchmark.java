@@ -0,0 +1,345 @@
+package com.itextpdf.signingexamples.pkcs11.generic;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.Provider;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.itextpdf.io.util.StreamUtil;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfStream;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.StampingProperties;
+import com.itextpdf.signatures.BouncyCastleDigest;
+import com.itextpdf.signatures.IExternalSignature;
+import com.itextpdf.signatures.IExternalSignatureContainer;
+import com.itextpdf.signatures.PdfSigner;
+import com.itextpdf.signatures.PdfSigner.CryptoStandard;
+import com.itextpdf.signingexamples.common.SignatureContainerSizeEstimator;
+import com.itextpdf.signingexamples.pkcs11.Pkcs11Signature;
+import com.itextpdf.signingexamples.pkcs11.Pkcs11SignatureContainer;
+import com.itextpdf.signingexamples.pkcs11.Pkcs11WrapperSignature;
+import com.itextpdf.signingexamples.pkcs11.Pkcs11WrapperSignatureContainer;
+
+/**
+ * <p>
+ * This test class benchmarks {@link Pkcs11Signature}, {@link Pkcs11SignatureContainer},
+ * {@link Pkcs11WrapperSignature}, and {@link Pkcs11WrapperSignatureContainer}
+ * across thread counts, algorithms (RSA PKCS#1 v1.5, RSASSA-PSS, ECDSA), and
+ * document sizes, reporting throughput and latency percentiles.
+ * </p>
+ * <p>
+ * The device is configured according to the values the {@link TestEnvironment}
+ * utility provides, by default a SoftHSM2 token. If it does not yet contain
+ * them, an RSA and an EC key with self-signed certificates are generated
+ * on it. The IAIK wrapper based classes are benchmarked only if the
+ * configuration contains <code>library</code> and <code>slot</code> entries.
+ * </p>
+ * <p>
+ * As it takes a while, the benchmark only runs if the environment variable
+ * <b>PKCS11_BENCHMARK</b> is set.
+ * </p>
+ */
+class TestPkcs11Benchmark {
+    final static String RSA_ALIAS = "benchmark-rsa";
+    final static String EC_ALIAS = "benchmark-ec";
+    final static int[] THREAD_COUNTS = { 1, 4, 16 };
+    final static int[] PADDING_SIZES = { 0, 1024 * 1024, 10 * 1024 * 1024 };
+    final static int DOCUMENTS_PER_THREAD = 20;
+    final static int WARMUP_DOCUMENTS_PER_THREAD = 2;
+    final static PSSParameterSpec PSS_SPEC = new PSSParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, 32, 1);
+
+    static String config;
+    static char[] pin;
+    static Provider provider;
+    static List<byte[]> documents = new ArrayList<>();
+
+    @BeforeAll
+    public static void setUpBeforeClass() throws Exception {
+        String benchmark = System.getenv("PKCS11_BENCHMARK");
+        Assumptions.assumeTrue(benchmark != null && benchmark.length() > 0, "PKCS11_BENCHMARK not set");
+
+        Security.addProvider(new BouncyCastleProvider());
+        config = TestEnvironment.getPkcs11Config();
+        pin = TestEnvironment.getPkcs11Pin();
+        provider = Security.getProvider("SunPKCS11").configure(config);
+        Security.addProvider(provider);
+
+        provision(provider, pin);
+
+        byte[] circles;
+        try (   InputStream resource = TestPkcs11Benchmark.class.getResourceAsStream("/circles.pdf")   ) {
+            circles = StreamUtil.inputStreamToArray(resource);
+        }
+        for (int paddingSize : PADDING_SIZES)
+            documents.add(pad(circles, paddingSize));
+    }
+
+    @Test
+    void testBenchmarkPkcs11Signature() throws Exception {
+        Pkcs11Signature rsa = new Pkcs11Signature(provider).select(RSA_ALIAS, pin).setDigestAlgorithmName("SHA256");
+        benchmark("Pkcs11Signature", "SHA256withRSA", () -> (pdf, result) -> signDetached(rsa, rsa.getChain(), pdf, result));
+
+        Pkcs11Signature pss = new Pkcs11Signature(provider).select(RSA_ALIAS, pin).setDigestAlgorithmName("SHA256")
+                .with("SHA256withRSASSA-PSS", PSS_SPEC);
+        benchmark("Pkcs11Signature", "SHA256withRSASSA-PSS", () -> (pdf, result) -> signDetached(pss, pss.getChain(), pdf, result));
+
+        Pkcs11Signature ec = new Pkcs11Signature(provider).select(EC_ALIAS, pin).setDigestAlgorithmName("SHA256");
+        benchmark("Pkcs11Signature", "SHA256withECDSA", () -> (pdf, result) -> signDetached(ec, ec.getChain(), pdf, result));
+    }
+
+    @Test
+    void testBenchmarkPkcs11SignatureContainer() throws Exception {
+        // a single container instance is shared by all threads
+        DocumentSigner rsa = container(RSA_ALIAS, "SHA256withRSA", null);
+        benchmark("Pkcs11SignatureContainer", "SHA256withRSA", () -> rsa);
+        DocumentSigner pss = container(RSA_ALIAS, "SHA256withRSASSA-PSS", PSS_SPEC);
+        benchmark("Pkcs11SignatureContainer", "SHA256withRSASSA-PSS", () -> pss);
+        DocumentSigner ec = container(EC_ALIAS, "SHA256withECDSA", null);
+        benchmark("Pkcs11SignatureContainer", "SHA256withECDSA", () -> ec);
+    }
+
+    @Test
+    void testBenchmarkPkcs11WrapperSignature() throws Exception {
+        String library = TestEnvironment.getPkcs11ConfigValue(config, "library");
+        String slot = TestEnvironment.getPkcs11ConfigValue(config, "slot");
+        if (library == null || slot == null)
+            System.out.println("Skipping the IAIK wrapper benchmarks: no library and slot in PKCS11 configuration");
+        Assumptions.assumeTrue(library != null && slot != null, "No library and slot in PKCS11 configuration");
+
+        benchmark("Pkcs11WrapperSignature", "SHA256withRSA", () -> wrapperSignature(library, Long.parseLong(slot), RSA_ALIAS));
+        benchmark("Pkcs11WrapperSignature", "SHA256withECDSA", () -> wrapperSignature(library, Long.parseLong(slot), EC_ALIAS));
+    }
+
+    @Test
+    void testBenchmarkPkcs11WrapperSignatureContainer() throws Exception {
+        String library = TestEnvironment.getPkcs11ConfigValue(config, "library");
+        String slot = TestEnvironment.getPkcs11ConfigValue(config, "slot");
+        if (library == null || slot == null)
+            System.out.println("Skipping the IAIK wrapper benchmarks: no library and slot in PKCS11 configuration");
+        Assumptions.assumeTrue(library != null && slot != null, "No library and slot in PKCS11 configuration");
+
+        benchmark("Pkcs11WrapperSignatureContainer", "SHA256withRSA", () -> wrapperContainer(library, Long.parseLong(slot), RSA_ALIAS, "SHA256withRSA"));
+        benchmark("Pkcs11WrapperSignatureContainer", "SHA256withRSAandMGF1", () -> wrapperContainer(library, Long.parseLong(slot), RSA_ALIAS, "SHA256withRSAandMGF1"));
+        benchmark("Pkcs11WrapperSignatureContainer", "SHA256withECDSA", () -> wrapperContainer(library, Long.parseLong(slot), EC_ALIAS, "SHA256withECDSA"));
+    }
+
+    DocumentSigner container(String alias, String algorithm, AlgorithmParameterSpec paramSpec) throws IOException, GeneralSecurityException {
+        Pkcs11SignatureContainer container = new Pkcs11SignatureContainer(provider, PdfName.Adbe_pkcs7_detached)
+                .select(alias, pin).with(algorithm, paramSpec);
+        return (pdf, result) -> signContainer(container, pdf, result);
+    }
+
+    DocumentSigner wrapperSignature(String library, long slot, String alias) throws Exception {
+        Pkcs11WrapperSignature signature = new Pkcs11WrapperSignature(library, slot);
+        signature.select(alias, null, pin).setDigestAlgorithmName("SHA256");
+        return new DocumentSigner() {
+            @Override
+            public void sign(byte[] pdf, ByteArrayOutputStream result) throws IOException, GeneralSecurityException {
+                signDetached(signature, signature.getChain(), pdf, result);
+            }
+
+            @Override
+            public void close() throws Exception {
+                signature.close();
+            }
+        };
+    }
+
+    DocumentSigner wrapperContainer(String library, long slot, String alias, String algorithm) throws Exception {
+        Pkcs11WrapperSignatureContainer container = new Pkcs11WrapperSignatureContainer(library, slot);
+        container.select(alias, null, pin).setSignatureAlgorithm(algorithm);
+        return new DocumentSigner() {
+            @Override
+            public void sign(byte[] pdf, ByteArrayOutputStream result) throws IOException, GeneralSecurityException {
+                signContainer(container, pdf, result);
+            }
+
+            @Override
+            public void close() throws Exception {
+                container.close();
+            }
+        };
+    }
+
+    /**
+     * Runs the benchmark for all thread counts and document sizes. Each
+     * thread uses its own {@link DocumentSigner} from the given factory.
+     */
+    void benchmark(String implementation, String algorithm, SignerFactory factory) throws Exception {
+        for (byte[] document : documents) {
+            for (int threads : THREAD_COUNTS) {
+                List<DocumentSigner> signers = new ArrayList<>();
+                ExecutorService executorService = Executors.newFixedThreadPool(threads);
+                try {
+                    for (int i = 0; i < threads; i++)
+                        signers.add(factory.create());
+
+                    run(executorService, signers, document, WARMUP_DOCUMENTS_PER_THREAD);
+                    long start = System.nanoTime();
+                    List<Long> latencies = run(executorService, signers, document, DOCUMENTS_PER_THREAD);
+                    long wallTime = System.nanoTime() - start;
+
+                    Collections.sort(latencies);
+                    System.out.printf("%-32s %-22s %9d bytes %3d threads: %8.2f docs/s, latency ms p50 %8.2f p90 %8.2f p99 %8.2f max %8.2f\n",
+                            implementation, algorithm, document.length, threads, latencies.size() * 1e9 / wallTime,
+                            percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99), percentile(latencies, 100));
+                } finally {
+                    executorService.shutdown();
+                    close(signers);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes all signers, even if closing one of them fails.
+     */
+    static void close(List<DocumentSigner> signers) throws Exception {
+        Exception failure = null;
+        for (DocumentSigner signer : signers) {
+            try {
+                signer.close();
+            } catch (Exception e) {
+                if (failure == null)
+                    failure = e;
+                else
+                    failure.addSuppressed(e);
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    List<Long> run(ExecutorService executorService, List<DocumentSigner> signers, byte[] document, int count) throws Exception {
+        List<Future<List<Long>>> futures = new ArrayList<>();
+        for (DocumentSigner signer : signers) {
+            futures.add(executorService.submit(() -> {
+                List<Long> latencies = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    long start = System.nanoTime();
+                    signer.sign(document, new ByteArrayOutputStream(document.length + 32 * 1024));
+                    latencies.add(System.nanoTime() - start);
+                }
+                return latencies;
+            }));
+        }
+        List<Long> latencies = new ArrayList<>();
+        for (Future<List<Long>> future : futures)
+            latencies.addAll(future.get());
+        return latencies;
+    }
+
+    static double percentile(List<Long> sortedLatencies, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sortedLatencies.size()) - 1;
+        return sortedLatencies.get(Math.max(0, index)) / 1e6;
+    }
+
+    static void signDetached(IExternalSignature signature, Certificate[] chain, byte[] pdf, ByteArrayOutputStream result) throws IOException, GeneralSecurityException {
+        try (   PdfReader pdfReader = new PdfReader(new ByteArrayInputStream(pdf))   ) {
+            PdfSigner pdfSigner = new PdfSigner(pdfReader, result, new StampingProperties().useAppendMode());
+            pdfSigner.signDetached(new BouncyCastleDigest(), signature, chain, null, null, null, 0, CryptoStandard.CMS);
+        }
+    }
+
+    static void signContainer(IExternalSignatureContainer container, byte[] pdf, ByteArrayOutputStream result) throws IOException, GeneralSecurityException {
+        try (   PdfReader pdfReader = new PdfReader(new ByteArrayInputStream(pdf))   ) {
+            PdfSigner pdfSigner = new PdfSigner(pdfReader, result, new StampingProperties().useAppendMode());
+            pdfSigner.signExternalContainer(container, SignatureContainerSizeEstimator.estimateSize(container));
+        }
+    }
+
+    /**
+     * Creates a copy of the given PDF with an additional, unreferenced
+     * stream of random bytes of the given size to vary the document size.
+     */
+    static byte[] pad(byte[] pdf, int paddingSize) throws IOException {
+        if (paddingSize == 0)
+            return pdf;
+        byte[] padding = new byte[paddingSize];
+        new Random(paddingSize).nextBytes(padding);
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (   PdfDocument pdfDocument = new PdfDocument(new PdfReader(new ByteArrayInputStream(pdf)), new PdfWriter(result))   ) {
+            PdfStream stream = new PdfStream(padding);
+            stream.makeIndirect(pdfDocument);
+            pdfDocument.getCatalog().put(new PdfName("MKLxPadding"), stream);
+        }
+        return result.toByteArray();
+    }
+
+    /**
+     * Generates the RSA and EC benchmark keys with self-signed certificates
+     * on the token unless already present.
+     */
+    static void provision(Provider provider, char[] pin) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS11", provider);
+        keyStore.load(null, pin);
+        if (!keyStore.containsAlias(RSA_ALIAS))
+            provision(keyStore, provider, pin, RSA_ALIAS, "RSA", new RSAKeyGenParameterSpec(2048, RSAKeyGenParameterSpec.F4), "SHA256withRSA");
+        if (!keyStore.containsAlias(EC_ALIAS))
+            provision(keyStore, provider, pin, EC_ALIAS, "EC", new ECGenParameterSpec("secp256r1"), "SHA256withECDSA");
+    }
+
+    static void provision(KeyStore keyStore, Provider provider, char[] pin, String alias, String algorithm,
+            AlgorithmParameterSpec keySpec, String signatureAlgorithm) throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(algorithm, provider);
+        keyPairGenerator.initialize(keySpec);
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+
+        X500Name name = new X500Name("CN=PKCS11 Benchmark " + alias + ",OU=mkl tests,O=mkl");
+        long now = System.currentTimeMillis();
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(name, BigInteger.valueOf(now),
+                new Date(now - 24L * 60 * 60 * 1000), new Date(now + 365L * 24 * 60 * 60 * 1000), name, keyPair.getPublic());
+        ContentSigner contentSigner = new JcaContentSignerBuilder(signatureAlgorithm).setProvider(provider).build(keyPair.getPrivate());
+        X509Certificate certificate = new JcaX509CertificateConverter().getCertificate(builder.build(contentSigner));
+
+        keyStore.setKeyEntry(alias, keyPair.getPrivate(), pin, new Certificate[] { certificate });
+        System.out.printf("Provisioned %s key '%s'\n", algorithm, alias);
+    }
+
+    interface DocumentSigner extends AutoCloseable {
+        void sign(byte[] pdf, ByteArrayOutputStream result) throws IOException, GeneralSecurityException;
+
+        @Override
+        default void close() throws Exception {
+        }
+    }
+
+    interface SignerFactory {
+        DocumentSigner create() throws Exception;
+    }
+}
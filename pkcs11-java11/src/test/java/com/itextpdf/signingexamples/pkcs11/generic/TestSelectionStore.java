@@ -0,0 +1,195 @@
+package com.itextpdf.signingexamples.pkcs11.generic;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.itextpdf.signingexamples.pkcs11.Pkcs11WrapperKeyAndCertificate;
+import com.itextpdf.signingexamples.pkcs11.Pkcs11WrapperSelectionStore;
+
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.TokenInfo;
+
+/**
+ * This test class checks that a {@link Pkcs11WrapperSelectionStore}
+ * entry is used by later selections as long as it matches the token,
+ * and that it is dropped and replaced if the stored signer certificate
+ * is not on the token anymore, e.g. after a certificate renewal. The
+ * {@link TestEnvironment} utility is used to retrieve parameters for
+ * accessing the device; its configuration must contain the library
+ * and slot entries.
+ */
+class TestSelectionStore {
+    final static Path STORE_FOLDER = Paths.get("target/test-outputs", "selection-store");
+
+    static String library;
+    static long slot;
+    static String alias;
+    static char[] pin;
+
+    @BeforeAll
+    public static void setUpBeforeClass() throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        String config = TestEnvironment.getPkcs11Config();
+        library = TestEnvironment.getPkcs11ConfigValue(config, "library");
+        String slotValue = TestEnvironment.getPkcs11ConfigValue(config, "slot");
+        Assumptions.assumeTrue(library != null && slotValue != null, "No library and slot in PKCS11 configuration");
+        slot = Long.parseLong(slotValue);
+        alias = TestEnvironment.getPkcs11Alias();
+        pin = TestEnvironment.getPkcs11Pin();
+    }
+
+    @Test
+    void testStoredSelectionIsUsed() throws Exception {
+        CountingSelectionStore store = new CountingSelectionStore(clean("hit"));
+        X509Certificate[] chain = select(store);
+        assertEquals(0, store.hits);
+        assertEquals(1, getSignerCertificates(store.directory).size());
+
+        assertArrayEquals(chain, select(store));
+        assertEquals(1, store.hits);
+        assertArrayEquals(chain, select(new CountingSelectionStore(store.directory)));
+    }
+
+    @Test
+    void testStaleSelectionIsReplaced() throws Exception {
+        CountingSelectionStore store = new CountingSelectionStore(clean("stale"));
+        X509Certificate[] chain = select(store);
+        replaceSignerCertificates(store.directory, createCertificate());
+
+        assertArrayEquals(chain, select(store));
+        assertEquals(0, store.hits);
+        assertEquals(2, store.misses);
+        List<byte[]> stored = getSignerCertificates(store.directory);
+        assertEquals(1, stored.size());
+        assertArrayEquals(chain[0].getEncoded(), stored.get(0), "Stale entry not replaced");
+
+        assertArrayEquals(chain, select(store));
+        assertEquals(1, store.hits);
+    }
+
+    static X509Certificate[] select(Pkcs11WrapperSelectionStore store) throws Exception {
+        try (   Pkcs11WrapperKeyAndCertificate keyAndCertificate = new Pkcs11WrapperKeyAndCertificate(library, slot)   ) {
+            X509Certificate[] chain = keyAndCertificate.setSelectionStore(store).select(alias, null, pin).getChain();
+            assertNotNull(chain, "No key and certificate selected");
+            return chain;
+        }
+    }
+
+    /**
+     * Replaces the signer certificates in all store files by the given
+     * certificate.
+     */
+    static void replaceSignerCertificates(Path directory, byte[] certificate) throws Exception {
+        for (Path file : listFiles(directory)) {
+            Properties properties = load(file);
+            for (String name : properties.stringPropertyNames()) {
+                if (name.endsWith(".chain.0"))
+                    properties.setProperty(name, Base64.getEncoder().encodeToString(certificate));
+            }
+            try (   OutputStream outputStream = Files.newOutputStream(file)   ) {
+                properties.store(outputStream, null);
+            }
+        }
+    }
+
+    /**
+     * Returns the signer certificates in all store files.
+     */
+    static List<byte[]> getSignerCertificates(Path directory) throws Exception {
+        List<byte[]> certificates = new ArrayList<>();
+        for (Path file : listFiles(directory)) {
+            Properties properties = load(file);
+            for (String name : properties.stringPropertyNames()) {
+                if (name.endsWith(".chain.0"))
+                    certificates.add(Base64.getDecoder().decode(properties.getProperty(name)));
+            }
+        }
+        return certificates;
+    }
+
+    static List<Path> listFiles(Path directory) throws Exception {
+        try (   Stream<Path> paths = Files.list(directory)   ) {
+            return paths.filter(path -> path.toString().endsWith(".properties")).collect(Collectors.toList());
+        }
+    }
+
+    static Properties load(Path file) throws Exception {
+        Properties properties = new Properties();
+        try (   InputStream inputStream = Files.newInputStream(file)   ) {
+            properties.load(inputStream);
+        }
+        return properties;
+    }
+
+    static byte[] createCertificate() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+        keyPairGenerator.initialize(256);
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        X500Name name = new X500Name("CN=Renewed Test Certificate");
+        long now = System.currentTimeMillis();
+        return new JcaX509v3CertificateBuilder(name, BigInteger.valueOf(now), new Date(now - 60000), new Date(now + 3600000),
+                name, keyPair.getPublic())
+                .build(new JcaContentSignerBuilder("SHA256withECDSA").build(keyPair.getPrivate()))
+                .getEncoded();
+    }
+
+    static Path clean(String name) throws Exception {
+        Path directory = STORE_FOLDER.resolve(name);
+        if (Files.exists(directory)) {
+            try (   Stream<Path> paths = Files.list(directory)   ) {
+                for (Path path : (Iterable<Path>) paths::iterator)
+                    Files.delete(path);
+            }
+        }
+        return directory;
+    }
+
+    static class CountingSelectionStore extends Pkcs11WrapperSelectionStore {
+        final Path directory;
+        int hits = 0;
+        int misses = 0;
+
+        CountingSelectionStore(Path directory) {
+            super(directory);
+            this.directory = directory;
+        }
+
+        @Override
+        public synchronized Selection lookup(TokenInfo tokenInfo, Session session, String alias, String certLabel) throws TokenException {
+            Selection selection = super.lookup(tokenInfo, session, alias, certLabel);
+            if (selection != null)
+                hits++;
+            else
+                misses++;
+            return selection;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.itextpdf.signingexamples.pkcs11.generic;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.itextpdf.io.util.StreamUtil;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.StampingProperties;
+import com.itextpdf.signatures.PdfPKCS7;
+import com.itextpdf.signatures.PdfSigner;
+import com.itextpdf.signatures.SignatureUtil;
+import com.itextpdf.signatures.SignerProperties;
+import com.itextpdf.signingexamples.pkcs11.Pkcs11SignatureContainer;
+
+/**
+ * This test class signs many distinct PDF files in parallel using a single
+ * {@link Pkcs11SignatureContainer} instance configured according to the
+ * values the {@link TestEnvironment} utility provides, and verifies each
+ * result against its own document.
+ */
+class TestSignatureContainerConcurrency {
+    final static int THREADS = 16;
+    final static int DOCUMENTS_PER_THREAD = 10;
+
+    static byte[] circles;
+
+    @BeforeAll
+    public static void setUpBeforeClass() throws Exception {
+        BouncyCastleProvider provider = new BouncyCastleProvider();
+        Security.addProvider(provider);
+        try (   InputStream resource = TestSignatureContainerConcurrency.class.getResourceAsStream("/circles.pdf")   ) {
+            circles = StreamUtil.inputStreamToArray(resource);
+        }
+    }
+
+    @Test
+    void testParallelSigningWithSharedContainer() throws Exception {
+        Pkcs11SignatureContainer signature = new Pkcs11SignatureContainer(TestEnvironment.getPkcs11Config(), PdfName.Adbe_pkcs7_detached)
+                .select(TestEnvironment.getPkcs11Alias(), TestEnvironment.getPkcs11Pin()).with("SHA256withRSA", null);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                int thread = i;
+                futures.add(executorService.submit(() -> {
+                    for (int j = 0; j < DOCUMENTS_PER_THREAD; j++) {
+                        String reason = String.format("Document %d-%d", thread, j);
+                        byte[] signed = sign(signature, reason);
+                        verify(signed, reason);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * Signs a copy of the test document with the given container, using
+     * the reason to make the signed revision unique.
+     */
+    static byte[] sign(Pkcs11SignatureContainer signature, String reason) throws IOException, GeneralSecurityException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (   PdfReader pdfReader = new PdfReader(new ByteArrayInputStream(circles))   ) {
+            PdfSigner pdfSigner = new PdfSigner(pdfReader, result, new StampingProperties().useAppendMode());
+            pdfSigner.setSignerProperties(new SignerProperties().setReason(reason));
+            pdfSigner.signExternalContainer(signature, signature.estimateSize());
+        }
+        return result.toByteArray();
+    }
+
+    /**
+     * Checks that the signature in the given signed document is valid for
+     * exactly this document.
+     */
+    static void verify(byte[] signed, String reason) throws IOException, GeneralSecurityException {
+        try (   PdfDocument pdfDocument = new PdfDocument(new PdfReader(new ByteArrayInputStream(signed)))   ) {
+            SignatureUtil signatureUtil = new SignatureUtil(pdfDocument);
+            List<String> names = signatureUtil.getSignatureNames();
+            assertTrue(names.size() == 1, "Expected a single signature");
+            String name = names.get(0);
+            assertTrue(signatureUtil.signatureCoversWholeDocument(name), "Signature does not cover the whole document");
+            PdfPKCS7 pkcs7 = signatureUtil.readSignatureData(name);
+            assertTrue(reason.equals(pkcs7.getReason()), "Unexpected signature reason");
+            assertTrue(pkcs7.verifySignatureIntegrityAndAuthenticity(), "Signature does not match the document " + reason);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.itextpdf.signingexamples.pkcs11.generic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import com.itextpdf.signingexamples.pkcs11.Pkcs11Signature;
+
+/**
+ * <p>
+ * This test class compares the throughput of {@link Pkcs11Signature}
+ * with and without reuse of initialized {@link java.security.Signature}
+ * instances when signing from many threads in parallel, and checks that
+ * the signatures created either way verify. The {@link TestEnvironment}
+ * utility is used to retrieve parameters for accessing the device.
+ * </p>
+ * <p>
+ * As it takes a while, the throughput comparison only runs if the
+ * environment variable <b>PKCS11_BENCHMARK</b> is set.
+ * </p>
+ */
+class TestSignatureReuse {
+    final static int THREADS = 16;
+    final static int SIGNATURES_PER_THREAD = 100;
+    final static byte[] MESSAGE = "Test message to sign".getBytes();
+
+    @Test
+    void testSignaturesWithAndWithoutReuseVerify() throws IOException, GeneralSecurityException, InterruptedException, ExecutionException {
+        Pkcs11Signature signature = createSignature();
+        PublicKey publicKey = signature.getChain()[0].getPublicKey();
+
+        for (boolean reuse : new boolean[] { false, true }) {
+            Queue<byte[]> results = new ConcurrentLinkedQueue<>();
+            signParallel(signature.setReuseSignatures(reuse), 2, results);
+            assertEquals(THREADS * 2, results.size());
+            for (byte[] result : results)
+                assertTrue(verify(signature, publicKey, result), "Signature does not verify, reuse " + reuse);
+        }
+    }
+
+    @Test
+    void testParallelSigningWithAndWithoutReuse() throws IOException, GeneralSecurityException, InterruptedException, ExecutionException {
+        String benchmark = System.getenv("PKCS11_BENCHMARK");
+        Assumptions.assumeTrue(benchmark != null && benchmark.length() > 0, "PKCS11_BENCHMARK not set");
+
+        Pkcs11Signature signature = createSignature();
+
+        // warm up
+        signParallel(signature.setReuseSignatures(false), SIGNATURES_PER_THREAD, null);
+        signParallel(signature.setReuseSignatures(true), SIGNATURES_PER_THREAD, null);
+
+        long timeWithoutReuse = signParallel(signature.setReuseSignatures(false), SIGNATURES_PER_THREAD, null);
+        long timeWithReuse = signParallel(signature.setReuseSignatures(true), SIGNATURES_PER_THREAD, null);
+
+        int count = THREADS * SIGNATURES_PER_THREAD;
+        System.out.printf("%d signatures in %d threads without reuse: %d ms (%.2f signatures/s)\n",
+                count, THREADS, timeWithoutReuse, count * 1000.0 / timeWithoutReuse);
+        System.out.printf("%d signatures in %d threads with reuse:    %d ms (%.2f signatures/s)\n",
+                count, THREADS, timeWithReuse, count * 1000.0 / timeWithReuse);
+    }
+
+    static Pkcs11Signature createSignature() throws IOException, GeneralSecurityException {
+        Pkcs11Signature signature = new Pkcs11Signature(TestEnvironment.getPkcs11Config())
+                .select(TestEnvironment.getPkcs11Alias(), TestEnvironment.getPkcs11Pin()).setDigestAlgorithmName("SHA256");
+        assertNotNull(signature.getChain(), "No key and certificate selected");
+        return signature;
+    }
+
+    static boolean verify(Pkcs11Signature signature, PublicKey publicKey, byte[] result) throws GeneralSecurityException {
+        Signature sig = Signature.getInstance(signature.getDigestAlgorithmName() + "with" + signature.getSignatureAlgorithmName());
+        sig.initVerify(publicKey);
+        sig.update(MESSAGE);
+        return sig.verify(result);
+    }
+
+    /**
+     * Signs in {@link #THREADS} threads in parallel and returns the time
+     * in milliseconds; if a result queue is given, the signatures are
+     * added to it.
+     */
+    static long signParallel(Pkcs11Signature signature, int signaturesPerThread, Queue<byte[]> results) throws InterruptedException, ExecutionException {
+        ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+        try {
+            long start = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executorService.submit(() -> {
+                    for (int j = 0; j < signaturesPerThread; j++) {
+                        byte[] result = signature.sign(MESSAGE);
+                        if (results != null)
+                            results.add(result);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+            return (System.nanoTime() - start) / 1000000;
+        } finally {
+            executorService.shutdown();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.itextpdf.signingexamples.pkcs11.generic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.Security;
+import java.util.List;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.itextpdf.io.util.StreamUtil;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.StampingProperties;
+import com.itextpdf.signatures.PdfPKCS7;
+import com.itextpdf.signatures.PdfSigner;
+import com.itextpdf.signatures.SignatureUtil;
+import com.itextpdf.signingexamples.pkcs11.Pkcs11WrapperSignatureContainer;
+
+import iaik.pkcs.pkcs11.TokenException;
+
+/**
+ * This test class signs PDF files using a {@link Pkcs11WrapperSignatureContainer}
+ * in streaming mode and verifies the results, both with multi-part signing
+ * and with the single-part fallback for tokens rejecting it. The
+ * {@link TestEnvironment} utility is used to retrieve parameters for
+ * accessing the device; its configuration must contain the library
+ * and slot entries.
+ */
+class TestStreamingSigning {
+    static String library;
+    static long slot;
+    static String alias;
+    static char[] pin;
+    static byte[] circles;
+
+    @BeforeAll
+    public static void setUpBeforeClass() throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        String config = TestEnvironment.getPkcs11Config();
+        library = TestEnvironment.getPkcs11ConfigValue(config, "library");
+        String slotValue = TestEnvironment.getPkcs11ConfigValue(config, "slot");
+        Assumptions.assumeTrue(library != null && slotValue != null, "No library and slot in PKCS11 configuration");
+        slot = Long.parseLong(slotValue);
+        alias = TestEnvironment.getPkcs11Alias();
+        pin = TestEnvironment.getPkcs11Pin();
+        try (   InputStream resource = TestStreamingSigning.class.getResourceAsStream("/circles.pdf")   ) {
+            circles = StreamUtil.inputStreamToArray(resource);
+        }
+    }
+
+    @Test
+    void testMultiPartSigning() throws Exception {
+        try (   Pkcs11WrapperSignatureContainer container = new Pkcs11WrapperSignatureContainer(library, slot)   ) {
+            select(container);
+            verify(sign(container));
+            verify(sign(container));
+        }
+    }
+
+    @Test
+    void testSinglePartFallback() throws Exception {
+        try (   SinglePartSignatureContainer container = new SinglePartSignatureContainer(library, slot)   ) {
+            select(container);
+            verify(sign(container));
+            assertEquals(1, container.rejectedUpdates);
+            verify(sign(container));
+            assertEquals(2, container.rejectedUpdates);
+        }
+    }
+
+    static void select(Pkcs11WrapperSignatureContainer container) throws Exception {
+        container.select(alias, null, pin);
+        assertNotNull(container.getChain(), "No key and certificate selected");
+        String keyAlgorithm = container.getChain()[0].getPublicKey().getAlgorithm();
+        container.setSignatureAlgorithm("RSA".equals(keyAlgorithm) ? "SHA256withRSA" : "SHA256withECDSA").setStreaming(true);
+    }
+
+    static byte[] sign(Pkcs11WrapperSignatureContainer container) throws IOException, GeneralSecurityException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (   PdfReader pdfReader = new PdfReader(new ByteArrayInputStream(circles))   ) {
+            PdfSigner pdfSigner = new PdfSigner(pdfReader, result, new StampingProperties().useAppendMode());
+            pdfSigner.signExternalContainer(container, container.estimateSize());
+        }
+        return result.toByteArray();
+    }
+
+    static void verify(byte[] signed) throws IOException, GeneralSecurityException {
+        try (   PdfDocument pdfDocument = new PdfDocument(new PdfReader(new ByteArrayInputStream(signed)))   ) {
+            SignatureUtil signatureUtil = new SignatureUtil(pdfDocument);
+            List<String> names = signatureUtil.getSignatureNames();
+            assertEquals(1, names.size(), "Expected a single signature");
+            PdfPKCS7 pkcs7 = signatureUtil.readSignatureData(names.get(0));
+            assertTrue(pkcs7.verifySignatureIntegrityAndAuthenticity(), "Signature does not verify");
+        }
+    }
+
+    /**
+     * A container simulating a token which rejects multi-part signing.
+     * Like a token, it terminates the operation when rejecting a part.
+     */
+    static class SinglePartSignatureContainer extends Pkcs11WrapperSignatureContainer {
+        int rejectedUpdates = 0;
+
+        SinglePartSignatureContainer(String libraryPath, long slotId) throws IOException, TokenException {
+            super(libraryPath, slotId);
+        }
+
+        @Override
+        protected void signUpdate(byte[] part) throws TokenException {
+            rejectedUpdates++;
+            try {
+                session.signFinal();
+            } catch (TokenException e) {
+                // terminated nonetheless
+            }
+            throw new TokenException("Multi-part signing not supported");
+        }
+    }
+}
@@ -7,11 +7,11 @@ import com.itextpdf.kernel.crypto.DigestAlgorithms;
 import com.itextpdf.signatures.IExternalSignature;
 import com.itextpdf.signatures.ISignatureMechanismParams;
 import com.itextpdf.signatures.RSASSAPSSMechanismParams;
+import com.itextpdf.signingexamples.common.SignaturePool;
 
 import java.io.File;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
-import java.security.KeyStore;
 import java.security.PrivateKey;
 import java.security.Provider;
 import java.security.Security;
@@ -19,7 +19,6 @@ import java.security.Signature;
 import java.security.cert.Certificate;
 import java.security.spec.AlgorithmParameterSpec;
 import java.security.spec.PSSParameterSpec;
-import java.util.Enumeration;
 import sun.security.pkcs11.SunPKCS11;
 
 /**
@@ -50,6 +49,12 @@ public class Pkcs11Signature implements IExternalSignature {
     /** The security provider. */
     final Provider provider;
 
+    /** The alias index the key has been selected from. */
+    Pkcs11AliasIndex aliasIndex;
+
+    /** Initialized {@link Signature} instances ready for reuse. */
+    final SignaturePool signaturePool = new SignaturePool();
+
     public Pkcs11Signature(File pkcs11configFile) {
         provider = new SunPKCS11(pkcs11configFile.getAbsolutePath());
         Security.addProvider(provider);
@@ -67,31 +72,20 @@ public class Pkcs11Signature implements IExternalSignature {
         Security.addProvider(provider);
     }
 
-    public Pkcs11Signature select(String alias, char[] pin) throws GeneralSecurityException, IOException {
-        KeyStore ks = KeyStore.getInstance("PKCS11", provider);
-        ks.load(null, pin);
-
-        boolean found = false;
-        Enumeration<String> aliases = ks.aliases();
-        while (aliases.hasMoreElements()) {
-            String thisAlias = aliases.nextElement();
-            if (alias == null || alias.equals(thisAlias)) {
-                PrivateKey thisPk = (PrivateKey) ks.getKey(thisAlias, pin);
-                if (thisPk == null)
-                    continue;
-                Certificate[] thisChain = ks.getCertificateChain(thisAlias);
-                if (thisChain == null)
-                    continue;
-
-                found = true;
-                pk = thisPk;
-                chain = thisChain;
-                this.alias = thisAlias;
-                break;
-            }
-        }
-
-        if (found) {
+    /**
+     * Selects the key with the given alias, logging in with the given PIN
+     * if necessary. This is synchronized with the re-selection after a lost
+     * login, cf. {@link #sign(byte[])}; selecting a different key while other
+     * threads are signing is not supported.
+     */
+    public synchronized Pkcs11Signature select(String alias, char[] pin) throws GeneralSecurityException, IOException {
+        aliasIndex = Pkcs11AliasIndex.forProvider(provider, pin);
+        Pkcs11AliasIndex.Entry entry = aliasIndex.select(alias, pin);
+        signaturePool.clear();
+        if (entry != null) {
+            pk = entry.getPrivateKey();
+            chain = entry.getChain();
+            this.alias = entry.getAlias();
             String algorithm = pk.getAlgorithm();
             signatureAlgorithmName = "EC".equals(algorithm) ? "ECDSA" : algorithm;
         } else {
@@ -118,6 +112,20 @@ public class Pkcs11Signature implements IExternalSignature {
         return chain;
     }
 
+    public boolean isReuseSignatures() {
+        return signaturePool.isEnabled();
+    }
+
+    /**
+     * Sets whether initialized {@link Signature} instances shall be reused
+     * across {@link #sign(byte[])} calls instead of retrieving and
+     * initializing a new instance each time, cf. {@link SignaturePool}.
+     */
+    public Pkcs11Signature setReuseSignatures(boolean reuseSignatures) {
+        signaturePool.setEnabled(reuseSignatures);
+        return this;
+    }
+
     @Override
     public String getSignatureAlgorithmName() {
         if ("RSA".equals(signatureAlgorithmName) && (fullSignatureAlgorithmParamSpec instanceof PSSParameterSpec))
@@ -149,15 +157,52 @@ public class Pkcs11Signature implements IExternalSignature {
         return this;
     }
 
+    /**
+     * Signs the given message. If the session or the login to the token has
+     * been lost, e.g. due to card removal or HSM failover, this signer logs
+     * in anew, re-selects its key, and retries once.
+     */
     @Override
     public byte[] sign(byte[] message) throws GeneralSecurityException {
+        try {
+            return signMessage(message);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            if (aliasIndex == null || alias == null || !Pkcs11AliasIndex.isLoginLost(e))
+                throw e;
+            recover();
+            return signMessage(message);
+        }
+    }
+
+    /**
+     * Logs in anew and selects the same alias again.
+     */
+    synchronized void recover() throws GeneralSecurityException {
+        String selectedAlias = alias;
+        try {
+            Pkcs11AliasIndex index = Pkcs11AliasIndex.relogin(provider, aliasIndex);
+            select(selectedAlias, index.pin);
+        } catch (IOException e) {
+            throw new GeneralSecurityException(e);
+        }
+        if (pk == null)
+            throw new GeneralSecurityException(String.format("Key '%s' not found anymore after re-login", selectedAlias));
+    }
+
+    byte[] signMessage(byte[] message) throws GeneralSecurityException {
         String algorithm = fullSignatureAlgorithmName != null ? fullSignatureAlgorithmName :
             digestAlgorithmName + "with" + signatureAlgorithmName;
-        Signature sig = Signature.getInstance(algorithm, provider);
-        sig.initSign(pk);
-        if (fullSignatureAlgorithmParamSpec != null)
-            sig.setParameter(fullSignatureAlgorithmParamSpec);
-        sig.update(message);
-        return sig.sign();
+        SignaturePool.Key key = new SignaturePool.Key(pk, algorithm, fullSignatureAlgorithmParamSpec);
+        Signature sig = signaturePool.acquire(key, provider);
+        try {
+            sig.update(message);
+            byte[] signature = sig.sign();
+            signaturePool.release(key, sig);
+            return signature;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            // the provider or the device may be in trouble, so don't trust any pooled instance anymore
+            signaturePool.clear();
+            throw e;
+        }
     }
 }
@@ -0,0 +1,288 @@
+package com.itextpdf.signingexamples.jcajce;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.bouncycastle.operator.OperatorCreationException;
+
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.signatures.SignatureUtil;
+import com.itextpdf.signatures.SignerProperties;
+import com.itextpdf.signingexamples.common.CMSTypedDataInputStream;
+import com.itextpdf.signingexamples.common.PdfFileSigner;
+
+/**
+ * <p>
+ * This class signs all PDF files in a directory tree into a parallel
+ * output directory tree using {@link PrivateKeySignatureContainerBC}
+ * instances, one per worker thread, on a work-stealing pool sized to
+ * the number of cores by default.
+ * </p>
+ * <p>
+ * Each file is signed by a {@link PdfFileSigner} which writes into a
+ * temporary file next to its target and moves it into place atomically,
+ * so an output file either is complete or does not exist. Files already
+ * signed are skipped, i.e. files whose output already exists, e.g. from an
+ * earlier interrupted run, and files which contain a signature themselves.
+ * The latter check is done on the worker threads on the document opened
+ * by the {@link PdfFileSigner}, so each file is parsed only once.
+ * </p>
+ * <p>
+ * To respect the heap budget, the directory walker reserves an estimated
+ * heap requirement for each file before handing it to the pool, and
+ * waits while the budget is exhausted; a file exceeding the whole budget
+ * is signed when no other file is in progress. The estimate includes the
+ * copy buffer used for hashing, cf. {@link CMSTypedDataInputStream}; the
+ * few idle copy buffers pooled process-wide are not part of the budget.
+ * </p>
+ */
+public class DirectoryBatchSigner {
+    final static int HEAP_FACTOR = 2;
+    final static long HEAP_BASE = 1024 * 1024 + CMSTypedDataInputStream.BUFFER_SIZE;
+
+    public DirectoryBatchSigner(String signatureAlgorithm, PrivateKey privateKey, X509Certificate x509Certificate) throws OperatorCreationException, GeneralSecurityException {
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.privateKey = privateKey;
+        this.x509Certificate = x509Certificate;
+        this.estimatedSize = createContainer().estimateSize();
+    }
+
+    public DirectoryBatchSigner setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Sets the heap budget in bytes; by default it is half the maximum heap.
+     */
+    public DirectoryBatchSigner setHeapBudget(long heapBudget) {
+        this.heapBudget = heapBudget;
+        return this;
+    }
+
+    /**
+     * Sets the supplier of the signer properties; it is called once per file.
+     */
+    public DirectoryBatchSigner setSignerProperties(Supplier<SignerProperties> signerProperties) {
+        this.signerProperties = signerProperties;
+        return this;
+    }
+
+    /**
+     * Sets a listener which is informed about each file result as soon as
+     * it is available; it may be called from multiple threads concurrently.
+     */
+    public DirectoryBatchSigner setListener(Consumer<Result> listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Signs all PDF files in the input directory tree into the output
+     * directory tree and returns a report of all files.
+     */
+    public Report sign(Path inputDirectory, Path outputDirectory) throws IOException, InterruptedException {
+        List<Path> sources;
+        try (   Stream<Path> paths = Files.walk(inputDirectory)   ) {
+            sources = paths.filter(Files::isRegularFile)
+                    .filter(path -> path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".pdf"))
+                    .collect(Collectors.toList());
+        }
+
+        int budgetKb = (int) Math.min(Integer.MAX_VALUE, heapBudget / 1024);
+        Semaphore budget = new Semaphore(budgetKb);
+        List<Result> results = Collections.synchronizedList(new ArrayList<>());
+        ThreadLocal<PrivateKeySignatureContainerBC> containers = ThreadLocal.withInitial(this::createContainerUnchecked);
+
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newWorkStealingPool(parallelism);
+        try {
+            for (Path source : sources) {
+                Path target = outputDirectory.resolve(inputDirectory.relativize(source).toString());
+                if (Files.exists(target)) {
+                    report(results, new Result(source, target, Status.SKIPPED, 0, 0, null));
+                    continue;
+                }
+                long length = Files.size(source);
+                int requiredKb = (int) Math.min(budgetKb, (length * HEAP_FACTOR + HEAP_BASE) / 1024);
+                budget.acquire(requiredKb);
+                pool.execute(() -> {
+                    try {
+                        report(results, signFile(source, target, length, containers.get()));
+                    } finally {
+                        budget.release(requiredKb);
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        return new Report(new ArrayList<>(results), System.nanoTime() - start);
+    }
+
+    Result signFile(Path source, Path target, long length, PrivateKeySignatureContainerBC container) {
+        long start = System.nanoTime();
+        try {
+            Files.createDirectories(target.getParent());
+            PdfFileSigner pdfSigner = new PdfFileSigner(source.toFile(), target.toFile());
+            if (!new SignatureUtil(pdfSigner.getDocument()).getSignatureNames().isEmpty()) {
+                pdfSigner.cancel();
+                return new Result(source, target, Status.SKIPPED, length, System.nanoTime() - start, null);
+            }
+            SignerProperties properties = signerProperties.get();
+            if (properties != null)
+                pdfSigner.setSignerProperties(properties);
+            pdfSigner.signExternalContainer(container, estimatedSize);
+            return new Result(source, target, Status.SIGNED, length, System.nanoTime() - start, null);
+        } catch (Exception e) {
+            return new Result(source, target, Status.FAILED, length, System.nanoTime() - start, e);
+        }
+    }
+
+    void report(List<Result> results, Result result) {
+        results.add(result);
+        if (listener != null)
+            listener.accept(result);
+    }
+
+    PrivateKeySignatureContainerBC createContainer() throws OperatorCreationException {
+        return new PrivateKeySignatureContainerBC(signatureAlgorithm, privateKey, x509Certificate, PdfName.Adbe_pkcs7_detached);
+    }
+
+    PrivateKeySignatureContainerBC createContainerUnchecked() {
+        try {
+            return createContainer();
+        } catch (OperatorCreationException e) {
+            // already succeeded in the constructor
+            throw new IllegalStateException(e);
+        }
+    }
+
+    final String signatureAlgorithm;
+    final PrivateKey privateKey;
+    final X509Certificate x509Certificate;
+    final int estimatedSize;
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    long heapBudget = Runtime.getRuntime().maxMemory() / 2;
+    Supplier<SignerProperties> signerProperties = () -> null;
+    Consumer<Result> listener = null;
+
+    public enum Status {
+        SIGNED, SKIPPED, FAILED
+    }
+
+    /**
+     * The result of processing a single file.
+     */
+    public static class Result {
+        final Path source;
+        final Path target;
+        final Status status;
+        final long bytes;
+        final long nanos;
+        final Exception failure;
+
+        Result(Path source, Path target, Status status, long bytes, long nanos, Exception failure) {
+            this.source = source;
+            this.target = target;
+            this.status = status;
+            this.bytes = bytes;
+            this.nanos = nanos;
+            this.failure = failure;
+        }
+
+        public Path getSource() {
+            return source;
+        }
+
+        public Path getTarget() {
+            return target;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public Exception getFailure() {
+            return failure;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s %s (%d bytes, %.1f ms)%s", status, source, bytes, nanos / 1e6,
+                    failure != null ? ": " + failure : "");
+        }
+    }
+
+    /**
+     * The results of processing a directory tree and the overall throughput.
+     */
+    public static class Report {
+        final List<Result> results;
+        final long nanos;
+
+        Report(List<Result> results, long nanos) {
+            this.results = results;
+            this.nanos = nanos;
+        }
+
+        public List<Result> getResults() {
+            return results;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public long count(Status status) {
+            return results.stream().filter(result -> result.status == status).count();
+        }
+
+        /**
+         * Signed files per second.
+         */
+        public double getFilesPerSecond() {
+            return count(Status.SIGNED) * 1e9 / nanos;
+        }
+
+        /**
+         * Signed input megabytes per second.
+         */
+        public double getMegabytesPerSecond() {
+            long bytes = results.stream().filter(result -> result.status == Status.SIGNED).mapToLong(Result::getBytes).sum();
+            return bytes * 1e9 / nanos / (1024 * 1024);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d signed, %d skipped, %d failed in %.1f s: %.1f files/s, %.1f MB/s",
+                    count(Status.SIGNED), count(Status.SKIPPED), count(Status.FAILED), nanos / 1e9,
+                    getFilesPerSecond(), getMegabytesPerSecond());
+        }
+    }
+}
@@ -1,31 +1,24 @@
 package com.itextpdf.signingexamples.jcajce;
 
-import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.security.GeneralSecurityException;
 import java.security.PrivateKey;
+import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
-import java.util.Collections;
 
-import org.bouncycastle.asn1.ASN1ObjectIdentifier;
-import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
-import org.bouncycastle.cert.X509CertificateHolder;
-import org.bouncycastle.cert.jcajce.JcaCertStore;
-import org.bouncycastle.cms.CMSException;
-import org.bouncycastle.cms.CMSSignedData;
-import org.bouncycastle.cms.CMSSignedDataGenerator;
-import org.bouncycastle.cms.CMSTypedData;
-import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
 import org.bouncycastle.operator.ContentSigner;
 import org.bouncycastle.operator.OperatorCreationException;
 import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
-import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
 
 import com.itextpdf.kernel.pdf.PdfDictionary;
 import com.itextpdf.kernel.pdf.PdfName;
 import com.itextpdf.signatures.IExternalSignatureContainer;
 import com.itextpdf.signatures.PrivateKeySignature;
+import com.itextpdf.signingexamples.common.CMSSignedDataTemplate;
+import com.itextpdf.signingexamples.common.CMSTypedDataInputStream;
+import com.itextpdf.signingexamples.common.CMSTypedDataReadAhead;
+import com.itextpdf.signingexamples.common.SignatureContainerSizeEstimator;
+import com.itextpdf.signingexamples.common.SizeEstimatingSignatureContainer;
 
 /**
  * <p>
@@ -44,34 +37,36 @@ import com.itextpdf.signatures.PrivateKeySignature;
  * 
  * @author mkl
  */
-public class PrivateKeySignatureContainerBC implements IExternalSignatureContainer {
+public class PrivateKeySignatureContainerBC implements SizeEstimatingSignatureContainer {
 
     public PrivateKeySignatureContainerBC(String signatureAlgorithm, PrivateKey privateKey, X509Certificate x509Certificate, PdfName subfilter) throws OperatorCreationException {
         this.subfilter = subfilter;
         this.x509Certificate = x509Certificate;
         this.contentSigner = new JcaContentSignerBuilder(signatureAlgorithm).build(privateKey);
+        try {
+            this.template = new CMSSignedDataTemplate(new Certificate[] { x509Certificate }, contentSigner.getAlgorithmIdentifier());
+        } catch (GeneralSecurityException e) {
+            throw new OperatorCreationException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Lets the signed byte ranges be read ahead on a separate thread while
+     * hashing, see {@link CMSTypedDataReadAhead}.
+     */
+    public PrivateKeySignatureContainerBC setReadAhead(boolean readAhead) {
+        this.readAhead = readAhead;
+        return this;
     }
 
     @Override
     public byte[] sign(InputStream data) throws GeneralSecurityException {
-        try {
-            CMSTypedData msg = new CMSTypedDataInputStream(data);
-
-            X509CertificateHolder signCert = new X509CertificateHolder(x509Certificate.getEncoded());
-
-            CMSSignedDataGenerator gen = new CMSSignedDataGenerator();
-
-            gen.addSignerInfoGenerator(
-                    new JcaSignerInfoGeneratorBuilder(new JcaDigestCalculatorProviderBuilder().setProvider("BC").build())
-                            .build(contentSigner, signCert));
-
-            gen.addCertificates(new JcaCertStore(Collections.singleton(signCert)));
+        return template.sign(readAhead ? new CMSTypedDataReadAhead(data) : new CMSTypedDataInputStream(data), contentSigner);
+    }
 
-            CMSSignedData sigData = gen.generate(msg, false);
-            return sigData.getEncoded();
-        } catch (IOException | OperatorCreationException | CMSException e) {
-            throw new GeneralSecurityException(e);
-        }
+    @Override
+    public int estimateSize() throws GeneralSecurityException {
+        return new SignatureContainerSizeEstimator(template).estimate();
     }
 
     @Override
@@ -81,35 +76,8 @@ public class PrivateKeySignatureContainerBC implements IExternalSignatureContain
     }
 
     final ContentSigner contentSigner;
+    final CMSSignedDataTemplate template;
     final X509Certificate x509Certificate;
     final PdfName subfilter;
-
-    class CMSTypedDataInputStream implements CMSTypedData {
-        InputStream in;
-
-        public CMSTypedDataInputStream(InputStream is) {
-            in = is;
-        }
-
-        @Override
-        public ASN1ObjectIdentifier getContentType() {
-            return PKCSObjectIdentifiers.data;
-        }
-
-        @Override
-        public Object getContent() {
-            return in;
-        }
-
-        @Override
-        public void write(OutputStream out) throws IOException,
-                CMSException {
-            byte[] buffer = new byte[8 * 1024];
-            int read;
-            while ((read = in.read(buffer)) != -1) {
-                out.write(buffer, 0, read);
-            }
-            in.close();
-        }
-    }
+    boolean readAhead = false;
 }
@@ -11,9 +11,12 @@ import java.security.KeyStore;
 import java.security.PrivateKey;
 import java.security.Security;
 import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
 import java.util.Enumeration;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
@@ -32,13 +35,18 @@ import com.itextpdf.kernel.font.PdfFontFactory;
 import com.itextpdf.kernel.geom.AffineTransform;
 import com.itextpdf.kernel.geom.Rectangle;
 import com.itextpdf.kernel.pdf.PdfArray;
+import com.itextpdf.kernel.pdf.PdfDictionary;
 import com.itextpdf.kernel.pdf.PdfDocument;
 import com.itextpdf.kernel.pdf.PdfName;
 import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfResources;
+import com.itextpdf.kernel.pdf.PdfStream;
 import com.itextpdf.kernel.pdf.PdfWriter;
 import com.itextpdf.kernel.pdf.StampingProperties;
 import com.itextpdf.kernel.pdf.annot.PdfWidgetAnnotation;
 import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import com.itextpdf.kernel.pdf.canvas.parser.PdfCanvasProcessor;
+import com.itextpdf.kernel.pdf.canvas.parser.listener.LocationTextExtractionStrategy;
 import com.itextpdf.kernel.pdf.extgstate.PdfExtGState;
 import com.itextpdf.kernel.pdf.xobject.PdfFormXObject;
 import com.itextpdf.kernel.pdf.xobject.PdfImageXObject;
@@ -53,6 +61,7 @@ import com.itextpdf.signatures.PdfSigner;
 import com.itextpdf.signatures.PdfSigner.CryptoStandard;
 import com.itextpdf.signatures.PrivateKeySignature;
 import com.itextpdf.signatures.SignerProperties;
+import com.itextpdf.signingexamples.common.SignatureAppearanceTemplate;
 
 /**
  * @author mkl
@@ -663,4 +672,89 @@ class CreateSignatureAppearance {
             pdfSigner.signDetached(new BouncyCastleDigest(), pks, chain, null, null, null, 0, CryptoStandard.CMS);
         }
     }
+
+    @Test
+    public void testAppearanceTemplate() throws IOException, GeneralSecurityException {
+        try (   SignatureAppearanceTemplate template = new SignatureAppearanceTemplate(300, 100)   ) {
+            try (   InputStream backgroundResource = getClass().getResourceAsStream("/Binary - Light Gray.png");
+                    InputStream logoResource = getClass().getResourceAsStream("/iText logo.png")   ) {
+                template.addImage(StreamUtil.inputStreamToArray(backgroundResource), new Rectangle(300, 100), .5f)
+                        .addImage(StreamUtil.inputStreamToArray(logoResource), new Rectangle(5, 5, 90, 90))
+                        .setTextArea(new Rectangle(100, 0, 200, 100))
+                        .setFont(StandardFonts.HELVETICA, 10);
+            }
+
+            IExternalSignature pks = new PrivateKeySignature(pk, "SHA256", BouncyCastleProvider.PROVIDER_NAME);
+            for (int i = 0; i < 3; i++) {
+                try (   InputStream resource = getClass().getResourceAsStream("/Blank.pdf");
+                        PdfReader pdfReader = new PdfReader(resource);
+                        OutputStream result = new FileOutputStream(new File(RESULT_FOLDER, "test-AppearanceTemplate-" + i + ".pdf")) ) {
+                    PdfSigner pdfSigner = new PdfSigner(pdfReader, result, new StampingProperties());
+                    SignerProperties signerProps = new SignerProperties()
+                            .setPageRect(new Rectangle(100, 500, 300, 100))
+                            .setPageNumber(1)
+                            .setReason("Specimen " + i)
+                            .setLocation("Boston");
+                    pdfSigner.setSignerProperties(signerProps);
+                    template.apply(pdfSigner);
+
+                    pdfSigner.signDetached(new BouncyCastleDigest(), pks, chain, null, null, null, 0, CryptoStandard.CMS);
+                }
+            }
+        }
+    }
+
+    /**
+     * This test creates signatures with an appearance from a template
+     * with the description text filled in in advance, so the font size
+     * is calculated from cached widths and the embedded font is a reused
+     * subset, and checks that the text is shown completely, one line per
+     * description line.
+     */
+    @Test
+    public void testAppearanceTemplateFitted() throws IOException, GeneralSecurityException {
+        File font = new File("/usr/share/fonts/truetype/dejavu/DejaVuSans.ttf");
+        Assumptions.assumeTrue(font.exists(), "DejaVu fonts not installed");
+        try (   SignatureAppearanceTemplate template = new SignatureAppearanceTemplate(300, 100)   ) {
+            try (   InputStream logoResource = getClass().getResourceAsStream("/iText logo.png")   ) {
+                template.addImage(StreamUtil.inputStreamToArray(logoResource), new Rectangle(5, 5, 90, 90))
+                        .setTextArea(new Rectangle(100, 0, 200, 100))
+                        .setFont(font.getPath(), 0);
+            }
+
+            IExternalSignature pks = new PrivateKeySignature(pk, "SHA256", BouncyCastleProvider.PROVIDER_NAME);
+            String[] reasons = {"Specimen", "Approval of the specimen document for the Boston office", "Entwurf geprüft"};
+            for (int i = 0; i < reasons.length; i++) {
+                File resultFile = new File(RESULT_FOLDER, "test-AppearanceTemplateFitted-" + i + ".pdf");
+                String description;
+                try (   InputStream resource = getClass().getResourceAsStream("/Blank.pdf");
+                        PdfReader pdfReader = new PdfReader(resource);
+                        OutputStream result = new FileOutputStream(resultFile) ) {
+                    PdfSigner pdfSigner = new PdfSigner(pdfReader, result, new StampingProperties());
+                    SignerProperties signerProps = new SignerProperties()
+                            .setPageRect(new Rectangle(100, 500, 300, 100))
+                            .setPageNumber(1)
+                            .setReason(reasons[i])
+                            .setLocation("Boston");
+                    pdfSigner.setSignerProperties(signerProps);
+                    template.apply(pdfSigner, (X509Certificate) chain[0]);
+                    description = signerProps.getSignatureAppearance().getSignedAppearanceText().generateDescriptionText();
+
+                    pdfSigner.signDetached(new BouncyCastleDigest(), pks, chain, null, null, null, 0, CryptoStandard.CMS);
+                }
+
+                try (   PdfDocument pdfDocument = new PdfDocument(new PdfReader(resultFile))   ) {
+                    PdfDictionary widget = pdfDocument.getPage(1).getAnnotations().get(0).getPdfObject();
+                    PdfStream normal = widget.getAsDictionary(PdfName.AP).getAsStream(PdfName.N);
+                    LocationTextExtractionStrategy strategy = new LocationTextExtractionStrategy();
+                    new PdfCanvasProcessor(strategy).processContent(normal.getBytes(), new PdfResources(normal.getAsDictionary(PdfName.Resources)));
+                    String[] expected = description.split("\n");
+                    String[] shown = strategy.getResultantText().split("\n");
+                    Assertions.assertEquals(expected.length, shown.length, "Description lines wrapped or cut off");
+                    for (int j = 0; j < expected.length; j++)
+                        Assertions.assertEquals(expected[j].trim(), shown[j].trim());
+                }
+            }
+        }
+    }
 }
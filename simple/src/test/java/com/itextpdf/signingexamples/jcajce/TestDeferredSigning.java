@@ -0,0 +1,130 @@
+package com.itextpdf.signingexamples.jcajce;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.DefaultSignatureAlgorithmIdentifierFinder;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.signatures.PdfPKCS7;
+import com.itextpdf.signatures.SignatureUtil;
+import com.itextpdf.signatures.SignerProperties;
+import com.itextpdf.signingexamples.common.CMSSignedDataTemplate;
+import com.itextpdf.signingexamples.common.PendingSignatureStore;
+import com.itextpdf.signingexamples.common.PendingSignatureStore.PendingSignature;
+
+/**
+ * This test class demonstrates two-phase deferred signing using a
+ * {@link PendingSignatureStore}: documents are prepared first, their
+ * signed attributes are signed separately as by a remote signing
+ * service, and the signature values are injected in bulk by a second
+ * store instance as by another process.
+ */
+class TestDeferredSigning {
+    final static File RESULT_FOLDER = new File("target/test-outputs", "signature");
+    final static File STORE_FOLDER = new File("target/test-outputs", "pending-signatures");
+    final static File DEFERRED_FOLDER = new File(RESULT_FOLDER, "deferred");
+
+    final static String STORE_PATH = "keystore/test1234.p12";
+    final static char[] STORE_PASS = "test1234".toCharArray();
+    static PrivateKey pk;
+    static Certificate[] chain;
+
+    @BeforeAll
+    public static void setUpBeforeClass() throws Exception {
+        RESULT_FOLDER.mkdirs();
+        BouncyCastleProvider provider = new BouncyCastleProvider();
+        Security.addProvider(provider);
+
+        KeyStore ks = KeyStore.getInstance("pkcs12", "SunJSSE");
+        ks.load(new FileInputStream(STORE_PATH), STORE_PASS);
+        String alias = "RSAkey";
+        pk = (PrivateKey) ks.getKey(alias, STORE_PASS);
+        chain = ks.getCertificateChain(alias);
+    }
+
+    @Test
+    void testPrepareSignLaterCompleteInBulk() throws Exception {
+        CMSSignedDataTemplate template = new CMSSignedDataTemplate(chain,
+                new DefaultSignatureAlgorithmIdentifierFinder().find("SHA256withRSA"));
+
+        PendingSignatureStore preparingStore = new PendingSignatureStore(STORE_FOLDER);
+        for (String id : preparingStore.list())
+            preparingStore.remove(id);
+        for (int i = 0; i < 5; i++) {
+            try (   InputStream resource = getClass().getResourceAsStream("/circles.pdf");
+                    PdfReader pdfReader = new PdfReader(resource)   ) {
+                preparingStore.prepare(pdfReader, template, new SignerProperties().setReason("Deferred " + i));
+            }
+        }
+
+        PendingSignatureStore completingStore = new PendingSignatureStore(STORE_FOLDER);
+        List<String> ids = completingStore.list();
+        assertEquals(5, ids.size());
+
+        Map<String, byte[]> signatures = new HashMap<>();
+        for (String id : ids) {
+            PendingSignature pending = completingStore.load(id);
+            Signature signature = Signature.getInstance("SHA256withRSA");
+            signature.initSign(pk);
+            signature.update(pending.getSignedAttributes());
+            signatures.put(id, signature.sign());
+        }
+
+        Map<String, Exception> failures = completingStore.completeAll(signatures, DEFERRED_FOLDER);
+        assertTrue(failures.isEmpty(), "Failures: " + failures);
+        assertTrue(completingStore.list().isEmpty(), "Entries left pending");
+
+        for (String id : ids) {
+            try (   PdfReader pdfReader = new PdfReader(new File(DEFERRED_FOLDER, id + ".pdf"));
+                    PdfDocument pdfDocument = new PdfDocument(pdfReader)   ) {
+                SignatureUtil signatureUtil = new SignatureUtil(pdfDocument);
+                String name = signatureUtil.getSignatureNames().get(0);
+                assertTrue(signatureUtil.signatureCoversWholeDocument(name), "Signature does not cover the whole document");
+                PdfPKCS7 pkcs7 = signatureUtil.readSignatureData(name);
+                assertTrue(pkcs7.verifySignatureIntegrityAndAuthenticity(), "Signature does not verify");
+            }
+        }
+    }
+
+    @Test
+    void testRejectWrongSignature() throws Exception {
+        CMSSignedDataTemplate template = new CMSSignedDataTemplate(chain,
+                new DefaultSignatureAlgorithmIdentifierFinder().find("SHA256withRSA"));
+        PendingSignatureStore store = new PendingSignatureStore(new File(STORE_FOLDER, "rejecting"));
+
+        PendingSignature pending;
+        try (   InputStream resource = getClass().getResourceAsStream("/circles.pdf");
+                PdfReader pdfReader = new PdfReader(resource)   ) {
+            pending = store.prepare(pdfReader, template, null);
+        }
+
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(pk);
+        signature.update("something else".getBytes());
+        byte[] wrongSignature = signature.sign();
+
+        assertThrows(GeneralSecurityException.class, () -> store.complete(pending.getId(), wrongSignature, new ByteArrayOutputStream()));
+        assertTrue(store.list().contains(pending.getId()), "Entry not pending anymore after failure");
+        store.remove(pending.getId());
+    }
+}
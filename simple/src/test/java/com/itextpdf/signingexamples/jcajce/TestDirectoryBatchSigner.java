@@ -0,0 +1,142 @@
+package com.itextpdf.signingexamples.jcajce;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.signatures.PdfPKCS7;
+import com.itextpdf.signatures.SignatureUtil;
+import com.itextpdf.signatures.SignerProperties;
+import com.itextpdf.signingexamples.common.PdfFileSigner;
+import com.itextpdf.signingexamples.jcajce.DirectoryBatchSigner.Report;
+import com.itextpdf.signingexamples.jcajce.DirectoryBatchSigner.Result;
+import com.itextpdf.signingexamples.jcajce.DirectoryBatchSigner.Status;
+
+/**
+ * This test class signs a directory tree using a {@link DirectoryBatchSigner}.
+ */
+class TestDirectoryBatchSigner {
+    final static Path BATCH_FOLDER = Paths.get("target/test-outputs", "batch");
+
+    final static String STORE_PATH = "keystore/test1234.p12";
+    final static char[] STORE_PASS = "test1234".toCharArray();
+    static PrivateKey pk;
+    static Certificate[] chain;
+
+    @BeforeAll
+    public static void setUpBeforeClass() throws Exception {
+        BouncyCastleProvider provider = new BouncyCastleProvider();
+        Security.addProvider(provider);
+
+        KeyStore ks = KeyStore.getInstance("pkcs12", "SunJSSE");
+        ks.load(new FileInputStream(STORE_PATH), STORE_PASS);
+        String alias = "RSAkey";
+        pk = (PrivateKey) ks.getKey(alias, STORE_PASS);
+        chain = ks.getCertificateChain(alias);
+    }
+
+    @Test
+    void testSignDirectoryTree() throws Exception {
+        Path input = BATCH_FOLDER.resolve("input");
+        Path output = BATCH_FOLDER.resolve("output");
+        delete(BATCH_FOLDER);
+        for (int i = 0; i < 24; i++) {
+            Path source = input.resolve("folder" + (i % 3)).resolve("circles-" + i + ".pdf");
+            Files.createDirectories(source.getParent());
+            try (   InputStream resource = getClass().getResourceAsStream("/circles.pdf")   ) {
+                Files.copy(resource, source);
+            }
+        }
+        Path signed = input.resolve("signed").resolve("already-signed.pdf");
+        Files.createDirectories(signed.getParent());
+        PrivateKeySignatureContainerBC container = new PrivateKeySignatureContainerBC("SHA256withRSA", pk, (X509Certificate) chain[0], PdfName.Adbe_pkcs7_detached);
+        new PdfFileSigner(input.resolve("folder0").resolve("circles-0.pdf").toFile(), signed.toFile())
+                .signExternalContainer(container, container.estimateSize());
+        Files.write(input.resolve("broken.pdf"), "not a PDF".getBytes());
+        Files.write(input.resolve("readme.txt"), "not signed".getBytes());
+
+        DirectoryBatchSigner batchSigner = new DirectoryBatchSigner("SHA256withRSA", pk, (X509Certificate) chain[0])
+                .setSignerProperties(() -> new SignerProperties().setReason("Batch"));
+
+        Report report = batchSigner.sign(input, output);
+        System.out.println(report);
+        assertEquals(24, report.count(Status.SIGNED));
+        assertEquals(1, report.count(Status.SKIPPED));
+        assertEquals(1, report.count(Status.FAILED));
+        for (Result result : report.getResults()) {
+            if (result.getStatus() == Status.SIGNED)
+                verify(result.getTarget());
+        }
+        assertFalse(Files.exists(output.resolve("broken.pdf")), "Output of failed file exists");
+        assertFalse(Files.exists(output.resolve("signed").resolve("already-signed.pdf")), "Output of signed file exists");
+        try (   Stream<Path> paths = Files.walk(output)   ) {
+            assertTrue(paths.noneMatch(path -> path.toString().endsWith(PdfFileSigner.PART_SUFFIX)), "Temporary file left");
+        }
+
+        report = batchSigner.sign(input, output);
+        System.out.println(report);
+        assertEquals(0, report.count(Status.SIGNED));
+        assertEquals(25, report.count(Status.SKIPPED));
+        assertEquals(1, report.count(Status.FAILED));
+    }
+
+    @Test
+    void testSignWithSmallHeapBudget() throws Exception {
+        Path input = BATCH_FOLDER.resolve("small-budget-input");
+        Path output = BATCH_FOLDER.resolve("small-budget-output");
+        delete(input);
+        delete(output);
+        Files.createDirectories(input);
+        for (int i = 0; i < 8; i++) {
+            try (   InputStream resource = getClass().getResourceAsStream("/circles.pdf")   ) {
+                Files.copy(resource, input.resolve("circles-" + i + ".pdf"));
+            }
+        }
+
+        Report report = new DirectoryBatchSigner("SHA256withRSA", pk, (X509Certificate) chain[0])
+                .setHeapBudget(1024)
+                .sign(input, output);
+        assertEquals(8, report.count(Status.SIGNED));
+    }
+
+    static void verify(Path path) throws Exception {
+        try (   PdfReader pdfReader = new PdfReader(path.toFile());
+                PdfDocument pdfDocument = new PdfDocument(pdfReader)   ) {
+            SignatureUtil signatureUtil = new SignatureUtil(pdfDocument);
+            String name = signatureUtil.getSignatureNames().get(0);
+            assertTrue(signatureUtil.signatureCoversWholeDocument(name), "Signature does not cover the whole document");
+            PdfPKCS7 pkcs7 = signatureUtil.readSignatureData(name);
+            assertTrue(pkcs7.verifySignatureIntegrityAndAuthenticity(), "Signature does not verify");
+            assertEquals("Batch", pkcs7.getReason());
+        }
+    }
+
+    static void delete(Path directory) throws Exception {
+        if (!Files.exists(directory))
+            return;
+        try (   Stream<Path> paths = Files.walk(directory)   ) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(path);
+        }
+    }
+}
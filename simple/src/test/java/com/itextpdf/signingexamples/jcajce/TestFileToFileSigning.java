@@ -0,0 +1,139 @@
+package com.itextpdf.signingexamples.jcajce;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.signatures.ExternalBlankSignatureContainer;
+import com.itextpdf.signatures.IExternalSignatureContainer;
+import com.itextpdf.signatures.PdfPKCS7;
+import com.itextpdf.signatures.SignatureUtil;
+import com.itextpdf.signingexamples.common.PdfFileSigner;
+
+/**
+ * This test class signs files into files using a {@link PdfFileSigner}
+ * and checks that the original revision is kept unchanged.
+ */
+class TestFileToFileSigning {
+    final static File RESULT_FOLDER = new File("target/test-outputs", "signature");
+
+    final static String STORE_PATH = "keystore/test1234.p12";
+    final static char[] STORE_PASS = "test1234".toCharArray();
+    static PrivateKey pk;
+    static Certificate[] chain;
+
+    @BeforeAll
+    public static void setUpBeforeClass() throws Exception {
+        RESULT_FOLDER.mkdirs();
+        BouncyCastleProvider provider = new BouncyCastleProvider();
+        Security.addProvider(provider);
+
+        KeyStore ks = KeyStore.getInstance("pkcs12", "SunJSSE");
+        ks.load(new FileInputStream(STORE_PATH), STORE_PASS);
+        String alias = "RSAkey";
+        pk = (PrivateKey) ks.getKey(alias, STORE_PASS);
+        chain = ks.getCertificateChain(alias);
+    }
+
+    @Test
+    void testSignFileToFile() throws Exception {
+        File source = new File(RESULT_FOLDER, "circles-file-to-file-source.pdf");
+        try (   InputStream resource = getClass().getResourceAsStream("/circles.pdf")   ) {
+            Files.copy(resource, source.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        sign(source, new File(RESULT_FOLDER, "circles-signed-file-to-file.pdf"));
+    }
+
+    @Test
+    void testSignLargeFileToFile() throws Exception {
+        File source = new File(RESULT_FOLDER, "circles-file-to-file-large-source.pdf");
+        try (   PdfReader pdfReader = new PdfReader(getClass().getResourceAsStream("/circles.pdf"));
+                PdfDocument circles = new PdfDocument(pdfReader);
+                PdfDocument large = new PdfDocument(new PdfWriter(source))   ) {
+            for (int i = 0; i < 2000; i++)
+                circles.copyPagesTo(1, circles.getNumberOfPages(), large);
+        }
+        sign(source, new File(RESULT_FOLDER, "circles-signed-file-to-file-large.pdf"));
+    }
+
+    @Test
+    void testRejectSourceAsTarget() throws Exception {
+        File source = new File(RESULT_FOLDER, "circles-file-to-file-same-source.pdf");
+        try (   InputStream resource = getClass().getResourceAsStream("/circles.pdf")   ) {
+            Files.copy(resource, source.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        File sameFile = new File(new File(RESULT_FOLDER, "."), source.getName());
+        assertThrows(IllegalArgumentException.class, () -> new PdfFileSigner(source, sameFile));
+    }
+
+    @Test
+    void testFailureLeavesTargetUnchanged() throws Exception {
+        File source = new File(RESULT_FOLDER, "circles-file-to-file-failing-source.pdf");
+        try (   InputStream resource = getClass().getResourceAsStream("/circles.pdf")   ) {
+            Files.copy(resource, source.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        File target = new File(RESULT_FOLDER, "circles-signed-file-to-file-failing.pdf");
+        byte[] previous = "previous content".getBytes(StandardCharsets.US_ASCII);
+        Files.write(target.toPath(), previous);
+
+        PdfFileSigner pdfSigner = new PdfFileSigner(source, target);
+        IExternalSignatureContainer failingContainer = new ExternalBlankSignatureContainer(PdfName.Adobe_PPKLite, PdfName.Adbe_pkcs7_detached) {
+            @Override
+            public byte[] sign(InputStream data) throws GeneralSecurityException {
+                throw new GeneralSecurityException("Simulated signing failure");
+            }
+        };
+        assertThrows(GeneralSecurityException.class, () -> pdfSigner.signExternalContainer(failingContainer, 8192));
+
+        assertArrayEquals(previous, Files.readAllBytes(target.toPath()), "Target changed");
+        assertFalse(new File(RESULT_FOLDER, target.getName() + PdfFileSigner.PART_SUFFIX).exists(), "Temporary file left");
+    }
+
+    void sign(File source, File target) throws Exception {
+        PrivateKeySignatureContainerBC signatureContainer = new PrivateKeySignatureContainerBC("SHA256withRSA", pk, (X509Certificate) chain[0], PdfName.Adbe_pkcs7_detached);
+
+        long start = System.nanoTime();
+        PdfFileSigner pdfSigner = new PdfFileSigner(source, target);
+        pdfSigner.signExternalContainer(signatureContainer, signatureContainer.estimateSize());
+        long time = System.nanoTime() - start;
+        System.out.printf("%s: %d bytes signed in %.2f ms\n", source.getName(), source.length(), time / 1e6);
+
+        byte[] original = Files.readAllBytes(source.toPath());
+        byte[] signed = Files.readAllBytes(target.toPath());
+        assertTrue(signed.length > original.length, "No revision appended");
+        assertArrayEquals(original, Arrays.copyOf(signed, original.length), "Original revision changed");
+        assertFalse(new File(target.getParentFile(), target.getName() + PdfFileSigner.PART_SUFFIX).exists(), "Temporary file left");
+
+        try (   PdfReader pdfReader = new PdfReader(target);
+                PdfDocument pdfDocument = new PdfDocument(pdfReader)   ) {
+            SignatureUtil signatureUtil = new SignatureUtil(pdfDocument);
+            String name = signatureUtil.getSignatureNames().get(0);
+            assertTrue(signatureUtil.signatureCoversWholeDocument(name), "Signature does not cover the whole document");
+            PdfPKCS7 pkcs7 = signatureUtil.readSignatureData(name);
+            assertTrue(pkcs7.verifySignatureIntegrityAndAuthenticity(), "Signature does not verify");
+        }
+    }
+}
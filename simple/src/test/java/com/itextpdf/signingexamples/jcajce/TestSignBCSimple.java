@@ -56,7 +56,7 @@ class TestSignBCSimple {
                 OutputStream result = new FileOutputStream(new File(RESULT_FOLDER, "circles-signed-simple-RSA.pdf"))) {
             PdfSigner pdfSigner = new PdfSigner(pdfReader, result, new StampingProperties().useAppendMode());
 
-            pdfSigner.signExternalContainer(signatureContainer, 8192);
+            pdfSigner.signExternalContainer(signatureContainer, signatureContainer.estimateSize());
         }
     }
 
@@ -69,7 +69,7 @@ class TestSignBCSimple {
                 OutputStream result = new FileOutputStream(new File(RESULT_FOLDER, "circles-signed-simple-RSASSA-PSS.pdf"))) {
             PdfSigner pdfSigner = new PdfSigner(pdfReader, result, new StampingProperties().useAppendMode());
 
-            pdfSigner.signExternalContainer(signatureContainer, 8192);
+            pdfSigner.signExternalContainer(signatureContainer, signatureContainer.estimateSize());
         }
     }
 